@@ -0,0 +1,539 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree on
+ * one of its fields, the key field. Page 0 is a BTreeRootPtrPage holding the
+ * number of the root page; the other pages are BTreeInternalPages and
+ * BTreeLeafPages. The leaves hold the tuples in key order and are linked
+ * from left to right, so {@link #iterator(TransactionId)} returns the tuples
+ * sorted on the key and {@link #indexIterator} finds the tuples with a key
+ * equal to, or in a range around, a value by reading one page per level and
+ * the leaves that hold them.
+ * <p/>
+ * Inserts split full pages on their way back up the tree. Deletes only
+ * remove the tuple from its leaf; pages are not merged, so a leaf can become
+ * empty, and scans skip over it.
+ * <p/>
+ * Pages are locked through the BufferPool. Readers descend with shared locks
+ * and writers with exclusive locks, coupled from parent to child: the lock on
+ * a page is released once the lock on the next page is held, unless the
+ * page may still change (a writer keeps the locks above a full page, which
+ * a split would change) or the transaction already held it before. Leaves
+ * that an insert or delete changes stay locked until the transaction ends.
+ * <p/>
+ * A table is opened as a BTreeFile by adding "btree" after its schema in the
+ * catalog file; its key is the primary key, or the first field.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ * @see Catalog#loadSchema
+ */
+public class BTreeFile implements IndexedFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableId;
+    private final PageChannel channel;
+
+    //pages in the file, -1 until counted, see numPages()
+    private int numPages = -1;      //guarded by this
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. The file may
+     * be empty or missing, in which case the tree is empty.
+     *
+     * @param f        the file that stores the on-disk backing store for this file.
+     * @param td       the TupleDesc of the tuples of the table
+     * @param keyField the index of the field the tree is sorted on
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        }
+        this.f = f;
+        this.channel = new PageChannel(f);
+        this.td = td;
+        this.keyField = keyField;
+        this.tableId = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see IndexedFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the type of the key field
+     */
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageNo = pid.pageNumber();
+        if (pid.getTableId() != tableId || pageNo < 0 || (pageNo > 0 && pageNo >= numPages())) {
+            throw new IllegalArgumentException("page " + pageNo + " is not in this file");
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pageNo * data.length;
+        try {
+            //the root pointer page of a new file is not on disk yet, its
+            //bytes stay zero, i.e. the tree is empty
+            channel.readFully(buf, offset);
+            BTreePageId id = (BTreePageId) pid;
+            switch (data[0]) {
+                case BTreePage.ROOT_PTR:
+                    return new BTreeRootPtrPage(id, data);
+                case BTreePage.INTERNAL:
+                    return new BTreeInternalPage(id, data, getKeyType());
+                case BTreePage.LEAF:
+                    return new BTreeLeafPage(id, data, td, keyField);
+                default:
+                    return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        channel.writeFully(buf, (long) page.getId().pageNumber() * BufferPool.getPageSize());
+        synchronized (this) {
+            numPages = Math.max(numPages(), page.getId().pageNumber() + 1);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, including the root pointer
+     * page, even if it has not been written yet.
+     */
+    public synchronized int numPages() {
+        if (numPages < 0) {
+            numPages = (int) Math.max(1, f.length() / BufferPool.getPageSize());
+        }
+        return numPages;
+    }
+
+    /**
+     * Appends a page with the given bytes to the file, so that the page can
+     * be read through the BufferPool (and read again if the transaction that
+     * allocated it aborts).
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocatePage(byte[] data) throws IOException {
+        int pageNo = numPages();
+        channel.writeFully(ByteBuffer.wrap(data), (long) pageNo * BufferPool.getPageSize());
+        numPages = pageNo + 1;
+        return pageNo;
+    }
+
+    /**
+     * The pages a transaction locked while going down the tree, and whether
+     * it held them before; see {@link #release(TransactionId, Path, int)}.
+     */
+    private static class Path {
+        final ArrayList<BTreePage> pages = new ArrayList<BTreePage>();
+        final ArrayList<Boolean> heldBefore = new ArrayList<Boolean>();
+        //the index of the next page among the children of each page
+        final ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+
+        int size() {
+            return pages.size();
+        }
+    }
+
+    /**
+     * Locks page pageNo for tid and adds it to path.
+     */
+    private BTreePage lock(TransactionId tid, int pageNo, Permissions perm, Path path)
+            throws DbException, TransactionAbortedException {
+        BTreePageId pid = new BTreePageId(tableId, pageNo);
+        boolean held = Database.getBufferPool().holdsLock(tid, pid);
+        BTreePage page = (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+        path.pages.add(page);
+        path.heldBefore.add(held);
+        return page;
+    }
+
+    /**
+     * Drops the first n pages of path, releasing the locks that tid did not
+     * hold before it locked them. They must not have been changed.
+     */
+    private void release(TransactionId tid, Path path, int n) {
+        for (int i = 0; i < n; i++) {
+            if (!path.heldBefore.get(i)) {
+                Database.getBufferPool().releasePage(tid, path.pages.get(i).getId());
+            }
+        }
+        path.pages.subList(0, n).clear();
+        path.heldBefore.subList(0, n).clear();
+        path.childIndexes.subList(0, Math.min(n, path.childIndexes.size())).clear();
+    }
+
+    /**
+     * Goes down to the leaf where the tuples with key start (or end, if
+     * leftmost is false), or to the first leaf if key is null, with shared
+     * locks. Only the leaf stays on path.
+     *
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, boolean leftmost, Path path)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) lock(tid, 0, Permissions.READ_ONLY, path);
+        if (rootPtr.getRoot() == 0) {
+            release(tid, path, path.size());
+            return null;
+        }
+        BTreePage page = lock(tid, rootPtr.getRoot(), Permissions.READ_ONLY, path);
+        release(tid, path, 1);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            int i = key == null ? 0 : internal.childIndexFor(key, leftmost);
+            page = lock(tid, internal.getChild(i), Permissions.READ_ONLY, path);
+            release(tid, path, 1);
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of the table");
+        }
+        Field key = t.getField(keyField);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        Path path = new Path();
+
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) lock(tid, 0, Permissions.READ_WRITE, path);
+        if (rootPtr.getRoot() == 0) {
+            //first tuple: the root is an empty leaf
+            rootPtr.setRoot(allocatePage(BTreeLeafPage.createEmptyPageData()));
+            dirty.add(rootPtr);
+        }
+
+        //go down with exclusive locks, keeping the locks above full pages
+        path.childIndexes.add(0);
+        BTreePage page = lock(tid, rootPtr.getRoot(), Permissions.READ_WRITE, path);
+        while (true) {
+            boolean full = page instanceof BTreeLeafPage
+                    ? ((BTreeLeafPage) page).isFull() : ((BTreeInternalPage) page).isFull();
+            if (!full && dirty.isEmpty()) {
+                //a split cannot reach the pages above
+                release(tid, path, path.size() - 1);
+            }
+            if (page instanceof BTreeLeafPage) {
+                break;
+            }
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            int i = internal.childIndexFor(key, false);
+            path.childIndexes.add(i);
+            page = lock(tid, internal.getChild(i), Permissions.READ_WRITE, path);
+        }
+
+        BTreeLeafPage leaf = (BTreeLeafPage) page;
+        leaf.insertTuple(t);
+        dirty.add(leaf);
+
+        //split overfull pages from the leaf up
+        for (int level = path.size() - 1; level > 0; level--) {
+            BTreePage node = path.pages.get(level);
+            Field up;
+            BTreePage right;
+            if (node instanceof BTreeLeafPage) {
+                if (!((BTreeLeafPage) node).isOverfull()) {
+                    break;
+                }
+                BTreeLeafPage newLeaf = (BTreeLeafPage) newPage(tid, BTreeLeafPage.createEmptyPageData());
+                up = ((BTreeLeafPage) node).splitInto(newLeaf);
+                right = newLeaf;
+            } else {
+                if (!((BTreeInternalPage) node).isOverfull()) {
+                    break;
+                }
+                BTreeInternalPage newInternal =
+                        (BTreeInternalPage) newPage(tid, BTreeInternalPage.createEmptyPageData());
+                up = ((BTreeInternalPage) node).splitInto(newInternal);
+                right = newInternal;
+            }
+            dirty.add(right);
+
+            BTreePage parent = path.pages.get(level - 1);
+            if (parent instanceof BTreeRootPtrPage) {
+                //the root split, the tree grows by one level
+                BTreeInternalPage root =
+                        (BTreeInternalPage) newPage(tid, BTreeInternalPage.createEmptyPageData());
+                root.setEntries(Collections.singletonList(up),
+                        Arrays.asList(node.getId().pageNumber(), right.getId().pageNumber()));
+                ((BTreeRootPtrPage) parent).setRoot(root.getId().pageNumber());
+                dirty.add(root);
+            } else {
+                ((BTreeInternalPage) parent).insertEntry(path.childIndexes.get(level - 1), up,
+                        right.getId().pageNumber());
+            }
+            if (!dirty.contains(parent)) {
+                dirty.add(parent);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Allocates a page with the given bytes and locks it for tid.
+     */
+    private BTreePage newPage(TransactionId tid, byte[] data)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId pid = new BTreePageId(tableId, allocatePage(data));
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId)
+                || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not stored in this file");
+        }
+        BufferPool buffer = Database.getBufferPool();
+        Page p = buffer.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        if (p instanceof BTreeLeafPage) {
+            BTreeLeafPage leaf = (BTreeLeafPage) p;
+            int i = rid.tupleno();
+            if (i < leaf.getNumTuples() && sameFields(leaf.getTuple(i), t)) {
+                return delete(leaf, i, t);
+            }
+        }
+
+        //the tuple moved since it was read: look for it among the tuples
+        //with its key
+        Field key = t.getField(keyField);
+        Path path = new Path();
+        BTreeLeafPage leaf = findLeaf(tid, key, true, path);
+        while (leaf != null) {
+            for (int i = leaf.search(key, false); i < leaf.getNumTuples(); i++) {
+                if (!leaf.getKey(i).equals(key)) {
+                    release(tid, path, path.size());
+                    throw new DbException("tuple is not stored in this file");
+                }
+                if (sameFields(leaf.getTuple(i), t)) {
+                    leaf = (BTreeLeafPage) buffer.getPage(tid, leaf.getId(), Permissions.READ_WRITE);
+                    return delete(leaf, i, t);
+                }
+            }
+            int next = leaf.getRightSibling();
+            if (next == 0) {
+                break;
+            }
+            leaf = (BTreeLeafPage) lock(tid, next, Permissions.READ_ONLY, path);
+            release(tid, path, 1);
+        }
+        release(tid, path, path.size());
+        throw new DbException("tuple is not stored in this file");
+    }
+
+    private static ArrayList<Page> delete(BTreeLeafPage leaf, int i, Tuple t) {
+        leaf.deleteTuple(i);
+        t.setRecordId(null);
+        ArrayList<Page> result = new ArrayList<Page>();
+        result.add(leaf);
+        return result;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new LeafIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * <tt>key op operand</tt>, in key order. It starts at the first leaf
+     * that can hold such a tuple (the first leaf of the tree for LESS_THAN
+     * and LESS_THAN_OR_EQ) and stops after the last one.
+     *
+     * @param op      EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or
+     *                LESS_THAN_OR_EQ
+     * @param operand a field of the type of the key
+     * @throws IllegalArgumentException if op is not one of these
+     * @see #supports(Predicate.Op)
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("cannot look up keys " + op + " a value");
+        }
+        return new LeafIterator(tid, op, operand);
+    }
+
+    // see IndexedFile.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * Iterates over the leaves from left to right, holding a shared lock on
+     * the current leaf only (unless the transaction held the others before).
+     */
+    private class LeafIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;      //null for all tuples
+        private final Field operand;
+        private final Path path = new Path();
+        private Iterator<Tuple> tuples = null;
+        private BTreeLeafPage leaf = null;
+        private Tuple next = null;
+        private boolean open = false;
+        private boolean done = false;
+
+        LeafIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+            open = true;
+        }
+
+        /**
+         * Positions the iterator on the first tuple that may qualify.
+         */
+        private void start() throws DbException, TransactionAbortedException {
+            boolean fromStart = op == null || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ;
+            boolean after = op == Predicate.Op.GREATER_THAN;
+            leaf = findLeaf(tid, fromStart ? null : operand, !after, path);
+            if (leaf == null) {
+                done = true;
+                return;
+            }
+            List<Tuple> all = leaf.getTuples();
+            int from = fromStart ? 0 : leaf.search(operand, after);
+            tuples = all.subList(from, all.size()).iterator();
+        }
+
+        /**
+         * @return true if t and the tuples after it cannot qualify
+         */
+        private boolean pastEnd(Tuple t) {
+            if (op == null) {
+                return false;
+            }
+            Field key = t.getField(keyField);
+            switch (op) {
+                case EQUALS:
+                    return !key.equals(operand);
+                case LESS_THAN:
+                    return !key.compare(Predicate.Op.LESS_THAN, operand);
+                case LESS_THAN_OR_EQ:
+                    return !key.compare(Predicate.Op.LESS_THAN_OR_EQ, operand);
+                default:
+                    return false;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open || done) {
+                return false;
+            }
+            if (next != null) {
+                return true;
+            }
+            if (tuples == null) {
+                start();
+            }
+            while (!done) {
+                if (tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (pastEnd(t)) {
+                        finish();
+                        return false;
+                    }
+                    next = t;
+                    return true;
+                }
+                int sibling = leaf.getRightSibling();
+                if (sibling == 0) {
+                    finish();
+                    return false;
+                }
+                leaf = (BTreeLeafPage) lock(tid, sibling, Permissions.READ_ONLY, path);
+                release(tid, path, 1);
+                tuples = leaf.getTuples().iterator();
+            }
+            return false;
+        }
+
+        /**
+         * Releases the current leaf, there are no more tuples.
+         */
+        private void finish() {
+            release(tid, path, path.size());
+            done = true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            release(tid, path, path.size());
+            tuples = null;
+            leaf = null;
+            next = null;
+            done = false;
+        }
+
+        public void close() {
+            release(tid, path, path.size());
+            tuples = null;
+            leaf = null;
+            next = null;
+            open = false;
+        }
+    }
+}
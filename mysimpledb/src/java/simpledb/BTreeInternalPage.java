@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BTreeInternalPage is an internal node of a BTreeFile: n keys and n + 1
+ * child page numbers, c0 k0 c1 k1 ... kn-1 cn. The subtree of child ci
+ * holds the keys between ki-1 and ki, both included, since duplicate keys
+ * may end up on both sides of a split.
+ * <p/>
+ * The page stores the category byte, the number of keys n (an int), the
+ * children (ints) and, starting at a fixed offset, the keys.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type keyType;
+    private final int maxKeys;
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    /**
+     * Create an internal page of the BTreeFile of id, which must be in the
+     * Catalog, from its bytes.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, file(id).getKeyType());
+    }
+
+    BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data);
+        this.keyType = keyType;
+        this.maxKeys = maxKeys(keyType);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get(0) != INTERNAL) {
+            throw new IOException("not a B+ tree internal page");
+        }
+        int n = buf.getInt(1);
+        for (int i = 0; i <= n; i++) {
+            children.add(buf.getInt(5 + 4 * i));
+        }
+        int keyOffset = keyOffset();
+        for (int i = 0; i < n; i++) {
+            keys.add(parse(keyType, buf, keyOffset + i * keyType.getLen()));
+        }
+    }
+
+    /**
+     * @return the number of keys that fit on an internal page
+     */
+    static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - 9) / (4 + keyType.getLen());
+    }
+
+    private int keyOffset() {
+        return 5 + 4 * (maxKeys + 1);
+    }
+
+    /**
+     * @return the bytes of an internal page with a single child, page 0
+     */
+    static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = INTERNAL;
+        return data;
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * Returns the index of the child whose subtree holds key. If leftmost
+     * is true this is the first such child, where the tuples with key
+     * start, otherwise the last one.
+     */
+    public int childIndexFor(Field key, boolean leftmost) {
+        Predicate.Op op = leftmost ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+        //the first key that is >= (or >) key
+        int lo = 0;
+        int hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compare(op, key)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of child page pageNo, or -1
+     */
+    public int indexOfChild(int pageNo) {
+        return children.indexOf(pageNo);
+    }
+
+    /**
+     * Replaces the contents of this page with the given keys and children,
+     * of which there must be one more.
+     */
+    public void setEntries(List<Field> keys, List<Integer> children) {
+        if (children.size() != keys.size() + 1) {
+            throw new IllegalArgumentException("need one more child than keys");
+        }
+        this.keys.clear();
+        this.keys.addAll(keys);
+        this.children.clear();
+        this.children.addAll(children);
+    }
+
+    /**
+     * Adds key and, to its right, child page rightChild after the child at
+     * childIndex, which has been split into itself and rightChild. The page
+     * may then hold more keys than fit, see {@link #isOverfull()}.
+     */
+    public void insertEntry(int childIndex, Field key, int rightChild) {
+        keys.add(childIndex, key);
+        children.add(childIndex + 1, rightChild);
+    }
+
+    /**
+     * @return true if inserting another key would make the page overfull
+     */
+    public boolean isFull() {
+        return keys.size() >= maxKeys;
+    }
+
+    /**
+     * @return true if the page holds more keys than fit and must be split
+     */
+    public boolean isOverfull() {
+        return keys.size() > maxKeys;
+    }
+
+    /**
+     * Moves the upper half of the keys and children of this page to right,
+     * an empty page that becomes its right neighbour, and returns the key
+     * between them, which is on neither page and has to be added to the
+     * parent.
+     */
+    public Field splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        Field up = keys.get(mid);
+        right.setEntries(keys.subList(mid + 1, keys.size()), children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+
+    public byte[] getPageData() {
+        if (isOverfull()) {
+            throw new IllegalStateException("internal page holds too many keys");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(0, INTERNAL);
+        buf.putInt(1, keys.size());
+        for (int i = 0; i < children.size(); i++) {
+            buf.putInt(5 + 4 * i, children.get(i));
+        }
+        int keyOffset = keyOffset();
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).serialize(buf, keyOffset + i * keyType.getLen());
+        }
+        return buf.array();
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, getBeforeImageData(), keyType);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BTreeLeafPage is a leaf of a BTreeFile. It holds tuples sorted on the key
+ * field, and the number of the leaf to its right (0 for the last leaf), so
+ * that range scans can go from leaf to leaf.
+ * <p/>
+ * The page stores the category byte, the right sibling and the number of
+ * tuples (ints), then the tuples, packed and in key order. The RecordId of
+ * a tuple is its position on the page, so it changes when tuples before it
+ * are inserted or deleted; BTreeFile.deleteTuple looks the tuple up by its
+ * key if it is no longer at its RecordId.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int maxTuples;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    private int rightSibling;
+
+    /**
+     * Create a leaf page of the BTreeFile of id, which must be in the
+     * Catalog, from its bytes.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, file(id).getTupleDesc(), file(id).getKeyField());
+    }
+
+    BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, data);
+        this.td = td;
+        this.keyField = keyField;
+        this.maxTuples = maxTuples(td);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get(0) != LEAF) {
+            throw new IOException("not a B+ tree leaf page");
+        }
+        rightSibling = buf.getInt(1);
+        int n = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, parse(type, buf, offset));
+                offset += type.getLen();
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+    }
+
+    /**
+     * @return the number of tuples of td that fit on a leaf page
+     */
+    static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /**
+     * @return the bytes of an empty leaf page with no right sibling
+     */
+    static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = LEAF;
+        return data;
+    }
+
+    /**
+     * @return the page number of the leaf to the right of this one, or 0 if
+     * this is the last leaf
+     */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    public void setRightSibling(int pageNo) {
+        rightSibling = pageNo;
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /**
+     * @return the key of tuple i
+     */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * @return the tuples on this page, in key order, as a list that later
+     * changes to the page do not affect
+     */
+    public List<Tuple> getTuples() {
+        return new ArrayList<Tuple>(tuples);
+    }
+
+    /**
+     * @return the position of the first tuple whose key is >= key (or > key
+     * if after is true), or the number of tuples if there is none
+     */
+    public int search(Field key, boolean after) {
+        Predicate.Op op = after ? Predicate.Op.GREATER_THAN : Predicate.Op.GREATER_THAN_OR_EQ;
+        int lo = 0;
+        int hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(op, key)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sets the RecordIds of the tuples from position from on.
+     */
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++) {
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    /**
+     * Adds t after the tuples with the same key. The page may then hold more
+     * tuples than fit, see {@link #isOverfull()}.
+     */
+    public void insertTuple(Tuple t) {
+        int i = search(t.getField(keyField), true);
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /**
+     * Removes the tuple at position i.
+     */
+    public void deleteTuple(int i) {
+        tuples.remove(i).setRecordId(null);
+        renumber(i);
+    }
+
+    /**
+     * @return true if inserting another tuple would make the page overfull
+     */
+    public boolean isFull() {
+        return tuples.size() >= maxTuples;
+    }
+
+    /**
+     * @return true if the page holds more tuples than fit and must be split
+     */
+    public boolean isOverfull() {
+        return tuples.size() > maxTuples;
+    }
+
+    /**
+     * Moves the upper half of the tuples of this page to right, an empty
+     * leaf that becomes its right sibling, and returns the first key on
+     * right, which separates the two in their parent.
+     */
+    public Field splitInto(BTreeLeafPage right) {
+        List<Tuple> upper = tuples.subList(tuples.size() / 2, tuples.size());
+        right.tuples.addAll(upper);
+        upper.clear();
+        right.renumber(0);
+        right.rightSibling = rightSibling;
+        rightSibling = right.getId().pageNumber();
+        return right.getKey(0);
+    }
+
+    public byte[] getPageData() {
+        if (isOverfull()) {
+            throw new IllegalStateException("leaf page holds too many tuples");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(0, LEAF);
+        buf.putInt(1, rightSibling);
+        buf.putInt(5, tuples.size());
+        int offset = HEADER_SIZE;
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(buf, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+        return buf.array();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, getBeforeImageData(), td, keyField);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * BTreePage is the base class of the pages of a BTreeFile. The first byte
+ * of every page says what kind of page it is, so that BTreeFile.readPage
+ * can decode it: the root pointer page (always page 0), internal pages and
+ * leaf pages. The pages decode their contents when they are read, and
+ * encode them again in getPageData.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    static final byte ROOT_PTR = 0;
+    static final byte INTERNAL = 1;
+    static final byte LEAF = 2;
+
+    protected final BTreePageId pid;
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    //the bytes of the page when it was read or last committed
+    private byte[] oldData;
+
+    /**
+     * Keeps data as the before-image, so it must not be changed by the
+     * caller.
+     */
+    protected BTreePage(BTreePageId pid, byte[] data) throws IOException {
+        if (data.length != BufferPool.getPageSize()) {
+            throw new IOException("page of " + data.length + " bytes, expected " + BufferPool.getPageSize());
+        }
+        this.pid = pid;
+        this.oldData = data;
+    }
+
+    /**
+     * @return the BTreeFile that page pid belongs to, from the Catalog
+     */
+    static BTreeFile file(BTreePageId pid) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+    }
+
+    /**
+     * Returns the field of type type stored at offset in buf.
+     */
+    static Field parse(Type type, ByteBuffer buf, int offset) {
+        try {
+            return type.parse(buf, offset);
+        } catch (ParseException e) {
+            throw new RuntimeException("cannot parse B+ tree page", e);
+        }
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyTid : null;
+    }
+
+    /**
+     * @return the bytes of the page before the changes since it was read or
+     * since setBeforeImage()
+     */
+    protected byte[] getBeforeImageData() {
+        return oldData;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile.
+ */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
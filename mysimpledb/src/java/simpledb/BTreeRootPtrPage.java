@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of a BTreeFile, which holds the number of the
+ * root page of the tree, or 0 while the tree is empty. The root moves when
+ * it splits, the root pointer page does not.
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+
+    /**
+     * Create a root pointer page from its bytes; an all-zero page is the
+     * root pointer page of an empty tree.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get(0) != ROOT_PTR) {
+            throw new IOException("not a B+ tree root pointer page");
+        }
+        root = buf.getInt(1);
+    }
+
+    /**
+     * @return the number of the root page, or 0 if the tree is empty
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(0, ROOT_PTR);
+        buf.putInt(1, root);
+        return buf.array();
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
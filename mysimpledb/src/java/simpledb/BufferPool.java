@@ -3,14 +3,18 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.LinkedList;
 import java.util.Hashtable;
 
@@ -21,7 +25,11 @@ import java.util.Hashtable;
  * <p/>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Tables are locked too: a page is locked
+ * under an intention lock on its table, unless the transaction holds a
+ * table lock that covers the page, see {@link #lockTable}. With
+ * {@link #setRecordLocking(boolean) record locking} on, inserts and deletes
+ * on HeapPages lock the records they change instead of the whole page.
  *
  * @Threadsafe, all fields are final
  */
@@ -40,29 +48,265 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
     
-    private HashMap<PageId,Page> pages;
+    /**
+     * Number of stripes used to serialize loads of missing pages. Two misses
+     * on pages in different stripes read from disk in parallel.
+     */
+    private static final int LOAD_STRIPES = 64;
+    
+    /**
+     * Maximum number of pages in the ring used by sequential accesses, see
+     * {@link #getPage(TransactionId, PageId, Permissions, boolean)}.
+     */
+    public static final int RING_PAGES = 16;
+    
+    /**
+     * Default number of milliseconds a transaction waits for a lock before
+     * it is aborted, see {@link #setLockTimeout(long)}.
+     */
+    public static final long DEFAULT_LOCK_TIMEOUT = 1000;
+    
+    /**
+     * Default number of page locks a transaction takes on a table before
+     * they are escalated to a lock on the table, see
+     * {@link #setLockEscalation(int)}.
+     */
+    public static final int DEFAULT_LOCK_ESCALATION = 1000;
+    
+    private ConcurrentHashMap<PageId,Page> pages;
     private int maxPages;						//maximum number of pages
-    private HashMap<PageId,Integer> accessAr;	//see evictPage() for description
-    private int accessNum;						//see evictPage() for description
+    private final ReplacementPolicy policy;		//chooses pages to evict
+    private final Object[] loadLocks;			//see getPage() for description
+    
+    //Pages brought in by sequential accesses, oldest first, see getPage()
+    private final int ringSize;
+    private final LinkedHashSet<PageId> ring;	//guarded by this
+    private final Set<PageId> ringMembers;		//same pages, readable without the monitor
     
     //Keep track of pages and their lock managers
     private ConcurrentHashMap<PageId,LockManager> lockManagers;
+    
+    //Lock managers of the tables, by table id; they are never retired
+    private final ConcurrentHashMap<Integer,LockManager> tableLocks;
+    
+    //Number of page locks each transaction holds on each table
+    private final ConcurrentHashMap<TransactionId,ConcurrentHashMap<Integer,AtomicInteger>> pageLockCounts;
         
     //Keep track of which transaction accessed/modified which page
     private ConcurrentHashMap<TransactionId,Set<PageId>> tidMap;
     
+    //Reverse of tidMap: which transactions accessed/modified which page
+    private ConcurrentHashMap<PageId,Set<TransactionId>> pageTids;
+    
+    //may pages dirtied by running transactions be evicted, see setSteal()
+    private volatile boolean steal = false;
+    
+    //must a transaction's pages be written when it commits, see setForce()
+    private volatile boolean force = true;
+    
+    //Dirty pages whose contents were logged by a committing transaction,
+    //mapped to that transaction; they are written by flushPage() without
+    //being logged again, e.g. by the background writer
+    private final ConcurrentHashMap<PageId,TransactionId> committedDirty;
+    
+    private PageWriter writer = null;		//guarded by this
+    
+    //milliseconds a transaction waits for a lock before it is aborted
+    private volatile long lockTimeout = DEFAULT_LOCK_TIMEOUT;
+    
+    //what a transaction that has to wait for a lock does about deadlocks
+    private volatile DeadlockPolicy deadlockPolicy = DeadlockPolicy.DETECT;
+    
+    //edges between the transactions waiting for the locks of the pages
+    private final WaitsForGraph waitsFor = new WaitsForGraph();
+    
+    //page locks on a table after which they are escalated, see setLockEscalation()
+    private volatile int lockEscalation = DEFAULT_LOCK_ESCALATION;
+    
+    //do inserts and deletes lock records instead of pages, see setRecordLocking()
+    private volatile boolean recordLocking = false;
+    
+    //Keep track of records and their lock managers, dropped once released
+    private final ConcurrentHashMap<RecordId,LockManager> recordLocks;
+    
+    //Records locked and changes made by each transaction under record locking
+    private final ConcurrentHashMap<TransactionId,RecordState> recordStates;
+    
+    //Transactions with record changes on each page, which keep it from
+    //being evicted until they complete
+    private final HashMap<PageId,Set<TransactionId>> pinned;	//guarded by this
+    
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        pages = new HashMap<PageId,Page>();
-        accessAr = new HashMap<PageId, Integer>();
-        accessNum = 1;
+        this(numPages, new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy choosing which pages to evict,
+     *                 e.g. {@link ClockPolicy} or the scan resistant
+     *                 {@link TwoQueuePolicy}; must not be shared with
+     *                 another BufferPool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        pages = new ConcurrentHashMap<PageId,Page>();
+        this.policy = policy;
+        ringSize = Math.max(1, Math.min(RING_PAGES, numPages / 8));
+        ring = new LinkedHashSet<PageId>();
+        ringMembers = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
         maxPages = numPages;    
         lockManagers = new ConcurrentHashMap<PageId,LockManager>();
+        tableLocks = new ConcurrentHashMap<Integer,LockManager>();
+        pageLockCounts = new ConcurrentHashMap<TransactionId,ConcurrentHashMap<Integer,AtomicInteger>>();
         tidMap = new ConcurrentHashMap<TransactionId,Set<PageId>>();
+        pageTids = new ConcurrentHashMap<PageId,Set<TransactionId>>();
+        committedDirty = new ConcurrentHashMap<PageId,TransactionId>();
+        recordLocks = new ConcurrentHashMap<RecordId,LockManager>();
+        recordStates = new ConcurrentHashMap<TransactionId,RecordState>();
+        pinned = new HashMap<PageId,Set<TransactionId>>();
+        loadLocks = new Object[LOAD_STRIPES];
+        for (int i = 0; i < loadLocks.length; i++) {
+            loadLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return maxPages;
+    }
+
+    /**
+     * Chooses between STEAL and NO STEAL buffer management. Under STEAL, a
+     * page dirtied by a transaction that has not committed yet may be
+     * evicted: flushPage() first appends an update record with the page's
+     * before-image to the log and forces it, so that LogFileRecovery can
+     * undo the write if the transaction aborts or the system crashes. Under
+     * NO STEAL (the default), only clean pages are evicted and a transaction
+     * cannot dirty more pages than the buffer pool holds.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /**
+     * @return true if dirty pages of running transactions may be evicted
+     */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Chooses between FORCE and NO FORCE commits. Under FORCE (the default),
+     * a committing transaction writes all the pages it dirtied to their
+     * files. Under NO FORCE, commit only appends update records for those
+     * pages to the log (see {@link #logDirtyPages(TransactionId)}), so that
+     * committing costs a single force of the log. The pages stay dirty in the
+     * buffer pool until they are evicted, flushed by a checkpoint or written
+     * by the background writer; LogFileRecovery redoes them after a crash.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * @return true if committing transactions write their pages to disk
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Sets how long a transaction waits for a lock held by others before
+     * getPage() throws TransactionAbortedException. Waiting transactions
+     * are woken as soon as the lock is granted to them, so the timeout
+     * only matters for very long holders and, under
+     * DeadlockPolicy.TIMEOUT, for deadlocks.
+     */
+    public void setLockTimeout(long millis) {
+        this.lockTimeout = millis;
+    }
+
+    /**
+     * @return the milliseconds a transaction waits for a lock
+     */
+    public long getLockTimeout() {
+        return lockTimeout;
+    }
+
+    /**
+     * Chooses how deadlocks between transactions waiting for locks
+     * are broken. Under DeadlockPolicy.DETECT (the default), a transaction
+     * that has to wait for a lock looks for a cycle through it in the
+     * waits-for graph of all page and table locks and, if it finds one,
+     * aborts the youngest transaction on it right away. Under DeadlockPolicy.TIMEOUT,
+     * the transactions on the cycle wait until the first one times out.
+     * WAIT_DIE and WOUND_WAIT prevent deadlocks instead, by comparing the
+     * ids of the waiting and the waited for transactions: a transaction
+     * that is aborted keeps its place among the others only if it is
+     * retried with its old TransactionId.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.deadlockPolicy = policy;
+    }
+
+    /**
+     * @return how deadlocks between transactions are broken
+     */
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * Sets how many page locks a transaction takes on a table before
+     * BufferPool tries to replace them with a single lock on the table:
+     * S if the transaction only reads the table, X otherwise. Escalation
+     * does not wait; if another transaction holds a conflicting lock on the
+     * table, the page locks are kept and escalation is tried again after
+     * as many more. A value of 0 or less turns escalation off.
+     */
+    public void setLockEscalation(int pages) {
+        this.lockEscalation = pages;
+    }
+
+    /**
+     * @return the number of page locks on a table that are escalated
+     */
+    public int getLockEscalation() {
+        return lockEscalation;
+    }
+
+    /**
+     * Chooses between page and record locks for the inserts and deletes of
+     * HeapFiles storing HeapPages. With record locking on, such an insert
+     * or delete locks the page IX, and the record it changes X, so that
+     * transactions changing different records of a page run side by side;
+     * the page's monitor serves as a latch while a record is changed. A
+     * page with record changes of running transactions is pinned in the
+     * buffer pool until they complete, as under NO STEAL, and keeps its
+     * committed contents as its before-image. Commits log that image with
+     * the changes of the committing transaction applied, and aborts undo
+     * those changes on the page. Reads of the page or its table, which
+     * lock it S, wait for the record writers, so they never see their
+     * changes. Off by default.
+     */
+    public void setRecordLocking(boolean recordLocking) {
+        this.recordLocking = recordLocking;
+    }
+
+    /**
+     * @return true if inserts and deletes on HeapPages lock records
+     */
+    public boolean isRecordLocking() {
+        return recordLocking;
     }
 
     public static int getPageSize() {
@@ -90,57 +334,270 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+    	return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, like
+     * {@link #getPage(TransactionId, PageId, Permissions)}.
+     * <p/>
+     * Sequential accesses, e.g. by a scan over a large table, are expected
+     * to touch each page once. Pages they bring into the buffer pool are
+     * kept in a small ring of at most {@link #RING_PAGES} pages and recycled
+     * from there, instead of being handed to the replacement policy, so a
+     * big scan does not push the rest of the pool out. A ring page that is
+     * later requested by a non-sequential access joins the main pool.
+     *
+     * @param tid        the ID of the transaction requesting the page
+     * @param pid        the ID of the requested page
+     * @param perm       the requested permissions on the page
+     * @param sequential true if the access is part of a sequential scan
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean sequential)
             throws TransactionAbortedException, DbException {        	
     	
-		Page pageToReturn = null;			
+    	/*
+    	 * Lock the page before looking it up, so that a page replaced
+    	 * or discarded by the transaction we were waiting on is never 
+    	 * handed out. Cached pages are then returned without taking the 
+    	 * BufferPool monitor; the monitor is only held briefly to make 
+    	 * room for, and insert, a page that was just read from disk.
+    	 * Reads outside of any transaction (tid null, e.g. TableStats
+    	 * scans) take no lock, since nothing would ever release it.
+    	 */
+    	if(tid!=null){
+    		lockPage(tid, pid, LockMode.of(perm));
+    	}
+    	return fetchPage(tid, pid, sequential);
+    }
+    
+    /**
+     * Looks up the specified page, reading it from disk if it is not in
+     * the buffer pool, for a transaction that locked it already.
+     */
+    private Page fetchPage(TransactionId tid, PageId pid, boolean sequential)
+    		throws DbException {
+		Page pageToReturn = pages.get(pid);
 		
 		//page found in the buffer
-		if(pages.containsKey(pid)){
-			synchronized(this){
-				accessAr.remove(pid);
-				accessAr.put(pid, accessNum++);
-				pageToReturn = pages.get(pid);			
-				//System.out.println("page was found in buffer: "+pageToReturn.getId());
-				//lock manager must already exist
-				lockManagers.get(pid).acquireLock(tid, perm);
-			}
-			
-		//page not in the buffer
-		}else{      
-			int t = pid.getTableId();
-		    DbFile f = Database.getCatalog().getDatabaseFile(t);
-		    pageToReturn = f.readPage(pid);
-		    //System.out.println("page was found in disk: "+pageToReturn.getId());
-		    
-		    //if there is no space in the buffer pool, evict page
-		    if(maxPages==pages.size()){
-		     	evictPage();
-		    }
-		    synchronized(this){
-		    	pages.put(pid, pageToReturn);
-		    	accessAr.put(pid, accessNum++);
-		    }
-	        
-	        //create lock manager for the page
-	        LockManager newLockManager = new LockManager();	 
-	        synchronized(this){
-	        	lockManagers.put(pid, newLockManager);
-	        	newLockManager.acquireLock(tid, perm);
-	        }	        
-		}	
-		synchronized(this){
-			//add information to tidMap
-			if(!tidMap.containsKey(tid)){
-				Set<PageId> s = new HashSet<PageId>();
-				s.add(pid);
-				tidMap.put(tid, s);			
+		if(pageToReturn!=null){
+			pageHit(pid, sequential);
+			recordAccess(tid, pid);
+			return pageToReturn;
+		}
+		
+		//page not in the buffer: only one thread per stripe reads from disk,
+		//misses on pages in other stripes proceed in parallel
+		synchronized(loadLocks[(pid.hashCode() & 0x7fffffff) % loadLocks.length]){
+			pageToReturn = pages.get(pid);
+			if(pageToReturn==null){
+				int t = pid.getTableId();
+				DbFile f = Database.getCatalog().getDatabaseFile(t);
+				pageToReturn = f.readPage(pid);
+				if(pageToReturn==null){
+					throw new DbException("cannot read page "+pid.pageNumber());
+				}
+				
+				synchronized(this){
+					//if there is no space in the buffer pool, evict page
+					makeRoom(sequential);
+					pages.put(pid, pageToReturn);
+					if(sequential){
+						ring.add(pid);
+						ringMembers.add(pid);
+					}else{
+						policy.pageLoaded(pid);
+					}
+				}
 			}else{
-				tidMap.get(tid).add(pid);
+				pageHit(pid, sequential);
 			}
 		}
-		
+		recordAccess(tid, pid);
 		return pageToReturn;		
     }
+    
+    /**
+     * Tells the replacement policy about a hit on a cached page. Sequential
+     * hits are not reported, and a non-sequential hit on a ring page moves
+     * it to the main pool.
+     */
+    private void pageHit(PageId pid, boolean sequential) {
+    	if(sequential){
+    		return;
+    	}
+    	if(ringMembers.contains(pid)){
+    		synchronized(this){
+    			if(ring.remove(pid)){
+    				ringMembers.remove(pid);
+    				policy.pageLoaded(pid);
+    				return;
+    			}
+    		}
+    	}
+    	policy.pageAccessed(pid);
+    }
+    
+    /**
+     * Adds pid to the pages of tid in tidMap, and tid to the transactions
+     * of pid in pageTids.
+     */
+    private void recordAccess(TransactionId tid, PageId pid) {
+    	if(tid==null){
+    		//e.g. TableStats scans outside of any transaction
+    		return;
+    	}
+    	Set<PageId> s = tidMap.get(tid);
+    	if(s==null){
+    		Set<PageId> newSet = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
+    		s = tidMap.putIfAbsent(tid, newSet);
+    		if(s==null){
+    			s = newSet;
+    		}
+    	}
+    	s.add(pid);
+    	
+    	Set<TransactionId> t = pageTids.get(pid);
+    	if(t==null){
+    		Set<TransactionId> newSet = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId,Boolean>());
+    		t = pageTids.putIfAbsent(pid, newSet);
+    		if(t==null){
+    			t = newSet;
+    		}
+    	}
+    	t.add(tid);
+    }
+    
+    /**
+     * Locks a whole table for a transaction, waiting like getPage() does,
+     * e.g. in S for a scan of all of its pages. While tid holds the table
+     * in a mode that covers a page request (S for READ_ONLY, X for both),
+     * getPage() takes no lock on the page. The lock is released when the
+     * transaction completes.
+     *
+     * @param tid     the ID of the transaction locking the table
+     * @param tableId the id of the table's DbFile
+     * @param mode    the mode of the lock, joined with the mode tid
+     *                already holds the table in, if any
+     */
+    public void lockTable(TransactionId tid, int tableId, LockMode mode)
+    		throws TransactionAbortedException {
+    	if(tid!=null){
+    		acquireLock(tableLocks, tableId, tid, mode);
+    	}
+    }
+    
+    /**
+     * @return the lock manager of the table, created if it has none yet
+     */
+    private LockManager tableLock(int tableId) {
+    	LockManager lm = tableLocks.get(tableId);
+    	if(lm==null){
+    		LockManager newLockManager = new LockManager(waitsFor);
+    		lm = tableLocks.putIfAbsent(tableId, newLockManager);
+    		if(lm==null){
+    			lm = newLockManager;
+    		}
+    	}
+    	return lm;
+    }
+    
+    /**
+     * Locks the specified page in mode, S or X, or IX for record changes:
+     * first its table in IS or IX, unless tid holds the table in a mode
+     * that covers the page, then the page itself.
+     */
+    private void lockPage(TransactionId tid, PageId pid, LockMode mode)
+    		throws TransactionAbortedException {
+    	int tableId = pid.getTableId();
+    	LockMode held = tableLock(tableId).mode(tid);
+    	//only X on the table lets tid change any record of the page
+    	if(held!=null && (mode==LockMode.IX ? held==LockMode.X : held.covers(mode))){
+    		return;
+    	}
+    	LockMode intention = mode==LockMode.S ? LockMode.IS : LockMode.IX;
+    	if(held==null || !held.covers(intention)){
+    		acquireLock(tableLocks, tableId, tid, intention);
+    	}
+    	if(acquireLock(lockManagers, pid, tid, mode)){
+    		int n = countPageLock(tid, tableId, 1);
+    		int escalation = lockEscalation;
+    		if(escalation>0 && n%escalation==0){
+    			escalate(tid, tableId);
+    		}
+    	}
+    }
+    
+    /**
+     * Acquires the lock on the specified page or table, creating its lock
+     * manager if it has none yet.
+     * 
+     * @return true if tid did not hold the lock before
+     */
+    private <K> boolean acquireLock(ConcurrentHashMap<K,LockManager> managers, K key,
+    		TransactionId tid, LockMode mode) throws TransactionAbortedException {
+    	while(true){
+    		LockManager lm = managers.get(key);
+    		if(lm==null){
+    			LockManager newLockManager = new LockManager(waitsFor);
+    			lm = managers.putIfAbsent(key, newLockManager);
+    			if(lm==null){
+    				lm = newLockManager;
+    			}
+    		}
+    		boolean held = lm.holds(tid);
+    		//the lock manager was retired by evictPage() before we got to it
+    		if(lm.acquireLock(tid, mode, lockTimeout, deadlockPolicy)){
+    			return !held;
+    		}
+    	}
+    }
+    
+    /**
+     * Adds delta to the number of page locks tid holds on the table.
+     * 
+     * @return the new number
+     */
+    private int countPageLock(TransactionId tid, int tableId, int delta) {
+    	ConcurrentHashMap<Integer,AtomicInteger> counts = pageLockCounts.get(tid);
+    	if(counts==null){
+    		ConcurrentHashMap<Integer,AtomicInteger> newCounts = new ConcurrentHashMap<Integer,AtomicInteger>();
+    		counts = pageLockCounts.putIfAbsent(tid, newCounts);
+    		if(counts==null){
+    			counts = newCounts;
+    		}
+    	}
+    	AtomicInteger count = counts.get(tableId);
+    	if(count==null){
+    		AtomicInteger newCount = new AtomicInteger();
+    		count = counts.putIfAbsent(tableId, newCount);
+    		if(count==null){
+    			count = newCount;
+    		}
+    	}
+    	return count.addAndGet(delta);
+    }
+    
+    /**
+     * Replaces the page locks of tid on the table by a table lock, S if
+     * tid holds the table in IS and X otherwise, if the table lock can be
+     * granted right away.
+     */
+    private void escalate(TransactionId tid, int tableId) {
+    	LockManager tlm = tableLock(tableId);
+    	LockMode target = tlm.mode(tid)==LockMode.IS ? LockMode.S : LockMode.X;
+    	if(!tlm.tryAcquire(tid, target)){
+    		return;
+    	}
+    	//the table lock covers the pages now
+    	for(Entry<PageId,LockManager> e : lockManagers.entrySet()){
+    		if(e.getKey().getTableId()==tableId && e.getValue().holds(tid)){
+    			e.getValue().releaseLock(tid);
+    			countPageLock(tid, tableId, -1);
+    		}
+    	}
+    }
 
     /**
      * Releases the lock on a page.
@@ -152,7 +609,14 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) { 
-    	lockManagers.get(pid).releaseLock(tid);
+    	LockManager lm = lockManagers.get(pid);
+    	if(lm!=null){
+    		boolean held = lm.holds(tid);
+    		lm.releaseLock(tid);
+    		if(held){
+    			countPageLock(tid, pid.getTableId(), -1);
+    		}
+    	}
     }
 
     /**
@@ -165,20 +629,50 @@ public class BufferPool {
     }
 
     /**
-     * Return true if the specified transaction has a lock on the specified page
+     * Return true if the specified transaction has a lock on the specified
+     * page, or on its table in a mode that covers the page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
-    	return lockManagers.get(p).running.contains(tid);
-    }        
+    	LockManager lm = lockManagers.get(p);
+    	if(lm!=null && lm.holds(tid)){
+    		return true;
+    	}
+    	LockMode held = tableMode(tid, p.getTableId());
+    	return held!=null && held.covers(LockMode.S);
+    }
     
-    /*
-     * Return the number of transactions currently holding lock on the specified page
-     * Used in HeapFile.java to see if the lock was just acquired
+    /**
+     * @return true if tid holds the page in IX, i.e. only changed records
+     * of it, whose changes are committed or undone by themselves
+     */
+    private boolean changedRecords(TransactionId tid, PageId pid) {
+    	LockManager lm = lockManagers.get(pid);
+    	return lm!=null && lm.mode(tid)==LockMode.IX;
+    }
+
+    /**
+     * @return true if tid may have changed the page: it holds the page, its
+     * records or its table for writing
      */
-    public int numTransactions(PageId p){
-    	return lockManagers.get(p).running.size();
+    private boolean mayHaveChanged(TransactionId tid, PageId pid) {
+    	LockManager lm = lockManagers.get(pid);
+    	LockMode held = lm==null ? null : lm.mode(tid);
+    	if(held==LockMode.X || held==LockMode.IX){
+    		return true;
+    	}
+    	held = tableMode(tid, pid.getTableId());
+    	return held!=null && held.covers(LockMode.X);
     }
 
+    /**
+     * @return the mode tid holds the table in, null if it holds no lock
+     * on it
+     */
+    private LockMode tableMode(TransactionId tid, int tableId) {
+    	LockManager tlm = tableLocks.get(tableId);
+    	return tlm==null ? null : tlm.mode(tid);
+    }        
+    
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -189,51 +683,105 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {    	
     	
+    	//record changes first: their pages are skipped below, since they
+    	//may hold changes of other transactions too
+    	if(commit){
+    		commitRecords(tid);
+    	}else{
+    		undoRecords(tid);
+    	}
+    	
     	Set<PageId> dirtyPages = tidMap.get(tid);       	 
     	if(dirtyPages==null || dirtyPages.isEmpty()){}    	
     	else{
 	    	Iterator<PageId> it = dirtyPages.iterator();
 	    	if(commit){
-	    		flushPages(tid);
+	    		if(force){
+	    			flushPages(tid);
+	    		}else{
+	    			logDirtyPages(tid);
+	    		}
 	    	}else{    	 
 	    		//replace the page in bufferpool with the corresponding page from disk
 	    		while(it.hasNext()){    		
 	    			PageId pid = it.next();
-	    			if(pages.containsKey(pid) && pages.get(pid).isDirty()!=null){
+	    			Page p = pages.get(pid);
+	    			if(p!=null && tid.equals(p.isDirty()) && !changedRecords(tid, pid)){
 	    				synchronized(this){
-			    		    DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
-			    		    Page diskPage = f.readPage(pid); 	    		    
-		    		    	pages.put(pid, diskPage);
+	    					TransactionId committer = committedDirty.get(pid);
+	    					if(committer!=null){
+	    						//the disk lags behind a NO FORCE commit, the
+	    						//before-image holds the committed page
+	    						Page committed = p.getBeforeImage();
+	    						committed.markDirty(true, committer);
+	    						pages.put(pid, committed);
+	    					}else{
+			    		    	DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+			    		    	Page diskPage = f.readPage(pid);
+		    		    		pages.put(pid, diskPage);
+	    					}
 		    		    }
 	    			}
 	    		} 
 	    	}     	
+	    	//the pages an aborted insert filled have room again
+	    	if(!commit){
+	    		for(PageId pid : dirtyPages){
+	    			if(mayHaveChanged(tid, pid)){
+	    				DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+	    				if(f instanceof HeapFile){
+	    					((HeapFile)f).clearFull(pid.pageNumber());
+	    				}
+	    			}
+	    		}
+	    	}
+    	}
+    	
+    	//pages read or written under a table lock have no page lock; use
+    	//their current contents as before-images too
+    	Set<PageId> covered = tidMap.get(tid);
+    	if(covered!=null){
+    		for(PageId pid : covered){
+    			LockMode held = tableMode(tid, pid.getTableId());
+    			Page p = pages.get(pid);
+    			if(held!=null && held.covers(LockMode.S) && p!=null){
+    				p.setBeforeImage();
+    			}
+    		}
     	}
     	
     	//drop all locks or lock requests associated with the lock
     	Iterator<Entry<PageId,LockManager>> lockIt = lockManagers.entrySet().iterator();
     	while(lockIt.hasNext()){
     		Entry<PageId,LockManager> e = lockIt.next();
-    		synchronized(this){
-	    		LockManager lm = e.getValue();
-	    		if(pages.containsKey(e.getKey())){
-		    		Page p = pages.get(e.getKey());
-		    		if(lm.running.contains(tid)||lm.waitingQueue.contains(tid)){
-		    			
-		    			// use current page contents as the before-image
-		    	        // for the next transaction that modifies this page.
-		    	        p.setBeforeImage();	    			
-		    			
-		    			lm.complete = true;
-		    			releasePage(tid,e.getKey());		    			
-		    			lm.complete = false;	  
-		    		}
-	    		}
+    		LockManager lm = e.getValue();
+    		if(lm.involves(tid)){
+    			Page p = pages.get(e.getKey());
+    			if(p!=null && lm.mode(tid)!=LockMode.IX){
+	    			// use current page contents as the before-image
+	    	        // for the next transaction that modifies this page.
+	    	        p.setBeforeImage();
+    			}
+    			lm.releaseLock(tid);
+    		}
+    	}
+    	for(LockManager tlm : tableLocks.values()){
+    		if(tlm.involves(tid)){
+    			tlm.releaseLock(tid);
+    		}
+    	}
+    	releaseRecordLocks(tid);
+    	pageLockCounts.remove(tid);
+    	Set<PageId> accessed = tidMap.remove(tid);
+    	if(accessed!=null){
+    		for(PageId pid : accessed){
+    			Set<TransactionId> t = pageTids.get(pid);
+    			if(t!=null){
+    				t.remove(tid);
+    			}
     		}
-    	}    	
-    	synchronized(this){
-    		tidMap.remove(tid);        	
     	}
+    	waitsFor.forget(tid);
     }
 
     /**
@@ -278,77 +826,389 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
     	int tableId = t.getRecordId().getPageId().getTableId();
-    	HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
+    	DbFile file = Database.getCatalog().getDatabaseFile(tableId);
     	ArrayList<Page> dirtyPages;
     	dirtyPages = file.deleteTuple(tid, t); //pages that were dirtied
     	Iterator<Page> dirtyItr = dirtyPages.iterator();
     	
     	while (dirtyItr.hasNext()){
-    		HeapPage dirtyPage = (HeapPage)dirtyItr.next();
+    		Page dirtyPage = dirtyItr.next();
     		dirtyPage.markDirty(true, tid);
     	}
     	dirtyItr.remove();
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     * break simpledb if running in NO STEAL mode.
+     * Locks the specified page of a HeapFile for record changes, IX under
+     * IX on its table, and returns it pinned in the buffer pool, see
+     * {@link #setRecordLocking(boolean)}. The page stays pinned until tid
+     * completes if tid changes one of its records.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @throws DbException if pid is not a HeapPage
      */
-    public synchronized void flushAllPages() throws IOException {
-    	Set<PageId> pageSet = pages.keySet();
-    	Iterator<PageId> it = pageSet.iterator();
-    	while(it.hasNext()){
-    		PageId pid = it.next();
-    		flushPage(pid);    		
+    public HeapPage getRecordPage(TransactionId tid, PageId pid)
+    		throws TransactionAbortedException, DbException {
+    	lockPage(tid, pid, LockMode.IX);
+    	while(true){
+    		Page p = fetchPage(tid, pid, false);
+    		if(!(p instanceof HeapPage)){
+    			throw new DbException("records can only be locked on HeapPages");
+    		}
+    		//pinned along with the check, so that the page cannot be evicted
+    		//or replaced once we have it
+    		synchronized(this){
+    			if(pages.get(pid)==p){
+    				pin(tid, pid);
+    				return (HeapPage)p;
+    			}
+    		}
     	}
     }
 
     /**
-     * Remove the specific page id from the buffer pool.
-     * Needed by the recovery manager to ensure that the
-     * buffer pool doesn't keep a rolled back page in its
-     * cache.
+     * Inserts t into a free slot of p, a page returned by
+     * {@link #getRecordPage(TransactionId, PageId)}, whose record tid can
+     * lock X without waiting: a free slot may still be locked by the
+     * transaction that emptied it.
+     *
+     * @return false if there was no such slot
      */
-    public synchronized void discardPage(PageId pid) {
-        pages.remove(pid);
+    public boolean insertRecord(TransactionId tid, HeapPage p, Tuple t) throws DbException {
+    	RecordState s = recordState(tid);
+    	PageId pid = p.getId();
+    	synchronized(p){
+    		for(int i=0;i<p.getNumSlots();i++){
+    			if(!p.isSlotUsed(i) && tryLockRecord(tid, new RecordId(pid, i), s)){
+    				p.insertTuple(t, i);
+    				p.markDirty(true, tid);
+    				s.add(pid, new RecordOp(i, copyOf(t), true));
+    				return true;
+    			}
+    		}
+    	}
+    	unpinUnchanged(tid, pid, s);
+    	return false;
     }
 
     /**
-     * Flushes a certain page to disk
+     * Deletes t from its HeapPage once tid locks its record X, waiting for
+     * the lock like getPage() does.
      *
-     * @param pid an ID indicating the page to flush
+     * @return the page t was deleted from
+     * @throws DbException if t is not on a HeapPage or its slot is empty
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-    	if(pages.containsKey(pid)){
-    		Page p = pages.get(pid);
-		    //find dirty page
-		    if(p.isDirty()!=null){
-		    	try{
-		    		HeapFile f = (HeapFile)Database.getCatalog().getDatabaseFile(pid.getTableId());	
-		    		
-		    		// append an update record to the log, with 
-		            // a before-image and after-image.
-		            TransactionId dirtier = p.isDirty();
-		            if (dirtier != null){
-		              Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-		              Database.getLogFile().force();
-		            }	    		
-		    		
-					f.writePage(p); 					//write page to disk					
-					p.markDirty(false, p.isDirty());	//mark the page clean?	
-					return;
-		    	}catch(IOException e){
-		    		throw new IOException("cannot find page");
-		    	}		    
-		    }
+    public HeapPage deleteRecord(TransactionId tid, Tuple t)
+    		throws TransactionAbortedException, DbException {
+    	RecordId rid = t.getRecordId();
+    	if(rid==null){
+    		throw new DbException("tuple could not be found");
+    	}
+    	PageId pid = rid.getPageId();
+    	RecordState s = recordState(tid);
+    	lockPage(tid, pid, LockMode.IX);
+    	acquireLock(recordLocks, rid, tid, LockMode.X);
+    	s.locked(rid);
+    	HeapPage p = getRecordPage(tid, pid);
+    	synchronized(p){
+    		if(p.isSlotUsed(rid.tupleno())){
+    			Tuple old = copyOf(p.getTuple(rid.tupleno()));
+    			p.deleteTuple(t);
+    			p.markDirty(true, tid);
+    			s.add(pid, new RecordOp(rid.tupleno(), old, false));
+    			return p;
+    		}
     	}
+    	unpinUnchanged(tid, pid, s);
+    	throw new DbException("tuple slot is empty");
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * @return the record state of tid, created if it has none yet
+     */
+    private RecordState recordState(TransactionId tid) {
+    	RecordState s = recordStates.get(tid);
+    	if(s==null){
+    		RecordState newState = new RecordState();
+    		s = recordStates.putIfAbsent(tid, newState);
+    		if(s==null){
+    			s = newState;
+    		}
+    	}
+    	return s;
+    }
+
+    /**
+     * Locks the record X for tid if that needs no waiting.
+     *
+     * @return true if tid holds the lock
+     */
+    private boolean tryLockRecord(TransactionId tid, RecordId rid, RecordState s) {
+    	while(true){
+    		LockManager lm = recordLocks.get(rid);
+    		if(lm==null){
+    			LockManager newLockManager = new LockManager(waitsFor);
+    			lm = recordLocks.putIfAbsent(rid, newLockManager);
+    			if(lm==null){
+    				lm = newLockManager;
+    			}
+    		}
+    		if(lm.tryAcquire(tid, LockMode.X)){
+    			s.locked(rid);
+    			return true;
+    		}
+    		//unless the lock manager was retired before we got to it
+    		if(recordLocks.get(rid)==lm){
+    			return false;
+    		}
+    	}
+    }
+
+    /**
+     * @return a tuple with the fields of t, on no page
+     */
+    private static Tuple copyOf(Tuple t) {
+    	TupleDesc td = t.getTupleDesc();
+    	Tuple copy = new Tuple(td);
+    	for(int i=0;i<td.numFields();i++){
+    		copy.setField(i, t.getField(i));
+    	}
+    	return copy;
+    }
+
+    private synchronized void pin(TransactionId tid, PageId pid) {
+    	Set<TransactionId> tids = pinned.get(pid);
+    	if(tids==null){
+    		tids = new HashSet<TransactionId>();
+    		pinned.put(pid, tids);
+    	}
+    	tids.add(tid);
+    	recordState(tid).pinned(pid);
+    }
+
+    private synchronized void unpin(TransactionId tid, PageId pid) {
+    	Set<TransactionId> tids = pinned.get(pid);
+    	if(tids!=null && tids.remove(tid) && tids.isEmpty()){
+    		pinned.remove(pid);
+    	}
+    }
+
+    /**
+     * Unpins the page if tid has not changed any of its records.
+     */
+    private synchronized void unpinUnchanged(TransactionId tid, PageId pid, RecordState s) {
+    	if(s.unpinIfUnchanged(pid)){
+    		unpin(tid, pid);
+    	}
+    }
+
+    /**
+     * @return true if transactions other than tid have record changes on
+     * the page
+     */
+    private synchronized boolean pinnedByOthers(TransactionId tid, PageId pid) {
+    	Set<TransactionId> tids = pinned.get(pid);
+    	return tids!=null && (tids.size()>1 || !tids.contains(tid));
+    }
+
+    /**
+     * Logs, for each page tid changed records of, the committed contents
+     * of the page with the changes of tid applied, and makes them the
+     * before-image of the page, then unpins the pages. The page is dirty
+     * until the image is written, see flushPage().
+     */
+    private synchronized void commitRecords(TransactionId tid) throws IOException {
+    	RecordState s = recordStates.get(tid);
+    	if(s==null){
+    		return;
+    	}
+    	for(Entry<PageId,ArrayList<RecordOp>> e : s.drain().entrySet()){
+    		PageId pid = e.getKey();
+    		HeapPage p = (HeapPage)pages.get(pid);
+    		if(p==null){
+    			//discarded by recovery
+    			unpin(tid, pid);
+    			continue;
+    		}
+    		synchronized(p){
+    			if(!e.getValue().isEmpty()){
+	    			HeapPage before = p.getBeforeImage();
+	    			if(!pinnedByOthers(tid, pid)){
+	    				//the page holds no other uncommitted changes
+	    				Database.getLogFile().logWrite(tid, before, p);
+	    				p.setBeforeImage();
+	    			}else{
+	    				HeapPage committed = p.getBeforeImage();
+	    				for(RecordOp op : e.getValue()){
+	    					op.redo(committed);
+	    				}
+	    				Database.getLogFile().logWrite(tid, before, committed);
+	    				p.setBeforeImage(committed);
+	    			}
+	    			p.markDirty(true, tid);
+	    			committedDirty.put(pid, tid);
+    			}
+    			unpin(tid, pid);
+    		}
+    	}
+    }
+
+    /**
+     * Undoes the record changes of tid and unpins their pages: a page no
+     * other transaction changed is replaced by its committed contents, the
+     * changes of tid are undone on the others.
+     */
+    private synchronized void undoRecords(TransactionId tid) {
+    	RecordState s = recordStates.get(tid);
+    	if(s==null){
+    		return;
+    	}
+    	for(Entry<PageId,ArrayList<RecordOp>> e : s.drain().entrySet()){
+    		PageId pid = e.getKey();
+    		HeapPage p = (HeapPage)pages.get(pid);
+    		if(p==null){
+    			//discarded by recovery
+    			unpin(tid, pid);
+    			continue;
+    		}
+    		synchronized(p){
+    			ArrayList<RecordOp> ops = e.getValue();
+    			if(ops.isEmpty()){
+    				//nothing to undo
+    			}else if(!pinnedByOthers(tid, pid)){
+    				TransactionId committer = committedDirty.get(pid);
+    				if(committer!=null){
+    					Page committed = p.getBeforeImage();
+    					committed.markDirty(true, committer);
+    					pages.put(pid, committed);
+    				}else{
+    					DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    					pages.put(pid, f.readPage(pid));
+    				}
+    			}else{
+    				for(int i=ops.size()-1;i>=0;i--){
+    					ops.get(i).undo(p);
+    				}
+    			}
+    			unpin(tid, pid);
+    		}
+    	}
+    }
+
+    /**
+     * Releases the record locks of tid and drops its record state.
+     */
+    private void releaseRecordLocks(TransactionId tid) {
+    	RecordState s = recordStates.remove(tid);
+    	if(s==null){
+    		return;
+    	}
+    	for(RecordId rid : s.locks()){
+    		LockManager lm = recordLocks.get(rid);
+    		if(lm!=null){
+    			lm.releaseLock(tid);
+    			if(lm.retireIfUnused()){
+    				recordLocks.remove(rid, lm);
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * @return true if a transaction has record changes on the page
+     */
+    private synchronized boolean isPinned(PageId pid) {
+    	return pinned.containsKey(pid);
+    }
+
+    /**
+     * Flush all dirty pages to disk.
+     * NB: Be careful using this routine -- it writes dirty data to disk so will
+     * break simpledb if running in NO STEAL mode.
+     */
+    public synchronized void flushAllPages() throws IOException {
+    	Set<PageId> pageSet = pages.keySet();
+    	Iterator<PageId> it = pageSet.iterator();
+    	while(it.hasNext()){
+    		PageId pid = it.next();
+    		flushPage(pid);    		
+    	}
+    }
+
+    /**
+     * Remove the specific page id from the buffer pool.
+     * Needed by the recovery manager to ensure that the
+     * buffer pool doesn't keep a rolled back page in its
+     * cache.
+     */
+    public synchronized void discardPage(PageId pid) {
+    	committedDirty.remove(pid);
+        if(pages.remove(pid)!=null){
+        	forget(pid);
+        }
+    }
+    
+    /**
+     * Removes a page that just left the pool from the ring or the
+     * replacement policy.
+     */
+    private synchronized void forget(PageId pid) {
+    	if(ring.remove(pid)){
+    		ringMembers.remove(pid);
+    	}else{
+    		policy.pageRemoved(pid);
+    	}
+    }
+
+    /**
+     * Flushes a certain page to disk
+     *
+     * @param pid an ID indicating the page to flush
+     */
+    private synchronized void flushPage(PageId pid) throws IOException {
+    	if(isPinned(pid)){
+    		//the page holds uncommitted record changes, write its committed
+    		//contents if the disk lags behind them
+    		Page p = pages.get(pid);
+    		if(p!=null && committedDirty.remove(pid)!=null){
+    			Database.getLogFile().force();
+    			Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p.getBeforeImage());
+    		}
+    		return;
+    	}
+    	if(pages.containsKey(pid)){
+    		Page p = pages.get(pid);
+		    //find dirty page
+		    if(p.isDirty()!=null){
+		    	try{
+		    		DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());	
+		    		
+		    		// append an update record to the log, with 
+		            // a before-image and after-image.
+		            // (unless a commit already did) 
+		            TransactionId dirtier = p.isDirty();
+		            if (!loggedByCommit(pid, dirtier)){
+		              Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+		            }
+		            Database.getLogFile().force();
+		    		
+					f.writePage(p); 					//write page to disk					
+					p.markDirty(false, p.isDirty());	//mark the page clean?	
+					committedDirty.remove(pid);
+					return;
+		    	}catch(IOException e){
+		    		throw new IOException("cannot find page");
+		    	}		    
+		    }
+    	}
+    }
+
+    /**
+     * Write all pages of the specified transaction to disk.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
+    	commitRecords(tid);
         //set of pages associated with tid
     	Set<PageId> dirtyPages = tidMap.get(tid);
     	if(dirtyPages==null || dirtyPages.isEmpty()){
@@ -359,31 +1219,188 @@ public class BufferPool {
     	//flush dirty pages associated with tid
     	while(it.hasNext()){
     		PageId pid = it.next();
-    		if(pages.get(pid).isDirty()!=null){
+    		Page p = pages.get(pid);
+    		if(p!=null && p.isDirty()!=null){
     			flushPage(pid);
     		} 
     	}
     }
 
+    /**
+     * Appends an update record for every page dirtied by tid to the log,
+     * without writing the pages or forcing the log. Used by NO FORCE
+     * commits, right before the commit record is logged and forced. The
+     * pages stay dirty, but may be written later without being logged again.
+     */
+    public synchronized void logDirtyPages(TransactionId tid) throws IOException {
+    	commitRecords(tid);
+    	Set<PageId> dirtyPages = tidMap.get(tid);
+    	if(dirtyPages==null){
+    		return;
+    	}
+    	for(PageId pid : dirtyPages){
+    		Page p = pages.get(pid);
+    		if(p!=null && tid.equals(p.isDirty()) && !loggedByCommit(pid, tid)){
+    			Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+    			committedDirty.put(pid, tid);
+    		}
+    	}
+    }
+    
+    /**
+     * Writes the pages of committed transactions that are still dirty, in
+     * file and page order, skipping pages that a running transaction holds
+     * a write lock on.
+     *
+     * @return the number of pages written
+     */
+    public int writeCommittedPages() throws IOException {
+    	ArrayList<PageId> pids = new ArrayList<PageId>(committedDirty.keySet());
+    	Collections.sort(pids, PAGE_ORDER);
+    	int written = 0;
+    	for(PageId pid : pids){
+    		LockManager lm = lockManagers.get(pid);
+    		if(lm==null){
+    			LockManager newLm = new LockManager(waitsFor);
+    			lm = lockManagers.putIfAbsent(pid, newLm);
+    			if(lm==null){
+    				lm = newLm;
+    			}
+    		}
+    		LockManager tlm = tableLock(pid.getTableId());
+    		//the BufferPool monitor keeps the page from being evicted and lm
+    		//from being retired, lm's and tlm's monitors keep write locks on
+    		//the page and its table from being granted
+    		synchronized(this){
+    			synchronized(lm){
+    				synchronized(tlm){
+	    				Page p = pages.get(pid);
+	    				if(!lm.writeLocked() && !tlm.writeLocked() && p!=null && p.isDirty()!=null
+	    						&& loggedByCommit(pid, p.isDirty())){
+	    					flushPage(pid);
+	    					written++;
+	    				}
+    				}
+    			}
+    		}
+    	}
+    	return written;
+    }
+    
+    /**
+     * @return true if the current contents of pid, dirtied by dirtier, were
+     * logged when dirtier committed
+     */
+    private boolean loggedByCommit(PageId pid, TransactionId dirtier) {
+    	TransactionId committer = committedDirty.get(pid);
+    	return committer!=null && committer.equals(dirtier);
+    }
+    
+    private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+		public int compare(PageId a, PageId b) {
+			if(a.getTableId()!=b.getTableId()){
+				return a.getTableId()<b.getTableId() ? -1 : 1;
+			}
+			return a.pageNumber()-b.pageNumber();
+		}
+	};
+    
+    /**
+     * Starts a daemon thread that calls {@link #writeCommittedPages()} every
+     * intervalMillis milliseconds, so that NO FORCE commits leave fewer dirty
+     * pages for evictions and checkpoints to write. Does nothing if the
+     * writer is already running.
+     */
+    public synchronized void startBackgroundWriter(long intervalMillis) {
+    	if(writer==null){
+    		writer = new PageWriter(intervalMillis);
+    		writer.start();
+    	}
+    }
+    
+    /**
+     * Stops the background writer, if running, and waits for it to finish
+     * its current round.
+     * <p/>
+     * The writer is woken up rather than interrupted: an interrupt during
+     * a page write would close the channel of the file under all threads.
+     */
+    public void stopBackgroundWriter() {
+    	PageWriter w;
+    	synchronized(this){
+    		w = writer;
+    		writer = null;
+    	}
+    	if(w!=null){
+    		w.shutdown();
+    		try{
+    			w.join();
+    		}catch(InterruptedException e){
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    }
+    
+    private class PageWriter extends Thread {
+    	private final long interval;
+    	private boolean running = true;		//guarded by this
+    	
+    	PageWriter(long interval) {
+    		super("BufferPool page writer");
+    		this.interval = interval;
+    		setDaemon(true);
+    	}
+    	
+    	synchronized void shutdown() {
+    		running = false;
+    		notifyAll();
+    	}
+    	
+    	/**
+    	 * Waits for the next round.
+    	 * 
+    	 * @return false if the writer was stopped
+    	 */
+    	private synchronized boolean await() {
+    		long end = System.currentTimeMillis() + interval;
+    		long left = interval;
+    		while(running && left>0){
+    			try{
+    				wait(left);
+    			}catch(InterruptedException e){
+    				return false;
+    			}
+    			left = end - System.currentTimeMillis();
+    		}
+    		return running;
+    	}
+    	
+    	public void run() {
+    		while(await()){
+    			try{
+    				writeCommittedPages();
+    			}catch(IOException e){
+    				e.printStackTrace();
+    			}
+    		}
+    	}
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
     private synchronized void evictPage() throws DbException {
     	/* 
-    	 * LRU PAGE EVICTION POLICY: 
-    	 * 
-    	 * Array accessAr keeps track of the order of page access. Every time
-    	 * a page is accessed through getPage, insertTuple, or deleteTuple,
-    	 * the corresponding integer in accessAr will be updated to the number
-    	 * of pages that has been accessed so far, including the page itself.
-    	 * Pages that have never been accessed will have zero in acessAr.
-    	 * Higher the value in accessAr, more recently the corresponding
-    	 * page was accessed.
+    	 * The replacement policy (CLOCK unless another one was passed to
+    	 * the constructor) chooses the page. Ring pages are only chosen when
+    	 * the policy has no evictable page left.
     	 * 
-    	 * Code below gets the page with the smallest value in accessAr
-    	 * and evicts the page. 
+    	 * STEAL POLICY: 
     	 * 
+    	 * Dirty pages are evicted like clean ones. evict() flushes them
+    	 * through flushPage(), which logs and forces the before-image
+    	 * before the page itself is written (write-ahead logging).
     	 * 
     	 * NO STEAL POLICY:
     	 * 
@@ -392,176 +1409,606 @@ public class BufferPool {
     	 */
     	
     	//choose page
-    	Set<PageId> pa = pages.keySet();     	
-    	
-    	PageId pp = null;	
-    	int min = 999999999;
-    	
-    	Iterator<PageId> it = pa.iterator();
-    	while(it.hasNext()){
-    		PageId i = it.next();
-    		int n = accessAr.get(i);
-    		//page is NOT dirty and has the lowest value in accessAr
-    		if(pages.get(i).isDirty()==null && min>n){
-    			min = n;
-    			pp = i;
-    		}
+    	PageId pp = policy.chooseVictim(evictable);
+    	if(pp==null){
+    		pp = oldestEvictableRingPage();
     	}
     	
     	//throw DbException if all pages are dirty
     	if(pp==null){
     		throw new DbException("all pages in the buffer are dirty");
     	}
-    	
-    	//evict the chosen page
+    	evict(pp);
+    }
+    
+    /**
+     * Makes room for one more page, recycling the ring first if the page
+     * is for a sequential access and the ring is full.
+     */
+    private synchronized void makeRoom(boolean sequential) throws DbException {
+    	while(sequential && ring.size()>=ringSize){
+    		PageId oldest = ring.iterator().next();
+    		if(evictable.canEvict(oldest)){
+    			evict(oldest);
+    		}else{
+    			//a dirty page cannot be recycled, hand it to the main pool
+    			ring.remove(oldest);
+    			ringMembers.remove(oldest);
+    			policy.pageLoaded(oldest);
+    		}
+    	}
+    	while(pages.size()>=maxPages){
+    		evictPage();
+    	}
+    }
+    
+    private PageId oldestEvictableRingPage() {
+    	for(PageId pid : ring){
+    		if(evictable.canEvict(pid)){
+    			return pid;
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * Pages that may be evicted: under STEAL all of them, under NO STEAL
+     * the clean ones and those dirtied by committed transactions, but never
+     * the pages pinned by record changes.
+     */
+    private final ReplacementPolicy.Evictable evictable = new ReplacementPolicy.Evictable() {
+		public boolean canEvict(PageId pid) {
+			if(isPinned(pid)){
+				return false;
+			}
+			if(steal){
+				return true;
+			}
+			Page p = pages.get(pid);
+			if(p==null || p.isDirty()==null){
+				return true;
+			}
+			return loggedByCommit(pid, p.isDirty());
+		}
+	};
+    
+    /**
+     * Removes the chosen page from the pool, flushing it first.
+     */
+    private synchronized void evict(PageId pp) throws DbException {
     	try{
 	    	flushPage(pp);
 	    	pages.remove(pp);
-	    	accessAr.remove(pp);
-	    	lockManagers.remove(pp);
-	    	Iterator<TransactionId> tidIt = tidMap.keySet().iterator();
-	    	while(tidIt.hasNext()){
-	    		TransactionId tid = tidIt.next();
-	    		if(tidMap.get(tid).contains(pp)){
-	    			tidMap.get(tid).remove(pp);
+	    	forget(pp);
+	    	//keep the lock manager around if a transaction still holds or waits for the lock
+	    	LockManager lm = lockManagers.get(pp);
+	    	if(lm!=null && lm.retireIfUnused()){
+	    		lockManagers.remove(pp, lm);
+	    	}
+	    	//only the transactions that accessed the page need updating
+	    	Set<TransactionId> tids = pageTids.remove(pp);
+	    	if(tids!=null){
+	    		for(TransactionId tid : tids){
+	    			Set<PageId> s = tidMap.get(tid);
+	    			if(s!=null){
+	    				s.remove(pp);
+	    			}
 	    		}
-	    	}	    	
+	    	}
     	}catch(IOException e){
     		throw new DbException("cannot evict page");
     	}
     } 
     
-    static class LockManager {
-    	private boolean inUse = false;
-    	private boolean complete = false;
-    	private Permissions perm = null;
-    	//number of transactions that currently have lock on the page (counting upgrade and shared)
-    	private Set<TransactionId> running = new HashSet<TransactionId>();
-    	private Vector<TransactionId> waitingQueue = new Vector<TransactionId>();
-        public void acquireLock(TransactionId tid, Permissions perm) throws TransactionAbortedException{
-        	boolean waiting = true;	
-        	synchronized(this){
-    			if(complete){}
-    			//not in use, therefore acquire lock
-    			else if(!inUse){
-    				inUse = true;
-    				waiting = false;
-              		this.perm = perm;
-              		running.add(tid);
-              		return;
-    			}else{
-    				//different transactions, but read only accesses
-	    			if(this.perm.equals(Permissions.READ_ONLY) && perm.equals(Permissions.READ_ONLY)){
-	              		waiting = false;
-	              		running.add(tid);
-	               		return;
-	               	//same transaction, same permission
-	    			}else if(perm.equals(this.perm) && running.contains(tid)){
-		    	       	waiting = false;
-		    	       	return;
-		    	    //same transaction already has read_write permission and the current request is read_only
-	    			}else if(running.contains(tid) && this.perm.equals(Permissions.READ_WRITE) && perm.equals(Permissions.READ_ONLY)){
-	    				waiting = false;
-		    	       	return;   			
-	                //same transaction upgrading from read_only to read_write
-	                }else if(perm.equals(Permissions.READ_WRITE) && running.contains(tid) && this.perm.equals(Permissions.READ_ONLY)){
-	                    //only one transaction running
-	                	if(running.size()==1){
-		                	waiting = false;
-		                    this.perm = perm;
-		                    return;
-		                //add the transaction to the front of the waiting queue
-	                    }else{
-	                    	waitingQueue.add(0, tid);
-	                    }
-		                    		
-                   	//otherwise, must wait!
-                   	}else{
-                   		waitingQueue.add(tid);
-                   	}    				    			
+    /**
+     * The records a transaction locked and the changes it made to them,
+     * by page, under record locking. A page is in changes from the time
+     * it is pinned for the transaction.
+     */
+    private static class RecordState {
+    	private final Set<RecordId> locks = new HashSet<RecordId>();
+    	private LinkedHashMap<PageId,ArrayList<RecordOp>> changes = new LinkedHashMap<PageId,ArrayList<RecordOp>>();
+    	
+    	synchronized void locked(RecordId rid) {
+    		locks.add(rid);
+    	}
+    	
+    	synchronized ArrayList<RecordId> locks() {
+    		return new ArrayList<RecordId>(locks);
+    	}
+    	
+    	synchronized void pinned(PageId pid) {
+    		if(!changes.containsKey(pid)){
+    			changes.put(pid, new ArrayList<RecordOp>());
+    		}
+    	}
+    	
+    	synchronized void add(PageId pid, RecordOp op) {
+    		changes.get(pid).add(op);
+    	}
+    	
+    	/**
+    	 * @return true if the page was pinned without being changed, and
+    	 * was dropped
+    	 */
+    	synchronized boolean unpinIfUnchanged(PageId pid) {
+    		ArrayList<RecordOp> ops = changes.get(pid);
+    		if(ops!=null && ops.isEmpty()){
+    			changes.remove(pid);
+    			return true;
+    		}
+    		return false;
+    	}
+    	
+    	/**
+    	 * @return the changes by page, which are forgotten
+    	 */
+    	synchronized LinkedHashMap<PageId,ArrayList<RecordOp>> drain() {
+    		LinkedHashMap<PageId,ArrayList<RecordOp>> drained = changes;
+    		changes = new LinkedHashMap<PageId,ArrayList<RecordOp>>();
+    		return drained;
+    	}
+    }
+    
+    /**
+     * An insert or delete of the tuple in one slot of a page, which can be
+     * redone on the page's committed contents or undone on the page.
+     */
+    private static class RecordOp {
+    	final int slot;
+    	final Tuple tuple;		//a copy of the fields
+    	final boolean insert;
+    	
+    	RecordOp(int slot, Tuple tuple, boolean insert) {
+    		this.slot = slot;
+    		this.tuple = tuple;
+    		this.insert = insert;
+    	}
+    	
+    	void redo(HeapPage p) {
+    		set(p, insert);
+    	}
+    	
+    	void undo(HeapPage p) {
+    		set(p, !insert);
+    	}
+    	
+    	//puts the tuple in its slot or empties it, unless it already is
+    	private void set(HeapPage p, boolean present) {
+    		try{
+    			if(present && !p.isSlotUsed(slot)){
+    				p.insertTuple(copyOf(tuple), slot);
+    			}else if(!present && p.isSlotUsed(slot)){
+    				Tuple t = copyOf(tuple);
+    				t.setRecordId(new RecordId(p.getId(), slot));
+    				p.deleteTuple(t);
     			}
-    		}//end of synchronized block checking if available, acquiring lock if possible, and updating queue	
+    		}catch(DbException e){
+    			//cannot happen, the slot was checked
+    			throw new RuntimeException(e);
+    		}
+    	}
+    }
+    
+    /**
+     * The lock on one page, table or record, held by transactions in
+     * compatible LockModes: pages are only locked S, shared by several
+     * holders, X, or IX by the transactions changing their records, and
+     * records are only locked X.
+     * Requests that cannot be granted wait, on this lock manager's monitor,
+     * in a FIFO queue. releaseLock() grants them in order, all the
+     * compatible requests at the head of the queue at once, and wakes their
+     * threads. An upgrade, e.g. from S to X, waits at the head of the queue
+     * for the conflicting holders to leave.
+     * <p/>
+     * Waiting requests that detect deadlocks keep their edges in the
+     * waits-for graph shared by the lock managers of the BufferPool;
+     * under WOUND_WAIT, they only record there that they wait here.
+     */
+    static class LockManager {
+    	/**
+    	 * A request waiting in the queue, granted or cancelled by the
+    	 * thread that changes the lock.
+    	 */
+    	private static class Request {
+    		final TransactionId tid;
+    		final LockMode mode;		//for an upgrade, the mode after it
+    		final DeadlockPolicy policy;
+    		boolean granted = false;
+    		boolean cancelled = false;	//tid released the lock or was chosen as a victim
     		
-    		//if the transaction reaches here, it must busy wait
-    		int waitTime = 0;
-    		while(waiting && waitingQueue.contains(tid)){
-    			synchronized(this){
-    				if(complete){}
-    	    		//lock is available, and the transaction is at the front of the waiting queue
-    				//therefore acquire lock
-    				else if(!inUse && waitingQueue.indexOf(tid)==0){
-        				inUse = true;
-        				waiting = false;
-                  		this.perm = perm;
-                  		running.add(tid);
-                  		waitingQueue.remove(tid);
-                  		return;
-                  	//check other possibilities
-        			}else{
-        				//different transactions, but read only accesses
-    	    			if(this.perm.equals(Permissions.READ_ONLY) && perm.equals(Permissions.READ_ONLY)){
-    	              		waiting = false;
-    	              		running.add(tid);
-    	              		waitingQueue.remove(tid);
-    	               		return;
-    	               	//same transaction, same permission
-    	    			}else if(perm.equals(this.perm) && running.contains(tid)){
-    		    	       	waiting = false;
-    		    	       	waitingQueue.remove(tid);
-    		    	       	return;
-    		    	    //same transaction already has read_write permission and the current request is read_only
-    	    			}else if(running.contains(tid) && this.perm.equals(Permissions.READ_WRITE) && perm.equals(Permissions.READ_ONLY)){
-    	    				waiting = false;
-    		    	       	waitingQueue.remove(tid);
-    		    	       	return;   			
-    	                //same transaction upgrading from read_only to read_write
-    	                }else if(perm.equals(Permissions.READ_WRITE) && running.contains(tid) && this.perm.equals(Permissions.READ_ONLY)){
-    	                    if(running.size()==1){
-    		                	waiting = false;
-    		                    this.perm = perm;
-    		                    waitingQueue.remove(tid);
-    		                    return;
-    	                    }else{
-    	                    	waitingQueue.remove(tid);
-    	                    	waitingQueue.add(0,tid);
-    	                    }
-                       	}
+    		Request(TransactionId tid, LockMode mode, DeadlockPolicy policy) {
+    			this.tid = tid;
+    			this.mode = mode;
+    			this.policy = policy;
+    		}
+    		
+    		//recorded in the waits-for graph
+    		boolean tracked() {
+    			return policy==DeadlockPolicy.DETECT || policy==DeadlockPolicy.WOUND_WAIT;
+    		}
+    	}
+    	
+    	private final WaitsForGraph waitsFor;
+    	private boolean retired = false;	//removed from lockManagers by evictPage()
+    	//transactions holding the lock and their modes
+    	private final HashMap<TransactionId,LockMode> running = new HashMap<TransactionId,LockMode>();
+    	private final LinkedList<Request> waitingQueue = new LinkedList<Request>();
+    	
+    	LockManager(WaitsForGraph waitsFor) {
+    		this.waitsFor = waitsFor;
+    	}
+    	
+        /**
+         * Acquires the lock for tid, waiting up to timeout milliseconds.
+         * Under DeadlockPolicy.DETECT, a request that has to wait first
+         * aborts the youngest transaction on a cycle through tid in the
+         * waits-for graph, if there is one. Under WAIT_DIE, it is refused
+         * if it would wait for an older transaction; under WOUND_WAIT, it
+         * first wounds the younger transactions it would wait for.
+         * 
+         * @return false if this lock manager was retired and the caller
+         * should look up the current lock manager of the page instead
+         * @throws TransactionAbortedException if the lock was not granted
+         * in time, tid was chosen as the victim of a deadlock, died or was
+         * wounded, the thread was interrupted, or tid released the lock
+         * while waiting
+         */
+        public boolean acquireLock(TransactionId tid, LockMode mode, long timeout, DeadlockPolicy policy)
+        		throws TransactionAbortedException{
+        	if(tid==null){
+        		policy = DeadlockPolicy.TIMEOUT;
+        	}
+        	Request req;
+        	Set<TransactionId> wounded = null;
+        	synchronized(this){
+	        	if(retired){
+	        		return false;
+	        	}
+	        	if(policy==DeadlockPolicy.WOUND_WAIT && waitsFor.isWounded(tid)){
+	        		throw new TransactionAbortedException();
+	        	}
+	        	req = enqueue(tid, mode, policy);
+	        	if(req==null){
+	        		return true;
+	        	}
+	        	if(policy==DeadlockPolicy.DETECT){
+	        		waitsFor.setBlockers(tid, this, blockers(req));
+	        	}else if(policy==DeadlockPolicy.WAIT_DIE){
+	        		waitOrDie(req);
+	        	}else if(policy==DeadlockPolicy.WOUND_WAIT){
+	        		wounded = woundOrWait(req);
+	        		waitsFor.waitsIn(tid, this);
+	        	}
+        	}
+        	
+        	//the wounded are aborted out of their other queues without
+        	//holding this monitor, like deadlock victims
+        	if(wounded!=null){
+        		for(TransactionId w : wounded){
+        			for(LockManager lm : waitsFor.waitedOn(w)){
+        				lm.cancel(w);
         			}
-    			}    			
-    			if(!waitingQueue.contains(tid)){
-    				return;
-    			}    			
-    			if(waiting){    				
-    				//if long wait, throw exception
-    				if(waitTime>10){
-    					throw new TransactionAbortedException();	    			
+        		}
+        	}
+        	
+        	//look for deadlocks without holding this monitor, since
+        	//cancelling a victim takes the monitors of its locks; tid may
+        	//be on several cycles, which do not all go through the victim
+        	while(req.policy==DeadlockPolicy.DETECT){
+        		TransactionId victim = waitsFor.victim(tid);
+        		if(victim==null){
+        			break;
+        		}
+        		for(LockManager lm : waitsFor.waitedOn(victim)){
+        			lm.cancel(victim);
+        		}
+        		if(victim.equals(tid)){
+        			break;
+        		}
+        	}
+        	
+        	synchronized(this){
+	        	long deadline = System.currentTimeMillis() + timeout;
+	        	try{
+		        	while(!req.granted){
+		        		//a transaction wounded before it was recorded as
+		        		//waiting here could not be cancelled
+		        		if(req.cancelled || (req.policy==DeadlockPolicy.WOUND_WAIT && waitsFor.isWounded(tid))){
+		        			throw new TransactionAbortedException();
+		        		}
+		        		long left = deadline - System.currentTimeMillis();
+		        		if(left<=0){
+		        			throw new TransactionAbortedException();
+		        		}
+		        		wait(left);
+		        	}
+	        	}catch(InterruptedException e){
+	        		Thread.currentThread().interrupt();
+	        		throw new TransactionAbortedException();
+	        	}finally{
+	        		if(!req.granted){
+	        			withdraw(req);
+	        		}
+	        	}
+        	}
+        	return true;
+        }
+        
+        /**
+         * Grants the request of tid if possible, or queues it.
+         * 
+         * @return null if the lock was granted, the queued request otherwise
+         */
+        private Request enqueue(TransactionId tid, LockMode mode, DeadlockPolicy policy)
+        		throws TransactionAbortedException{
+        	Request req;
+        	LockMode held = running.get(tid);
+        	if(held!=null){
+        		//the lock held covers the request
+        		if(held.covers(mode)){
+        			return null;
+        		}
+        		//upgrade, right away if no other holder conflicts
+        		mode = held.join(mode);
+        		if(compatible(tid, mode)){
+        			running.put(tid, mode);
+        			return null;
+        		}
+        		//another holder waits to upgrade (upgrades wait at the head):
+        		//each would wait for the other to leave, so give up now
+        		if(!waitingQueue.isEmpty() && running.containsKey(waitingQueue.getFirst().tid)){
+        			throw new TransactionAbortedException();
+        		}
+        		req = new Request(tid, mode, policy);
+        		waitingQueue.addFirst(req);
+        	}else if(waitingQueue.isEmpty() && compatible(tid, mode)){
+        		running.put(tid, mode);
+        		return null;
+        	}else{
+        		//behind the queue, even if compatible with the holders, so
+        		//that a waiting writer is not starved by a stream of readers
+        		req = new Request(tid, mode, policy);
+        		waitingQueue.addLast(req);
+        	}
+        	return req;
+        }
+        
+        /**
+         * Grants mode to tid, which is not queued, if the lock is free.
+         * 
+         * @return true if the lock was granted, or was already held in a
+         * mode covering mode
+         */
+        public synchronized boolean tryAcquire(TransactionId tid, LockMode mode){
+        	if(retired){
+        		return false;
+        	}
+        	LockMode held = running.get(tid);
+        	if(held!=null){
+        		mode = held.join(mode);
+        	}else if(!waitingQueue.isEmpty()){
+        		return false;
+        	}
+        	if(!compatible(tid, mode)){
+        		return false;
+        	}
+        	running.put(tid, mode);
+        	return true;
+        }
+        
+        /**
+         * Lets req wait under WAIT_DIE only if it waits for younger
+         * transactions alone. An upgrade overtakes only requests that are
+         * older than it, since each of them is older than the holders or
+         * than a write queued ahead that is.
+         * 
+         * @throws TransactionAbortedException if req waits for an older
+         * transaction
+         */
+        private void waitOrDie(Request req) throws TransactionAbortedException{
+        	for(TransactionId b : blockers(req)){
+        		if(b.getId() < req.tid.getId()){
+        			withdraw(req);
+        			throw new TransactionAbortedException();
+        		}
+        	}
+        }
+        
+        /**
+         * Wounds, under WOUND_WAIT, the younger transactions req waits
+         * for: they are aborted at their next lock request, and their
+         * waiting requests are cancelled by the caller. An upgrade that
+         * overtakes a request of an older transaction, which happens if a
+         * write queued ahead of it was wounded but not cancelled yet, is
+         * wounded by it instead.
+         * 
+         * @return the wounded transactions
+         * @throws TransactionAbortedException if req is an upgrade that
+         * overtook an older transaction
+         */
+        private Set<TransactionId> woundOrWait(Request req) throws TransactionAbortedException{
+        	if(running.containsKey(req.tid)){
+        		for(Request r : waitingQueue){
+        			if(r!=req && r.tid.getId() < req.tid.getId()){
+        				withdraw(req);
+        				throw new TransactionAbortedException();
         			}
-    				//sleep for 100 milliseconds
-    				try{
-    					Thread.sleep(100);
-    					waitTime++;
-					}catch(InterruptedException e){}    				
-    			}   			         
-    		}
+        		}
+        	}
+        	Set<TransactionId> wounded = new HashSet<TransactionId>();
+        	for(TransactionId b : blockers(req)){
+        		if(b.getId() > req.tid.getId()){
+        			//marked while b holds or waits for this lock, so before
+        			//b completes and its mark is forgotten
+        			waitsFor.wound(b);
+        			wounded.add(b);
+        		}
+        	}
+        	return wounded;
         }
         
-        public synchronized void releaseLock(TransactionId tid){
-        	//number of running transactions holding the lock
-        	int runningNum = running.size();
-        	
-        	//this transaction is the only one running
-	        if(running.contains(tid) && runningNum==1){
-	        	running.remove(tid);
-	        	inUse = false;
-	        	this.perm = null;
-	        //running but with other transactions also running
-	        }else if(running.contains(tid) && runningNum>1){
-	        	running.remove(tid);
-	        //transaction still waiting
-	        }else if(waitingQueue.contains(tid)){
-	        	waitingQueue.remove(tid); 
+        /**
+         * @return true if tid could hold the lock in mode along with the
+         * other holders
+         */
+        private boolean compatible(TransactionId tid, LockMode mode){
+        	for(Entry<TransactionId,LockMode> h : running.entrySet()){
+        		if(!h.getValue().compatible(mode) && !h.getKey().equals(tid)){
+        			return false;
+        		}
         	}
-        }        
+        	return true;
+        }
+        
+        /**
+         * @return the transactions that must release the lock, or be
+         * granted their requests queued ahead, before req can be granted
+         */
+        private Set<TransactionId> blockers(Request req){
+        	Set<TransactionId> blockers = new HashSet<TransactionId>();
+        	for(Entry<TransactionId,LockMode> h : running.entrySet()){
+        		if(!h.getValue().compatible(req.mode)){
+        			blockers.add(h.getKey());
+        		}
+        	}
+        	for(Request r : waitingQueue){
+        		if(r==req){
+        			break;
+        		}
+        		if(!r.mode.compatible(req.mode)){
+        			blockers.add(r.tid);
+        		}
+        	}
+        	blockers.remove(req.tid);
+        	blockers.remove(null);
+        	return blockers;
+        }
+        
+        /**
+         * Called after the holders or the queue changed: grants the requests
+         * at the head of the queue until one cannot be granted, wakes the
+         * waiting threads if any was, and updates the edges of the others.
+         */
+        private void changed(){
+        	boolean granted = false;
+        	while(!waitingQueue.isEmpty()){
+        		Request r = waitingQueue.getFirst();
+        		if(!compatible(r.tid, r.mode)){
+        			break;
+        		}
+        		running.put(r.tid, r.mode);
+        		waitingQueue.removeFirst();
+        		dequeued(r);
+        		r.granted = true;
+        		granted = true;
+        	}
+        	if(granted){
+        		notifyAll();
+        	}
+        	for(Request r : waitingQueue){
+        		if(r.policy==DeadlockPolicy.DETECT){
+        			waitsFor.setBlockers(r.tid, this, blockers(r));
+        		}
+        	}
+        }
+        
+        /**
+         * Drops the edges of a request that left the queue.
+         */
+        private void dequeued(Request r){
+        	if(r.tracked()){
+        		waitsFor.remove(r.tid, this);
+        	}
+        }
+        
+        /**
+         * Removes a request that gave up waiting; requests queued behind it
+         * may now be grantable.
+         */
+        private void withdraw(Request req){
+        	if(waitingQueue.remove(req)){
+        		dequeued(req);
+        		changed();
+        	}
+        }
         
+        /**
+         * Cancels the waiting requests of tid, whose threads then throw
+         * TransactionAbortedException.
+         */
+        public synchronized void cancel(TransactionId tid){
+        	boolean cancelled = false;
+        	Iterator<Request> it = waitingQueue.iterator();
+        	while(it.hasNext()){
+        		Request r = it.next();
+        		if(tid.equals(r.tid)){
+        			it.remove();
+        			dequeued(r);
+        			r.cancelled = true;
+        			cancelled = true;
+        		}
+        	}
+        	if(cancelled){
+        		changed();
+        		notifyAll();
+        	}
+        }
+        
+        public synchronized boolean holds(TransactionId tid){
+        	return running.containsKey(tid);
+        }
+        
+        /**
+         * @return the mode tid holds this lock in, null if it does not
+         */
+        public synchronized LockMode mode(TransactionId tid){
+        	return running.get(tid);
+        }
+        
+        /**
+         * @return true if a transaction holds this lock in mode X
+         */
+        public synchronized boolean writeLocked(){
+        	return running.containsValue(LockMode.X);
+        }
+        
+        /**
+         * @return true if tid holds or waits for this lock
+         */
+        public synchronized boolean involves(TransactionId tid){
+        	if(running.containsKey(tid)){
+        		return true;
+        	}
+        	for(Request r : waitingQueue){
+        		if(tid.equals(r.tid)){
+        			return true;
+        		}
+        	}
+        	return false;
+        }
+        
+        /**
+         * Marks this lock manager as retired if no transaction holds or
+         * waits for it, so that it can be dropped along with its page.
+         */
+        public synchronized boolean retireIfUnused(){
+        	if(running.isEmpty() && waitingQueue.isEmpty()){
+        		retired = true;
+        	}
+        	return retired;
+        }
+        
+        /**
+         * Releases the lock held by tid and cancels its waiting requests,
+         * then grants the requests that can now be granted.
+         */
+        public synchronized void releaseLock(TransactionId tid){
+        	boolean held = running.remove(tid)!=null;
+        	if(held){
+        		changed();
+        	}
+        	cancel(tid);
+        }
     }
 }
@@ -0,0 +1,438 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * BulkLoader writes the lines of a delimited text file as HeapPages, one
+ * tuple per line. The input is read in chunks of about
+ * {@link #DEFAULT_CHUNK_BYTES} bytes that end at a line break; the fields of
+ * each chunk are parsed straight from its bytes into the tuple format of
+ * HeapPage, on a fork-join pool when more than one thread is asked for. The tuples are then packed into full
+ * pages in the order of the input, and the pages written
+ * {@link #WRITE_PAGES} at a time, so the output is the same for any number
+ * of threads and memory use does not grow with the input.
+ * <p/>
+ * Lines that are empty are skipped. Missing fields are stored as 0 or the
+ * empty string, fields past the last one are ignored, and strings are cut
+ * to Type.STRING_LEN bytes.
+ *
+ * @see HeapFileEncoder#convert(File, File, int, int, Type[], char)
+ * @see HeapFile#copyFrom(File, char, int)
+ */
+public class BulkLoader {
+
+    /**
+     * Default number of bytes of input parsed by one task.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    /**
+     * Pages written to the output at a time.
+     */
+    public static final int WRITE_PAGES = 256;
+
+    private final Type[] types;
+    private final byte separator;
+    private final int pageSize;
+    private final int parallelism;
+    private final int recordBytes;
+    private final int tuplesPerPage;
+    private final int headerBytes;
+    private int chunkBytes = DEFAULT_CHUNK_BYTES;
+
+    /**
+     * @param types       the types of the fields of each line/tuple
+     * @param separator   the character between fields
+     * @param pageSize    the number of bytes per page of the output
+     * @param parallelism the number of threads that parse the input
+     */
+    public BulkLoader(Type[] types, char separator, int pageSize, int parallelism) {
+        if (separator > 127) {
+            throw new IllegalArgumentException("separator must be an ASCII character");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.types = types.clone();
+        this.separator = (byte) separator;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+        int n = 0;
+        for (Type t : types) {
+            n += t.getLen();
+        }
+        this.recordBytes = n;
+        //the same layout as HeapPage: a bit per slot, then the slots
+        this.tuplesPerPage = (pageSize * 8) / (recordBytes * 8 + 1);
+        this.headerBytes = (tuplesPerPage + 7) / 8;
+    }
+
+    /**
+     * Sets the number of bytes of input parsed by one task. A chunk ends at
+     * the last line break in it, and grows if a line does not fit.
+     */
+    public void setChunkBytes(int chunkBytes) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("chunks must have at least one byte");
+        }
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * @return the number of tuples on a full page
+     */
+    public int getTuplesPerPage() {
+        return tuplesPerPage;
+    }
+
+    /**
+     * @return the number of pages that n tuples are written to
+     */
+    public int numPages(long n) {
+        return (int) ((n + tuplesPerPage - 1) / tuplesPerPage);
+    }
+
+    /**
+     * Writes the lines of inFile to outFile, which is replaced. An empty
+     * input gives a file with one empty page.
+     *
+     * @return the number of tuples written
+     */
+    public long convert(File inFile, File outFile) throws IOException {
+        FileChannel out = new RandomAccessFile(outFile, "rw").getChannel();
+        try {
+            out.truncate(0);
+            long n = load(inFile, out, 0);
+            if (n == 0) {
+                writeFully(out, ByteBuffer.allocate(pageSize), 0);
+            }
+            return n;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the given tuples of int fields to outFile, which is replaced,
+     * like {@link #convert(File, File)}.
+     *
+     * @return the number of tuples written
+     */
+    public long convert(List<? extends List<Integer>> tuples, File outFile) throws IOException {
+        FileChannel out = new RandomAccessFile(outFile, "rw").getChannel();
+        try {
+            out.truncate(0);
+            PageWriter writer = new PageWriter(out, 0);
+            byte[] record = new byte[recordBytes];
+            for (List<Integer> tuple : tuples) {
+                if (tuple.size() > types.length) {
+                    throw new RuntimeException("Tuple has more than " + types.length + " fields: ("
+                            + tuple + ")");
+                }
+                Arrays.fill(record, (byte) 0);
+                int pos = 0;
+                for (int i = 0; i < types.length; i++) {
+                    if (types[i] != Type.INT_TYPE) {
+                        throw new IllegalArgumentException("tuples of ints need INT_TYPE fields");
+                    }
+                    putInt(record, pos, i < tuple.size() ? tuple.get(i) : 0);
+                    pos += 4;
+                }
+                writer.add(record, 0, 1);
+            }
+            long n = writer.finish();
+            if (n == 0) {
+                writeFully(out, ByteBuffer.allocate(pageSize), 0);
+            }
+            return n;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the lines of inFile as pages to out, the first page at byte
+     * offset. Only the pages the tuples fill are written, the last one
+     * padded with empty slots.
+     *
+     * @return the number of tuples written
+     */
+    public long load(File inFile, FileChannel out, long offset) throws IOException {
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        FileInputStream in = new FileInputStream(inFile);
+        try {
+            PageWriter writer = new PageWriter(out, offset);
+            //parsed chunks in input order, at most two per thread in flight
+            ArrayDeque<ForkJoinTask<Records>> pending = new ArrayDeque<ForkJoinTask<Records>>();
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] chunk = Arrays.copyOf(carry, carry.length + chunkBytes);
+                int len = carry.length;
+                int end = -1;
+                while (end < 0 && !eof) {
+                    int r = in.read(chunk, len, chunk.length - len);
+                    if (r < 0) {
+                        eof = true;
+                    } else {
+                        len += r;
+                    }
+                    if (len == chunk.length || eof) {
+                        end = eof ? len : lastLineEnd(chunk, len);
+                        if (end < 0) {
+                            //a line longer than the chunk
+                            chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                        }
+                    }
+                }
+                carry = Arrays.copyOfRange(chunk, end, len);
+                final byte[] data = chunk;
+                final int dataLen = end;
+                if (pool == null) {
+                    writer.add(parse(data, dataLen));
+                    continue;
+                }
+                pending.add(pool.submit(new Callable<Records>() {
+                    public Records call() {
+                        return parse(data, dataLen);
+                    }
+                }));
+                while (pending.size() >= 2 * parallelism) {
+                    writer.add(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                writer.add(pending.poll().join());
+            }
+            return writer.finish();
+        } finally {
+            in.close();
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the end of the last complete line in the first len bytes of
+     * data, just past its line break, or -1 if there is no line break
+     */
+    private static int lastLineEnd(byte[] data, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The tuples of a chunk, in the format of a HeapPage slot.
+     */
+    private static class Records {
+        final byte[] data;
+        final int count;
+
+        Records(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Parses the lines in the first len bytes of data.
+     */
+    private Records parse(byte[] data, int len) {
+        byte[] out = new byte[Math.max(recordBytes, len / 4 / recordBytes * recordBytes)];
+        int count = 0;
+        int pos = 0;
+        while (pos < len) {
+            int end = pos;
+            while (end < len && data[end] != '\n') {
+                end++;
+            }
+            int lineEnd = end;
+            if (lineEnd > pos && data[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            int first = pos;
+            while (first < lineEnd && isSpace(data[first])) {
+                first++;
+            }
+            if (first < lineEnd) {
+                if ((count + 1) * recordBytes > out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int p = pos;
+                int at = count * recordBytes;
+                for (Type type : types) {
+                    int fieldEnd = p;
+                    while (fieldEnd < lineEnd && data[fieldEnd] != separator) {
+                        fieldEnd++;
+                    }
+                    at = encode(type, data, p, fieldEnd, out, at);
+                    p = Math.min(fieldEnd + 1, lineEnd);
+                }
+                count++;
+            }
+            pos = end + 1;
+        }
+        return new Records(out, count);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * Writes the field of type type in data[from, to) to out at offset at.
+     *
+     * @return the offset after the field
+     */
+    private static int encode(Type type, byte[] data, int from, int to, byte[] out, int at) {
+        while (from < to && isSpace(data[from])) {
+            from++;
+        }
+        while (to > from && isSpace(data[to - 1])) {
+            to--;
+        }
+        if (type == Type.INT_TYPE) {
+            putInt(out, at, parseInt(data, from, to));
+            return at + 4;
+        }
+        int n = Math.min(to - from, Type.STRING_LEN);
+        putInt(out, at, n);
+        System.arraycopy(data, from, out, at + 4, n);
+        //the rest of the field is zero, out starts out zeroed
+        return at + type.getLen();
+    }
+
+    /**
+     * @return the int in data[from, to), or 0 if it is not one
+     */
+    private static int parseInt(byte[] data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long v = 0;
+        boolean ok = i < to;
+        for (; i < to && ok; i++) {
+            int d = data[i] - '0';
+            ok = d >= 0 && d <= 9;
+            v = v * 10 + d;
+            ok &= v <= (long) Integer.MAX_VALUE + 1;
+        }
+        if (negative) {
+            v = -v;
+        }
+        if (!ok || v > Integer.MAX_VALUE) {
+            System.out.println("BAD LINE : " + new String(data, from, to - from));
+            return 0;
+        }
+        return (int) v;
+    }
+
+    private static void putInt(byte[] out, int at, int v) {
+        out[at] = (byte) (v >>> 24);
+        out[at + 1] = (byte) (v >>> 16);
+        out[at + 2] = (byte) (v >>> 8);
+        out[at + 3] = (byte) v;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Packs records into pages and writes them out in batches.
+     */
+    private class PageWriter {
+        private final FileChannel out;
+        private long offset;
+        private final byte[] batch = new byte[WRITE_PAGES * pageSize];
+        private final byte[] fullHeader = header(tuplesPerPage);
+        private int page = 0;	//the page of the batch being filled
+        private int slot = 0;	//the next free slot of that page
+        private long written = 0;
+
+        PageWriter(FileChannel out, long offset) {
+            this.out = out;
+            this.offset = offset;
+        }
+
+        void add(Records r) throws IOException {
+            add(r.data, 0, r.count);
+        }
+
+        /**
+         * Adds the count records that start at data[from].
+         */
+        void add(byte[] data, int from, int count) throws IOException {
+            while (count > 0) {
+                int n = Math.min(count, tuplesPerPage - slot);
+                System.arraycopy(data, from, batch, page * pageSize + headerBytes + slot * recordBytes,
+                        n * recordBytes);
+                from += n * recordBytes;
+                count -= n;
+                slot += n;
+                written += n;
+                if (slot == tuplesPerPage) {
+                    System.arraycopy(fullHeader, 0, batch, page * pageSize, headerBytes);
+                    slot = 0;
+                    page++;
+                    if (page == WRITE_PAGES) {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            writeFully(out, ByteBuffer.wrap(batch, 0, page * pageSize), offset);
+            offset += (long) page * pageSize;
+            page = 0;
+        }
+
+        /**
+         * Writes the last, partly filled page and the pages before it.
+         *
+         * @return the number of tuples written
+         */
+        long finish() throws IOException {
+            if (slot > 0) {
+                int start = page * pageSize;
+                System.arraycopy(header(slot), 0, batch, start, headerBytes);
+                //the batch is reused, clear the slots of earlier pages
+                Arrays.fill(batch, start + headerBytes + slot * recordBytes, start + pageSize, (byte) 0);
+                slot = 0;
+                page++;
+            }
+            flush();
+            return written;
+        }
+
+        /**
+         * @return a page header with the first n slots used
+         */
+        private byte[] header(int n) {
+            byte[] h = new byte[headerBytes];
+            for (int i = 0; i < n; i++) {
+                h[i / 8] |= 1 << (i % 8);
+            }
+            return h;
+        }
+    }
+}
@@ -117,6 +117,25 @@ public class Catalog {
     	throw new NoSuchElementException("table does not exist");
     }
 
+    /**
+     * Returns the field a scan of the specified table returns its tuples in
+     * ascending order of: the sort field of a sorted HeapFile, or the key of
+     * a BTreeFile.
+     *
+     * @return the index of the field, or -1 if scans return the tuples in no
+     * particular order
+     */
+    public int getSortField(int tableid) {
+    	DbFile file = getDatabaseFile(tableid);
+    	if(file instanceof HeapFile){
+    		return ((HeapFile)file).getSortField();
+    	}
+    	if(file instanceof BTreeFile){
+    		return ((BTreeFile)file).getKeyField();
+    	}
+    	return -1;
+    }
+
     public Iterator<Integer> tableIdIterator() {
     	return TableIdAr.keySet().iterator();
     }
@@ -139,8 +158,17 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p/>
+     * Each line describes a table as name (field type, field type, ...), and
+     * may name the storage format of the table after the field list:
+     * "slotted" for a SlottedFile, "pax" for a PaxFile, "btree" for a
+     * BTreeFile on the primary key (or the first field, if there is none),
+     * "hash" for a HashFile on that key, "sorted field" for a HeapFile
+     * sorted on field (see HeapFileEncoder#convertSorted).
+     * Tables are HeapFiles otherwise.
      *
      * @param catalogFile
+     * @throws IllegalArgumentException if a table names another storage format
      */
     public void loadSchema(String catalogFile) {
         String line = "";
@@ -180,7 +208,27 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (storage.equals(""))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (storage.toLowerCase().equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t);
+                else if (storage.toLowerCase().equals("pax"))
+                    tabHf = new PaxFile(dataFile, t);
+                else if (storage.toLowerCase().equals("btree"))
+                    tabHf = new BTreeFile(dataFile, t,
+                            primaryKey.equals("") ? 0 : t.fieldNameToIndex(primaryKey));
+                else if (storage.toLowerCase().startsWith("sorted "))
+                    tabHf = new HeapFile(dataFile, t,
+                            t.fieldNameToIndex(storage.substring("sorted ".length()).trim()));
+                else if (storage.toLowerCase().equals("hash"))
+                    tabHf = new HashFile(dataFile, t,
+                            primaryKey.equals("") ? 0 : t.fieldNameToIndex(primaryKey));
+                else
+                    throw new IllegalArgumentException("Unknown storage " + storage
+                            + " in catalog entry : " + line);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
             }
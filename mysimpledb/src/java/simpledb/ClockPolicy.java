@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Every page of the pool occupies a
+ * frame in a circular array with a reference bit. An access only sets the
+ * bit of the page's frame. To find a victim, the clock hand sweeps the
+ * frames, clearing set bits and stopping at the first evictable page
+ * whose bit is already clear. Every page gets at most one second chance
+ * per sweep, so eviction is amortized O(1) regardless of the pool size.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final PageId[] frames;
+    private final AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf;
+    private final int[] freeFrames;	//stack of unused frames
+    private int numFree;
+    private int hand = 0;
+
+    /**
+     * @param numPages the capacity of the buffer pool using this policy
+     */
+    public ClockPolicy(int numPages) {
+        frames = new PageId[numPages];
+        referenced = new AtomicIntegerArray(numPages);
+        frameOf = new ConcurrentHashMap<PageId, Integer>();
+        freeFrames = new int[numPages];
+        for (int i = 0; i < numPages; i++) {
+            freeFrames[i] = numPages - 1 - i;
+        }
+        numFree = numPages;
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (numFree == 0) {
+            throw new IllegalStateException("no free frame for page " + pid.pageNumber());
+        }
+        int frame = freeFrames[--numFree];
+        frames[frame] = pid;
+        referenced.set(frame, 1);
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, 1);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced.set(frame, 0);
+            freeFrames[numFree++] = frame;
+        }
+    }
+
+    public PageId chooseVictim(Evictable filter) {
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(frame, 0) == 1) {
+                continue;
+            }
+            if (filter.canEvict(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
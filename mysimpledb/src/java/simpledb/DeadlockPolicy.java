@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * How a BufferPool deals with transactions that wait for each other's
+ * locks, see {@link BufferPool#setDeadlockPolicy(DeadlockPolicy)}.
+ * Under every policy, a transaction that waits longer than the lock
+ * timeout is aborted.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Deadlocks are only broken by the lock timeout.
+     */
+    TIMEOUT,
+    /**
+     * A transaction that blocks looks for a cycle through it in the
+     * waits-for graph and aborts the youngest transaction on the cycle.
+     */
+    DETECT,
+    /**
+     * Transactions are ordered by their ids, smaller ids being older. A
+     * transaction may wait for younger ones only; one that would wait for
+     * an older transaction is aborted (dies) instead.
+     */
+    WAIT_DIE,
+    /**
+     * Transactions are ordered by their ids, smaller ids being older. A
+     * transaction may wait for older ones only; before waiting for younger
+     * ones it wounds them, aborting their waiting requests and their next
+     * lock request.
+     */
+    WOUND_WAIT
+}
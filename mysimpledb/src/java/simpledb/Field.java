@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -15,6 +16,17 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to buf, starting at offset,
+     * in the same format as {@link #serialize(DataOutputStream)}. The
+     * position of buf is not changed.
+     *
+     * @param buf    The buffer to write to.
+     * @param offset The index of the first byte to write.
+     * @see Type#parse(ByteBuffer, int)
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HashBucketPage is a page of a bucket of a HashFile: the first page of the
+ * bucket, or one of the overflow pages chained to it.
+ * <p/>
+ * The page stores the category byte, the number of the next page of the
+ * bucket (0 for the last one) and the number of tuples (ints), then the
+ * tuples, packed. The RecordId of a tuple is its position on the page, so
+ * it changes when tuples before it are deleted or the bucket splits;
+ * HashFile.deleteTuple looks the tuple up by its key if it is no longer at
+ * its RecordId.
+ *
+ * @see HashFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 9;
+
+    private final TupleDesc td;
+    private final int maxTuples;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    private int overflow;
+
+    /**
+     * Create a bucket page of the HashFile of id, which must be in the
+     * Catalog, from its bytes.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this(id, data, file(id).getTupleDesc());
+    }
+
+    HashBucketPage(HashPageId id, byte[] data, TupleDesc td) throws IOException {
+        super(id, data);
+        this.td = td;
+        this.maxTuples = maxTuples(td);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get(0) != BUCKET) {
+            throw new IOException("not a hash bucket page");
+        }
+        overflow = buf.getInt(1);
+        int n = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, parse(type, buf, offset));
+                offset += type.getLen();
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+    }
+
+    /**
+     * @return the number of tuples of td that fit on a bucket page
+     */
+    static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /**
+     * @return the bytes of an empty bucket page with no overflow page
+     */
+    static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = BUCKET;
+        return data;
+    }
+
+    /**
+     * @return the number of the next page of the bucket, or 0 if this is
+     * the last one
+     */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int pageNo) {
+        overflow = pageNo;
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /**
+     * @return the tuples on this page, as a list that later changes to the
+     * page do not affect
+     */
+    public List<Tuple> getTuples() {
+        return new ArrayList<Tuple>(tuples);
+    }
+
+    /**
+     * Sets the RecordIds of the tuples from position from on.
+     */
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++) {
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    /**
+     * Adds t after the tuples on the page.
+     *
+     * @throws IllegalStateException if the page is full
+     */
+    public void insertTuple(Tuple t) {
+        if (isFull()) {
+            throw new IllegalStateException("bucket page is full");
+        }
+        tuples.add(t);
+        renumber(tuples.size() - 1);
+    }
+
+    /**
+     * Removes the tuple at position i.
+     */
+    public void deleteTuple(int i) {
+        tuples.remove(i).setRecordId(null);
+        renumber(i);
+    }
+
+    /**
+     * Replaces the tuples on the page by ts, which must fit.
+     */
+    public void setTuples(List<Tuple> ts) {
+        if (ts.size() > maxTuples) {
+            throw new IllegalArgumentException(ts.size() + " tuples do not fit on a bucket page");
+        }
+        tuples.clear();
+        tuples.addAll(ts);
+        renumber(0);
+    }
+
+    /**
+     * @return true if there is no room for another tuple
+     */
+    public boolean isFull() {
+        return tuples.size() >= maxTuples;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(0, BUCKET);
+        buf.putInt(1, overflow);
+        buf.putInt(5, tuples.size());
+        int offset = HEADER_SIZE;
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(buf, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+        return buf.array();
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, getBeforeImageData(), td);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashFile is a DbFile that stores the tuples of a table in the buckets of
+ * a linear hash on one of its fields, the key field, so that
+ * {@link #indexIterator} finds the tuples with a given key by reading the
+ * header page and the pages of one bucket. Page 0 is a HashHeaderPage with
+ * the directory of the buckets; the other pages are HashBucketPages, the
+ * first page of a bucket and its chain of overflow pages.
+ * <p/>
+ * An insert that has to chain a new overflow page to a bucket splits the
+ * next bucket in the linear order (see HashHeaderPage), so the file grows
+ * one bucket at a time and chains stay short without a global rehash.
+ * Deletes only remove the tuple from its page; empty overflow pages stay in
+ * their chain and are filled by later inserts.
+ * <p/>
+ * Pages are locked through the BufferPool. Inserts hold an exclusive lock
+ * on the header page, since they may split a bucket, and on the page they
+ * insert into. Lookups hold a shared lock on the header page until they
+ * have locked the first page of their bucket, and go down the chain with
+ * shared locks, coupled from page to page; a split needs exclusive locks on
+ * the whole chain, so it cannot pass them. Scans of the whole file keep the
+ * shared lock on the header page, so that no bucket splits under them. The
+ * locks a transaction did not hold before are released once the pages are
+ * read, unless it changed them.
+ * <p/>
+ * A table is opened as a HashFile by adding "hash" after its schema in the
+ * catalog file; its key is the primary key, or the first field.
+ *
+ * @see HashPage
+ * @see IndexJoin
+ * @see Catalog#loadSchema
+ */
+public class HashFile implements IndexedFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableId;
+    private final PageChannel channel;
+
+    //pages in the file, -1 until counted, see numPages()
+    private int numPages = -1;      //guarded by this
+
+    /**
+     * Constructs a hash file backed by the specified file. The file may be
+     * empty or missing, in which case it has no buckets yet.
+     *
+     * @param f        the file that stores the on-disk backing store for this file.
+     * @param td       the TupleDesc of the tuples of the table
+     * @param keyField the index of the field the tuples are hashed on
+     */
+    public HashFile(File f, TupleDesc td, int keyField) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        }
+        this.f = f;
+        this.channel = new PageChannel(f);
+        this.td = td;
+        this.keyField = keyField;
+        this.tableId = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see IndexedFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageNo = pid.pageNumber();
+        if (pid.getTableId() != tableId || pageNo < 0 || (pageNo > 0 && pageNo >= numPages())) {
+            throw new IllegalArgumentException("page " + pageNo + " is not in this file");
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pageNo * data.length;
+        try {
+            //the header page of a new file is not on disk yet, its bytes
+            //stay zero, i.e. there are no buckets
+            channel.readFully(buf, offset);
+            HashPageId id = (HashPageId) pid;
+            switch (data[0]) {
+                case HashPage.HEADER:
+                    return new HashHeaderPage(id, data);
+                case HashPage.BUCKET:
+                    return new HashBucketPage(id, data, td);
+                default:
+                    return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        channel.writeFully(buf, (long) page.getId().pageNumber() * BufferPool.getPageSize());
+        synchronized (this) {
+            numPages = Math.max(numPages(), page.getId().pageNumber() + 1);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, including the header page,
+     * even if it has not been written yet.
+     */
+    public synchronized int numPages() {
+        if (numPages < 0) {
+            numPages = (int) Math.max(1, f.length() / BufferPool.getPageSize());
+        }
+        return numPages;
+    }
+
+    /**
+     * Appends a page with the given bytes to the file, so that the page can
+     * be read through the BufferPool (and read again if the transaction that
+     * allocated it aborts).
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocatePage(byte[] data) throws IOException {
+        int pageNo = numPages();
+        channel.writeFully(ByteBuffer.wrap(data), (long) pageNo * BufferPool.getPageSize());
+        numPages = pageNo + 1;
+        return pageNo;
+    }
+
+    /**
+     * Locks page pageNo for tid, and adds it to acquired if tid did not hold
+     * the lock before.
+     */
+    private HashPage lock(TransactionId tid, int pageNo, Permissions perm, Set<PageId> acquired)
+            throws DbException, TransactionAbortedException {
+        HashPageId pid = new HashPageId(tableId, pageNo);
+        if (!Database.getBufferPool().holdsLock(tid, pid)) {
+            acquired.add(pid);
+        }
+        return (HashPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Releases the lock on page if it is in acquired. The page must not
+     * have been changed.
+     */
+    private static void unlock(TransactionId tid, Page page, Set<PageId> acquired) {
+        if (acquired.remove(page.getId())) {
+            Database.getBufferPool().releasePage(tid, page.getId());
+        }
+    }
+
+    private static void unlockAll(TransactionId tid, Set<PageId> acquired) {
+        for (PageId pid : acquired) {
+            Database.getBufferPool().releasePage(tid, pid);
+        }
+        acquired.clear();
+    }
+
+    /**
+     * Allocates a bucket page and locks it for tid.
+     */
+    private HashBucketPage newPage(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId pid = new HashPageId(tableId, allocatePage(HashBucketPage.createEmptyPageData()));
+        return (HashBucketPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    private static void addDirty(ArrayList<Page> dirty, Page page) {
+        if (!dirty.contains(page)) {
+            dirty.add(page);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of the table");
+        }
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        Set<PageId> acquired = new HashSet<PageId>();
+
+        HashHeaderPage header = (HashHeaderPage) lock(tid, 0, Permissions.READ_WRITE, acquired);
+        if (header.getNumBuckets() == 0) {
+            //first tuple: one empty bucket
+            header.setFirstBucket(allocatePage(HashBucketPage.createEmptyPageData()));
+            addDirty(dirty, header);
+        }
+
+        //the first page of the bucket with room
+        int bucket = header.bucketFor(HashHeaderPage.hash(t.getField(keyField)));
+        HashBucketPage page = (HashBucketPage) lock(tid, header.getBucketPage(bucket),
+                Permissions.READ_WRITE, acquired);
+        while (page.isFull() && page.getOverflow() != 0) {
+            HashBucketPage next = (HashBucketPage) lock(tid, page.getOverflow(), Permissions.READ_WRITE, acquired);
+            unlock(tid, page, acquired);
+            page = next;
+        }
+        boolean grew = false;
+        if (page.isFull()) {
+            HashBucketPage overflow = newPage(tid);
+            page.setOverflow(overflow.getId().pageNumber());
+            addDirty(dirty, page);
+            page = overflow;
+            grew = true;
+        }
+        page.insertTuple(t);
+        addDirty(dirty, page);
+
+        if (grew && header.canSplit()) {
+            split(tid, header, dirty, acquired);
+        } else if (!dirty.contains(header)) {
+            unlock(tid, header, acquired);
+        }
+        return dirty;
+    }
+
+    /**
+     * Splits bucket header.getNext() into itself and a new bucket, moving
+     * the tuples that now hash to the new bucket.
+     */
+    private void split(TransactionId tid, HashHeaderPage header, ArrayList<Page> dirty, Set<PageId> acquired)
+            throws DbException, IOException, TransactionAbortedException {
+        int bucket = header.getNext();
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int pageNo = header.getBucketPage(bucket); pageNo != 0; ) {
+            HashBucketPage page = (HashBucketPage) lock(tid, pageNo, Permissions.READ_WRITE, acquired);
+            chain.add(page);
+            tuples.addAll(page.getTuples());
+            pageNo = page.getOverflow();
+        }
+
+        HashBucketPage first = newPage(tid);
+        header.split(first.getId().pageNumber());
+        addDirty(dirty, header);
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        for (Tuple t : tuples) {
+            if (header.bucketFor(HashHeaderPage.hash(t.getField(keyField))) == bucket) {
+                stay.add(t);
+            } else {
+                move.add(t);
+            }
+        }
+        //the old bucket keeps its pages, the ones it no longer needs stay
+        //empty at the end of its chain
+        fill(tid, chain, stay, dirty);
+        ArrayList<HashBucketPage> newChain = new ArrayList<HashBucketPage>();
+        newChain.add(first);
+        fill(tid, newChain, move, dirty);
+    }
+
+    /**
+     * Stores tuples on the pages of chain, in order, chaining new overflow
+     * pages to it if they do not fit.
+     */
+    private void fill(TransactionId tid, ArrayList<HashBucketPage> chain, List<Tuple> tuples,
+                      ArrayList<Page> dirty) throws DbException, IOException, TransactionAbortedException {
+        int perPage = HashBucketPage.maxTuples(td);
+        int from = 0;
+        for (int i = 0; i < chain.size() || from < tuples.size(); i++) {
+            if (i == chain.size()) {
+                HashBucketPage overflow = newPage(tid);
+                chain.get(i - 1).setOverflow(overflow.getId().pageNumber());
+                chain.add(overflow);
+            }
+            int to = Math.min(tuples.size(), from + perPage);
+            chain.get(i).setTuples(tuples.subList(from, to));
+            addDirty(dirty, chain.get(i));
+            from = to;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof HashPageId)
+                || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not stored in this file");
+        }
+        BufferPool buffer = Database.getBufferPool();
+        Page p = buffer.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        if (p instanceof HashBucketPage) {
+            HashBucketPage page = (HashBucketPage) p;
+            int i = rid.tupleno();
+            if (i < page.getNumTuples() && sameFields(page.getTuple(i), t)) {
+                return delete(page, i, t);
+            }
+        }
+
+        //the tuple moved since it was read: look for it in its bucket
+        Set<PageId> acquired = new HashSet<PageId>();
+        HashHeaderPage header = (HashHeaderPage) lock(tid, 0, Permissions.READ_ONLY, acquired);
+        if (header.getNumBuckets() > 0) {
+            int bucket = header.bucketFor(HashHeaderPage.hash(t.getField(keyField)));
+            HashBucketPage page = (HashBucketPage) lock(tid, header.getBucketPage(bucket),
+                    Permissions.READ_ONLY, acquired);
+            unlock(tid, header, acquired);
+            while (true) {
+                for (int i = 0; i < page.getNumTuples(); i++) {
+                    if (sameFields(page.getTuple(i), t)) {
+                        acquired.remove(page.getId());
+                        page = (HashBucketPage) buffer.getPage(tid, page.getId(), Permissions.READ_WRITE);
+                        unlockAll(tid, acquired);
+                        return delete(page, i, t);
+                    }
+                }
+                if (page.getOverflow() == 0) {
+                    break;
+                }
+                HashBucketPage next = (HashBucketPage) lock(tid, page.getOverflow(), Permissions.READ_ONLY, acquired);
+                unlock(tid, page, acquired);
+                page = next;
+            }
+        }
+        unlockAll(tid, acquired);
+        throw new DbException("tuple is not stored in this file");
+    }
+
+    private static ArrayList<Page> delete(HashBucketPage page, int i, Tuple t) {
+        page.deleteTuple(i);
+        t.setRecordId(null);
+        ArrayList<Page> result = new ArrayList<Page>();
+        result.add(page);
+        return result;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BucketIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals operand, which
+     * reads the header page and the pages of the bucket of operand.
+     *
+     * @param op      EQUALS
+     * @param operand a field of the type of the key
+     * @throws IllegalArgumentException if op is not EQUALS
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("cannot look up keys " + op + " a value");
+        }
+        return new BucketIterator(tid, operand);
+    }
+
+    // see IndexedFile.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Iterates over the pages of one bucket, or of all buckets in the order
+     * of the directory, holding a shared lock on the current page only (and
+     * on the header page while it goes through all buckets).
+     */
+    private class BucketIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;        //null for all tuples
+        private final Set<PageId> acquired = new HashSet<PageId>();
+        private HashHeaderPage header = null;
+        private int bucket;
+        private int lastBucket;
+        private HashBucketPage page = null;
+        private Iterator<Tuple> tuples = null;
+        private Tuple next = null;
+        private boolean open = false;
+        private boolean done = false;
+
+        BucketIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+            open = true;
+        }
+
+        /**
+         * Locks the first page of the first bucket to read.
+         */
+        private void start() throws DbException, TransactionAbortedException {
+            header = (HashHeaderPage) lock(tid, 0, Permissions.READ_ONLY, acquired);
+            if (header.getNumBuckets() == 0) {
+                finish();
+                return;
+            }
+            if (key == null) {
+                bucket = 0;
+                lastBucket = header.getNumBuckets() - 1;
+            } else {
+                bucket = header.bucketFor(HashHeaderPage.hash(key));
+                lastBucket = bucket;
+            }
+            page = (HashBucketPage) lock(tid, header.getBucketPage(bucket), Permissions.READ_ONLY, acquired);
+            if (key != null) {
+                //the bucket cannot split while its first page is locked
+                unlock(tid, header, acquired);
+            }
+            tuples = page.getTuples().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open || done) {
+                return false;
+            }
+            if (next != null) {
+                return true;
+            }
+            if (tuples == null) {
+                start();
+            }
+            while (!done) {
+                while (tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (key == null || t.getField(keyField).equals(key)) {
+                        next = t;
+                        return true;
+                    }
+                }
+                int pageNo;
+                if (page.getOverflow() != 0) {
+                    pageNo = page.getOverflow();
+                } else if (bucket < lastBucket) {
+                    pageNo = header.getBucketPage(++bucket);
+                } else {
+                    finish();
+                    return false;
+                }
+                HashBucketPage nextPage = (HashBucketPage) lock(tid, pageNo, Permissions.READ_ONLY, acquired);
+                unlock(tid, page, acquired);
+                page = nextPage;
+                tuples = page.getTuples().iterator();
+            }
+            return false;
+        }
+
+        /**
+         * Releases the pages still locked, there are no more tuples.
+         */
+        private void finish() {
+            unlockAll(tid, acquired);
+            done = true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            unlockAll(tid, acquired);
+            header = null;
+            page = null;
+            tuples = null;
+            next = null;
+            done = false;
+        }
+
+        public void close() {
+            unlockAll(tid, acquired);
+            header = null;
+            page = null;
+            tuples = null;
+            next = null;
+            open = false;
+        }
+    }
+}
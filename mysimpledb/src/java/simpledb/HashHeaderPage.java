@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * HashHeaderPage is page 0 of a HashFile. It holds the state of the linear
+ * hashing scheme: the level, the next bucket to split, and the directory,
+ * i.e. the number of the first page of every bucket. A file with no buckets
+ * (an all-zero header page) is empty.
+ * <p/>
+ * There are 2^level + next buckets. A key goes to bucket
+ * <tt>hash mod 2^level</tt>, or <tt>hash mod 2^(level + 1)</tt> if that
+ * bucket is below next, i.e. has been split in this round. Splitting bucket
+ * next adds bucket next + 2^level; when every bucket of the round has been
+ * split, the level goes up and next starts from 0 again.
+ * <p/>
+ * The directory is stored on this page, which limits the number of buckets
+ * to {@link #maxBuckets()}; after that, buckets only grow longer chains.
+ *
+ * @see HashFile
+ */
+public class HashHeaderPage extends HashPage {
+
+    private static final int HEADER_SIZE = 13;
+
+    private int level;
+    private int next;
+    private final ArrayList<Integer> buckets = new ArrayList<Integer>();
+
+    /**
+     * Create a header page from its bytes; an all-zero page is the header
+     * of an empty file.
+     */
+    public HashHeaderPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get(0) != HEADER) {
+            throw new IOException("not a hash header page");
+        }
+        level = buf.getInt(1);
+        next = buf.getInt(5);
+        int n = buf.getInt(9);
+        for (int i = 0; i < n; i++) {
+            buckets.add(buf.getInt(HEADER_SIZE + 4 * i));
+        }
+    }
+
+    /**
+     * @return the number of buckets whose first page number fits on the
+     * header page
+     */
+    static int maxBuckets() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    /**
+     * Mixes the bits of the hash code of key (the finalizer of MurmurHash3),
+     * so that the low bits the buckets are chosen by depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public int getNumBuckets() {
+        return buckets.size();
+    }
+
+    /**
+     * @return the number of the first page of bucket i
+     */
+    public int getBucketPage(int i) {
+        return buckets.get(i);
+    }
+
+    /**
+     * @return the bucket the tuples with a key of the given hash belong to
+     */
+    public int bucketFor(int hash) {
+        int b = hash & ((1 << level) - 1);
+        if (b < next) {
+            b = hash & ((1 << (level + 1)) - 1);
+        }
+        return b;
+    }
+
+    /**
+     * @return the bucket that splits next
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * @return true if there is room in the directory for another bucket
+     */
+    public boolean canSplit() {
+        return buckets.size() < maxBuckets();
+    }
+
+    /**
+     * Makes pageNo the first page of the only bucket of an empty file.
+     */
+    public void setFirstBucket(int pageNo) {
+        if (!buckets.isEmpty()) {
+            throw new IllegalStateException("the file already has buckets");
+        }
+        buckets.add(pageNo);
+    }
+
+    /**
+     * Splits bucket {@link #getNext()}: adds the bucket starting at page
+     * pageNo, which gets the keys of that bucket that now hash to it, and
+     * moves on to the next bucket.
+     */
+    public void split(int pageNo) {
+        if (!canSplit()) {
+            throw new IllegalStateException("no room for another bucket");
+        }
+        buckets.add(pageNo);
+        next++;
+        if (next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(0, HEADER);
+        buf.putInt(1, level);
+        buf.putInt(5, next);
+        buf.putInt(9, buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            buf.putInt(HEADER_SIZE + 4 * i, buckets.get(i));
+        }
+        return buf.array();
+    }
+
+    public HashHeaderPage getBeforeImage() {
+        try {
+            return new HashHeaderPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * HashPage is the base class of the pages of a HashFile. The first byte of
+ * every page says what kind of page it is, so that HashFile.readPage can
+ * decode it: the header page (always page 0) and bucket pages. The pages
+ * decode their contents when they are read, and encode them again in
+ * getPageData.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    static final byte HEADER = 0;
+    static final byte BUCKET = 1;
+
+    protected final HashPageId pid;
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    //the bytes of the page when it was read or last committed
+    private byte[] oldData;
+
+    /**
+     * Keeps data as the before-image, so it must not be changed by the
+     * caller.
+     */
+    protected HashPage(HashPageId pid, byte[] data) throws IOException {
+        if (data.length != BufferPool.getPageSize()) {
+            throw new IOException("page of " + data.length + " bytes, expected " + BufferPool.getPageSize());
+        }
+        this.pid = pid;
+        this.oldData = data;
+    }
+
+    /**
+     * @return the HashFile that page pid belongs to, from the Catalog
+     */
+    static HashFile file(HashPageId pid) {
+        return (HashFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+    }
+
+    /**
+     * Returns the field of type type stored at offset in buf.
+     */
+    static Field parse(Type type, ByteBuffer buf, int offset) {
+        try {
+            return type.parse(buf, offset);
+        } catch (ParseException e) {
+            throw new RuntimeException("cannot parse hash page", e);
+        }
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyTid : null;
+    }
+
+    /**
+     * @return the bytes of the page before the changes since it was read or
+     * since setBeforeImage()
+     */
+    protected byte[] getBeforeImageData() {
+        return oldData;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
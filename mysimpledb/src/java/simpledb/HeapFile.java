@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -8,7 +12,15 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Subclasses can store their tuples in another page format by
+ * overriding {@link #createPage(HeapPageId, ByteBuffer)}, see SlottedFile.
+ * <p/>
+ * A HeapFile written by HeapFileEncoder.convertSorted holds its tuples
+ * sorted on one field, the sort field, page after page. Scans with a
+ * predicate on that field then start at the first page that can hold a
+ * matching tuple and stop after the last one, see
+ * {@link #iterator(TransactionId, int[], Predicate)}. Inserts would break
+ * the order, so such a file only takes deletes.
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
@@ -18,6 +30,56 @@ public class HeapFile implements DbFile {
 	private File f;
 	private final TupleDesc td;
 	private final int tableId;
+	private final PageChannel channel;
+	
+	//memory-mapped mode, see setMemoryMapped()
+	private volatile boolean mapped = false;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	
+	//pages read from the mapping, by page number, see unmapPages()
+	private final HashMap<Integer,ArrayList<WeakReference<HeapPage>>> mappedPages = 
+			new HashMap<Integer,ArrayList<WeakReference<HeapPage>>>();	//guarded by itself
+	
+	/**
+	 * Number of pages mapped by one segment in memory-mapped mode (a single
+	 * mapping cannot exceed 2GB).
+	 */
+	private static final int SEGMENT_PAGES = 16384;
+	
+	/*
+	 * Free space map: a set bit means the page was found full by an insert
+	 * and is skipped by later inserts of records as long, until a tuple is
+	 * deleted from it. noRoom holds the length of the shortest record the
+	 * page had no room for: shorter records of variable length may still
+	 * fit. Pages whose bit is clear may have room. The map is built lazily
+	 * in memory, so the first insert into a file visits each full page once.
+	 */
+	private final BitSet fullPages = new BitSet();	//guarded by itself
+	private int[] noRoom = new int[0];				//guarded by fullPages
+	private int longestNoRoom = 0;					//guarded by fullPages
+	
+	//min and max of INT fields of each page, see iterator(tid, columns, predicate)
+	private final ZoneMap zones;
+	
+	//the field the tuples are sorted on, -1 if they are in no order
+	private final int sortField;
+	
+	/**
+	 * Default number of pages the file grows by when it runs out of pages.
+	 */
+	public static final int DEFAULT_EXTENT_PAGES = 64;
+	
+	private volatile int extentPages = DEFAULT_EXTENT_PAGES;
+	
+	//pages in use, -1 until counted (see numPages()), and pages that exist
+	//in the file, including the preallocated unused ones at its end
+	private volatile int numPages = -1;
+	private int allocatedPages;		//guarded by this
+	
+	//while preallocated pages are unused, the last of them starts with
+	//TAIL_MAGIC and the number of pages in use, see countPages()
+	private static final long TAIL_MAGIC = 0x5344425041474553L;
+	private static final int TAIL_SIZE = 12;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +88,35 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, -1);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose tuples are
+     * sorted on field sortField in ascending order, e.g. by
+     * HeapFileEncoder.convertSorted.
+     *
+     * @param sortField the field the tuples are sorted on, or -1 if they are
+     *                  in no particular order
+     */
+    public HeapFile(File f, TupleDesc td, int sortField) {
+        if(sortField<-1 || sortField>=td.numFields()){
+        	throw new IllegalArgumentException("no field " + sortField + " in " + td);
+        }
         this.f=f;
+        this.channel = new PageChannel(f);
         this.td=td;
         this.tableId=f.getAbsoluteFile().hashCode();
+        this.zones=new ZoneMap(td);
+        this.sortField=sortField;
+    }
+
+    /**
+     * @return the field the tuples of this file are sorted on, or -1 if they
+     * are in no particular order
+     */
+    public int getSortField() {
+    	return sortField;
     }
 
     /**
@@ -62,98 +150,430 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Turns the memory-mapped read path on or off. In memory-mapped mode,
+     * readPage() decodes pages directly out of a read-only mapping of the
+     * file rather than reading them into a new array first, so the operating
+     * system's page cache acts as a second level buffer pool without copies
+     * or system calls. Meant for read-mostly tables; writes still go through
+     * the file channel, and are visible through the mapping.
+     */
+    public void setMemoryMapped(boolean mapped) {
+    	this.mapped = mapped;
+    }
+
+    /**
+     * @return true if pages are read from a mapping of the file
+     */
+    public boolean isMemoryMapped() {
+    	return mapped;
+    }
+
+    /**
+     * Returns the bytes of page pageNo in the mapping of the file, or null
+     * if the file does not contain the whole page.
+     */
+    private ByteBuffer mappedPage(int pageNo) throws IOException {
+    	int pageSize = BufferPool.getPageSize();
+    	int seg = pageNo / SEGMENT_PAGES;
+    	int start = (pageNo % SEGMENT_PAGES) * pageSize;
+    	MappedByteBuffer[] segs = segments;
+    	MappedByteBuffer m = seg<segs.length ? segs[seg] : null;
+    	if(m==null || m.capacity()<start+pageSize){
+    		//not mapped yet, or the file grew since the segment was mapped
+    		m = mapSegment(seg, start+pageSize);
+    		if(m==null){
+    			return null;
+    		}
+    	}
+    	ByteBuffer view = m.duplicate();
+    	view.limit(start+pageSize);
+    	view.position(start);
+    	return view.slice();
+    }
+
+    /**
+     * (Re)maps segment seg of the file if it is shorter than minLength bytes.
+     *
+     * @return the mapping, or null if the file is shorter than minLength
+     */
+    private synchronized MappedByteBuffer mapSegment(int seg, int minLength) throws IOException {
+    	MappedByteBuffer[] segs = segments;
+    	if(seg<segs.length && segs[seg]!=null && segs[seg].capacity()>=minLength){
+    		return segs[seg];
+    	}
+    	long segBytes = (long)SEGMENT_PAGES * BufferPool.getPageSize();
+    	long start = seg * segBytes;
+    	long length = Math.min(segBytes, channel.get().size()-start);
+    	if(length<minLength){
+    		return null;
+    	}
+    	MappedByteBuffer m = channel.get().map(FileChannel.MapMode.READ_ONLY, start, length);
+    	if(seg>=segs.length){
+    		segs = Arrays.copyOf(segs, seg+1);
+    	}else{
+    		segs = segs.clone();
+    	}
+    	segs[seg] = m;
+    	segments = segs;
+    	return m;
+    }
+
+    /**
+     * Remembers a page that reads its tuples from the mapping.
+     */
+    private void registerMapped(HeapPage page) {
+    	synchronized(mappedPages){
+    		ArrayList<WeakReference<HeapPage>> refs = mappedPages.get(page.getId().pageNumber());
+    		if(refs==null){
+    			refs = new ArrayList<WeakReference<HeapPage>>();
+    			mappedPages.put(page.getId().pageNumber(), refs);
+    		}
+    		Iterator<WeakReference<HeapPage>> it = refs.iterator();
+    		while(it.hasNext()){
+    			if(it.next().get()==null){
+    				it.remove();
+    			}
+    		}
+    		refs.add(new WeakReference<HeapPage>(page));
+    	}
+    }
+
+    /**
+     * Pages read from the mapping decode their tuples lazily from the mapped
+     * bytes, so before page pageNo is overwritten, every such page still in
+     * use (e.g. by tuples a query holds on to) gets a copy of the old bytes.
+     */
+    private void unmapPages(int pageNo) {
+    	ArrayList<WeakReference<HeapPage>> refs;
+    	synchronized(mappedPages){
+    		refs = mappedPages.remove(pageNo);
+    	}
+    	if(refs!=null){
+    		for(WeakReference<HeapPage> ref : refs){
+    			HeapPage page = ref.get();
+    			if(page!=null){
+    				page.unmap();
+    			}
+    		}
+    	}
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {   
         int pageSize = BufferPool.getPageSize();
-        int offset = pid.pageNumber() * pageSize;
+        long offset = (long)pid.pageNumber() * pageSize;
+        
+        if(mapped){
+        	try{
+        		ByteBuffer view = mappedPage(pid.pageNumber());
+        		if(view!=null){
+        			TuplePage page = createPage((HeapPageId)pid,view);
+        			if(page instanceof HeapPage){
+        				registerMapped((HeapPage)page);
+        			}
+        			widenZones(page);
+        			return page;
+        		}
+        		//past the end of the file, read it like in normal mode
+        	}catch(IOException e){
+        		return null;
+        	}
+        }
 
-        //byte array to temporarily store data from input stream
         byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
         
-        //open the file and return page
-        try{        	
-        	FileInputStream input = new FileInputStream(f);
-        	BufferedInputStream buffInput = new BufferedInputStream(input);
-        	buffInput.skip(offset);
-        	buffInput.read(data);
-        	Page result = new HeapPage((HeapPageId)pid,data);
-        	buffInput.close();
-        	return result;
+        try{
+        	//the rest of a page past the end of the file stays zero, i.e. empty
+        	channel.readFully(buf, offset);
+        	TuplePage page = createPage((HeapPageId)pid,ByteBuffer.wrap(data));
+        	widenZones(page);
+        	return page;
         }catch(IOException e){        	
         	return null;
         }
     }
 
+    /**
+     * Widens the zone map summaries of page p, if it has any, to cover its
+     * tuples: a page read or written back after an aborted change can hold
+     * tuples that were not on the page the summaries were taken from.
+     */
+    private void widenZones(TuplePage p) {
+    	int pageNo = p.getId().pageNumber();
+    	if(zones.isKnown(pageNo)){
+    		zones.addAll(pageNo, p.iterator());
+    	}
+    }
+
+    /**
+     * Creates the page pid of this file from its bytes, between the position
+     * and the limit of data. In memory-mapped mode data is a view of the
+     * mapping, so pages that keep it must be HeapPages, which HeapFile
+     * unmaps before it writes their part of the file; other pages have to
+     * copy it.
+     */
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    	return new HeapPage(pid,data);
+    }
+
     public void writePage(Page page) throws IOException {
-        int offset =  page.getId().pageNumber() * BufferPool.getPageSize();
+    	int pageNo = page.getId().pageNumber();
+        long offset = (long)pageNo * BufferPool.getPageSize();
         byte[] data = page.getPageData();
         if(data.length<=BufferPool.getPageSize()){
+        	numPages();		//count the pages before the file grows
+        	unmapPages(pageNo);
+	        if(page instanceof TuplePage){
+	        	widenZones((TuplePage)page);
+	        }
 	        try{
-		        RandomAccessFile file = new RandomAccessFile(f,"rw");
-		        file.seek((long)offset);
-		        file.write(data);
-		        file.close();
+	        	channel.writeFully(ByteBuffer.wrap(data), offset);
 	        }catch(IOException e){
 	        	throw new IOException("cannot write page");
 	        }
+	        if(pageNo>=numPages){
+	        	//e.g. recovery redoing a page that was never counted
+	        	synchronized(this){
+	        		if(pageNo>=numPages){
+	        			if(pageNo>=allocatedPages && allocatedPages>numPages){
+	        				//the tail page would be left inside the file
+	        				channel.writeFully(ByteBuffer.allocate(BufferPool.getPageSize()),
+	        						(long)(allocatedPages-1)*BufferPool.getPageSize());
+	        			}
+	        			allocatedPages = Math.max(allocatedPages, pageNo+1);
+	        			numPages = pageNo+1;
+	        			writeTail();
+	        		}
+	        	}
+	        }
         }
     }
-
+    
     /**
      * Returns the number of pages in this HeapFile.
+     * <p/>
+     * The count is kept in memory. It is taken from the file length the
+     * first time it is needed, not counting the unused pages of the last
+     * preallocated extent, see {@link #setExtentPages}.
      */
     public int numPages() {
-        long fileSize = f.length();
-        int pageSize = BufferPool.getPageSize();
-        return (int)fileSize/pageSize;
+    	int n = numPages;
+    	if(n<0){
+    		n = countPages();
+    	}
+    	return n;
+    }
+
+    /**
+     * Counts the pages of the file when it is opened: all of them, unless
+     * its last page is the tail page of a preallocated extent, which
+     * records how many pages are in use. Empty pages in use, e.g. ones
+     * emptied by deletes, are counted either way.
+     */
+    private synchronized int countPages() {
+    	if(numPages>=0){
+    		return numPages;
+    	}
+    	int pageSize = BufferPool.getPageSize();
+    	int physical = (int)(f.length()/pageSize);
+    	int n = physical;
+    	if(physical>0){
+    		try{
+    			ByteBuffer buf = ByteBuffer.allocate(pageSize);
+    			channel.readFully(buf, (long)(physical-1)*pageSize);
+    			n = tailCount(buf, physical);
+    		}catch(IOException e){
+    			n = physical;
+    		}
+    	}
+    	allocatedPages = physical;
+    	numPages = n;
+    	return n;
+    }
+
+    /**
+     * @return the number of pages in use that tail page buf records, or
+     *         physical if buf is not a tail page
+     */
+    private static int tailCount(ByteBuffer buf, int physical) {
+    	if(buf.position()<buf.capacity() || buf.getLong(0)!=TAIL_MAGIC){
+    		return physical;
+    	}
+    	int n = buf.getInt(8);
+    	if(n<0 || n>=physical){
+    		return physical;
+    	}
+    	byte[] data = buf.array();
+    	for(int i=TAIL_SIZE;i<data.length;i++){
+    		if(data[i]!=0){
+    			return physical;
+    		}
+    	}
+    	return n;
+    }
+
+    /**
+     * Records numPages in the tail page, if there are unused preallocated
+     * pages; the last of them is the tail page. A small write for each
+     * page taken from the extent, so that reopening the file finds the
+     * count.
+     */
+    private void writeTail() throws IOException {
+    	if(allocatedPages>numPages){
+    		ByteBuffer tail = ByteBuffer.allocate(TAIL_SIZE);
+    		tail.putLong(TAIL_MAGIC).putInt(numPages).flip();
+    		channel.writeFully(tail, (long)(allocatedPages-1)*BufferPool.getPageSize());
+    	}
+    }
+
+    /**
+     * Sets the number of pages the file grows by when an insert finds no
+     * page with room: a new page is taken from the end of the file if the
+     * last extent has unused pages left, otherwise extentPages empty pages
+     * are appended with a single write. The last unused page records how
+     * many pages are in use, so that the unused ones are not counted when
+     * the file is opened again.
+     */
+    public void setExtentPages(int extentPages) {
+    	if(extentPages<1){
+    		throw new IllegalArgumentException("extents must have at least one page");
+    	}
+    	this.extentPages = extentPages;
+    }
+
+    /**
+     * Hands out the next unused page at the end of the file, growing the
+     * file by an extent if there is none left.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocatePage() throws IOException {
+    	int pageNo = numPages();
+    	int pageSize = BufferPool.getPageSize();
+    	if(pageNo>=allocatedPages){
+    		int extent = extentPages;
+    		channel.writeFully(ByteBuffer.allocate(extent*pageSize), (long)allocatedPages*pageSize);
+    		allocatedPages += extent;
+    	}else if(pageNo==allocatedPages-1){
+    		//the tail page is handed out, as an empty page
+    		channel.writeFully(ByteBuffer.allocate(pageSize), (long)pageNo*pageSize);
+    	}
+    	numPages = pageNo+1;
+    	writeTail();
+    	zones.clear(pageNo);
+    	return pageNo;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+    	if(sortField>=0){
+    		throw new DbException("table is sorted on " + td.getFieldName(sortField)
+    				+ ", convert it again to add tuples");
+    	}
+    	if(lockRecords(tid)){
+    		return insertRecord(tid, t);
+    	}
     	ArrayList<Page> result = new ArrayList<Page>(); //arraylist to return
     	BufferPool buffer = Database.getBufferPool();
     	HeapPageId pid = null;
-    	HeapPage p = null;
+    	TuplePage p = null;
     	
-    	//go through pages and find empty slot
-        for(int i=0;i<numPages();i++){
+    	//go through the pages that may have room and find empty slot
+    	int len = recordLength(t);
+        for(int i=nextFreePage(0, len);i<numPages();i=nextFreePage(i+1, len)){
         	pid = new HeapPageId(tableId,i);
-        	p = (HeapPage)buffer.getPage(tid, pid, Permissions.READ_ONLY);
+        	boolean held = buffer.holdsLock(tid, pid);
+        	p = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_ONLY);
         	
         	//if the page has space, insert tuple
-        	if(p.getNumEmptySlots()!=0){
+        	if(p.hasRoomFor(t)){
 	        	//upgrade permission
-        		p = (HeapPage)buffer.getPage(tid, pid, Permissions.READ_WRITE);
-        		p.insertTuple(t);        		
-	        	result.add(p);  
-	        	return result;
+        		p = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_WRITE);
+        		//another transaction may have filled the page while we waited
+        		if(p.hasRoomFor(t)){
+	        		p.insertTuple(t);        		
+	        		zones.add(i, t);
+		        	result.add(p);  
+		        	return result;
+        		}
         	}
-	        //release lock if we just acquired the lock
-        	if(buffer.numTransactions(pid)==1){
+        	markFull(i, len);
+	        //release the lock if we only took it to look for room
+        	if(!held){
         		buffer.releasePage(tid, pid);        	
         	}
         }
-        synchronized(this){
-		    //if there aren't any pages with space create a new page
-		    byte[] newPageData = HeapPage.createEmptyPageData();
-		    HeapPageId newPid = new HeapPageId(tableId,numPages());
-		    
-		    //write the page to disk
-		    try{ 
-		    	OutputStream output = new BufferedOutputStream(new FileOutputStream(f,true));
-			    output.write(newPageData);
-			    output.flush();
-			    output.close();			    
-		    } catch(IOException e){
-		     	throw new IOException("cannot add new page");
-		    }  		    
-		    //insert tuple to the new page
-		    p = (HeapPage)buffer.getPage(tid, newPid, Permissions.READ_WRITE);
-		    p.insertTuple(t); 
-		    result.add(p);
-		    return result;
-        }
+        //if there aren't any pages with space, take a new (empty) page
+        HeapPageId newPid;
+	    try{ 
+	    	newPid = new HeapPageId(tableId,allocatePage());
+	    } catch(IOException e){
+	     	throw new IOException("cannot add new page");
+	    }  		    
+	    //insert tuple to the new page
+	    p = (TuplePage)buffer.getPage(tid, newPid, Permissions.READ_WRITE);
+	    p.insertTuple(t); 
+	    zones.add(newPid.pageNumber(), t);
+	    result.add(p);
+	    return result;
+    }
+
+    /**
+     * Inserts t under record locking: into the first page with a free slot
+     * that tid can lock, see {@link BufferPool#insertRecord}, or into a new
+     * page.
+     */
+    private ArrayList<Page> insertRecord(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+    	ArrayList<Page> result = new ArrayList<Page>();
+    	BufferPool buffer = Database.getBufferPool();
+    	int len = recordLength(t);
+    	int i = nextFreePage(0, len);
+    	while(true){
+    		//another transaction may take the free slots of a new page first
+    		if(i>=numPages()){
+    			try{
+    				i = allocatePage();
+    			}catch(IOException e){
+    				throw new IOException("cannot add new page");
+    			}
+    		}
+    		HeapPageId pid = new HeapPageId(tableId,i);
+    		boolean held = buffer.holdsLock(tid, pid);
+    		HeapPage p = buffer.getRecordPage(tid, pid);
+    		if(buffer.insertRecord(tid, p, t)){
+    			zones.add(i, t);
+    			result.add(p);
+    			return result;
+    		}
+    		//free slots locked by uncommitted deletes are not counted as full
+    		if(!p.hasRoomFor(t)){
+    			markFull(i, len);
+    		}
+    		if(!held){
+    			buffer.releasePage(tid, pid);
+    		}
+    		i = nextFreePage(i+1, len);
+    	}
+    }
+
+    /**
+     * @return true if tid inserts and deletes tuples of this file under
+     * record locks, see {@link BufferPool#setRecordLocking(boolean)}
+     */
+    private boolean lockRecords(TransactionId tid) {
+    	return tid!=null && storesHeapPages() && Database.getBufferPool().isRecordLocking();
+    }
+
+    /**
+     * @return true if the pages of this file are HeapPages, which
+     * BufferPool can lock the records of
+     */
+    protected boolean storesHeapPages() {
+    	return true;
     }
 
     // see DbFile.java for javadocs
@@ -163,31 +583,641 @@ public class HeapFile implements DbFile {
         RecordId rid = t.getRecordId();
         PageId pid = rid.getPageId();
         BufferPool buffer = Database.getBufferPool();
-        HeapPage p = (HeapPage)buffer.getPage(tid, pid, Permissions.READ_WRITE);
-        p.deleteTuple(t);
+        TuplePage p;
+        if(lockRecords(tid)){
+        	p = buffer.deleteRecord(tid, t);
+        }else{
+        	p = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_WRITE);
+        	p.deleteTuple(t);
+        }
+        clearFull(pid.pageNumber());
         result.add(p);        
         return result;
     }
 
+    /**
+     * @return the first page at or after page from that is not known to be
+     * full, or numPages() if there is none
+     */
+    private int nextFreePage(int from) {
+    	synchronized(fullPages){
+    		return fullPages.nextClearBit(from);
+    	}
+    }
+
+    /**
+     * @return the first page at or after page from that is not known to
+     * lack room for a record of len bytes, or numPages() if there is none
+     */
+    private int nextFreePage(int from, int len) {
+    	synchronized(fullPages){
+    		int free = fullPages.nextClearBit(from);
+    		if(len<longestNoRoom){
+    			//a full page before it may have room for a shorter record
+    			for(int i=fullPages.nextSetBit(from);i>=0 && i<free;i=fullPages.nextSetBit(i+1)){
+    				if(len<noRoom[i]){
+    					return i;
+    				}
+    			}
+    		}
+    		return free;
+    	}
+    }
+
+    /**
+     * Records in the free space map that page pageNo has no room for a
+     * record of len bytes, see {@link #recordLength(Tuple)}.
+     */
+    private void markFull(int pageNo, int len) {
+    	synchronized(fullPages){
+    		if(pageNo>=noRoom.length){
+    			noRoom = Arrays.copyOf(noRoom, Math.max(pageNo+1, noRoom.length*2));
+    		}
+    		if(!fullPages.get(pageNo) || len<noRoom[pageNo]){
+    			noRoom[pageNo] = len;
+    		}
+    		fullPages.set(pageNo);
+    		longestNoRoom = Math.max(longestNoRoom, noRoom[pageNo]);
+    	}
+    }
+
+    /**
+     * Records in the free space map that page pageNo may have room again,
+     * e.g. because a tuple was deleted from it or the inserts that filled
+     * it were aborted.
+     */
+    void clearFull(int pageNo) {
+    	synchronized(fullPages){
+    		fullPages.clear(pageNo);
+    	}
+    }
+
+    /**
+     * @return the number of bytes t takes on a page of this file; pages
+     * with no room for a record have no room for longer ones either
+     */
+    protected int recordLength(Tuple t) {
+    	return td.getSize();
+    }
+
+    /**
+     * Appends the lines of inFile to this file as tuples, see BulkLoader:
+     * the lines are parsed by parallelism threads and written as full pages
+     * after the last page of the file, bypassing the buffer pool. The pages
+     * are forced to disk before they become part of the file, all at once
+     * when the load is done; scans see none of them until then. Inserts that
+     * need a new page wait for the load. The load is not a transaction: it
+     * cannot be rolled back, and a crash during the load can leave part of
+     * the pages in the file.
+     *
+     * @return the number of tuples added
+     * @throws DbException if this file does not store HeapPages or is sorted
+     */
+    public long copyFrom(File inFile, char fieldSeparator, int parallelism)
+    		throws DbException, IOException {
+    	int pageSize = BufferPool.getPageSize();
+    	if(sortField>=0){
+    		throw new DbException("table is sorted on " + td.getFieldName(sortField)
+    				+ ", convert it again to add tuples");
+    	}
+    	if(!(createPage(new HeapPageId(tableId,0), ByteBuffer.allocate(pageSize)) instanceof HeapPage)){
+    		throw new DbException("can only load into files of HeapPages");
+    	}
+    	Type[] types = new Type[td.numFields()];
+    	for(int i=0;i<types.length;i++){
+    		types[i] = td.getFieldType(i);
+    	}
+    	BulkLoader loader = new BulkLoader(types, fieldSeparator, pageSize, parallelism);
+    	synchronized(this){
+    		//pages from start on are unused, allocatePage() waits for the monitor
+    		int start = numPages();
+    		long n = loader.load(inFile, channel.get(), (long)start*pageSize);
+    		channel.get().force(false);
+    		int end = start + loader.numPages(n);
+    		for(int i=start;i<end;i++){
+    			unmapPages(i);
+    			zones.clear(i);
+    		}
+    		//pages written up to or past the tail page have replaced it
+    		allocatedPages = Math.max(allocatedPages, end);
+    		numPages = end;
+    		writeTail();
+    		return n;
+    	}
+    }
+
+    /**
+     * Compacts this file and returns the pages it no longer needs to the
+     * file system: {@link #compact} moves the tuples in one transaction,
+     * {@link #truncate} cuts off the pages that were left empty in another.
+     * Other transactions can keep using the file meanwhile, they wait for
+     * the page locks like for any other writer.
+     *
+     * @return the number of pages the file shrank by
+     */
+    public int vacuum() throws DbException, IOException, TransactionAbortedException {
+    	Transaction t = new Transaction();
+    	t.start();
+    	boolean done = false;
+    	try{
+    		compact(t.getId());
+    		done = true;
+    	}finally{
+    		t.transactionComplete(!done);
+    	}
+    	//the empty pages can only go once the moves are committed: an abort
+    	//would need their tuples back
+    	t = new Transaction();
+    	t.start();
+    	done = false;
+    	int freed;
+    	try{
+    		freed = truncate(t.getId());
+    		done = true;
+    	}finally{
+    		t.transactionComplete(!done);
+    	}
+    	return freed;
+    }
+
+    /**
+     * Moves the tuples at the end of the file into the room that deletes
+     * left in earlier pages, so that the last pages end up empty, see
+     * {@link #truncate}. The moves are updates of transaction tid on pages
+     * it write-locks, so they are logged and undone like any other. Moved
+     * tuples get the RecordId of their new slot.
+     * <p/>
+     * A sorted file keeps its order: its tuples slide towards the start of
+     * the file, each page filled up with the tuples that follow it.
+     *
+     * @return the number of tuples moved
+     */
+    public int compact(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+    	if(sortField>=0){
+    		return slideTuples(tid);
+    	}
+    	BufferPool buffer = Database.getBufferPool();
+    	int moved = 0;
+    	int low = nextFreePage(0);
+    	TuplePage dst = null;	//page low, write-locked
+    	for(int high=numPages()-1;high>low;high--){
+    		TuplePage src = (TuplePage)buffer.getPage(tid, new HeapPageId(tableId,high), Permissions.READ_WRITE);
+    		for(Tuple t : tuplesOf(src)){
+    			Tuple copy = copyOf(t);
+    			//the first page before high with room for the tuple
+    			if(dst!=null && !dst.hasRoomFor(copy)){
+    				markFull(low, recordLength(copy));
+    				dst = null;
+    				low = nextFreePage(low+1, recordLength(copy));
+    			}
+    			while(low<high && dst==null){
+    				HeapPageId pid = new HeapPageId(tableId,low);
+    				boolean held = buffer.holdsLock(tid, pid);
+    				TuplePage p = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_ONLY);
+    				if(p.hasRoomFor(copy)){
+    					dst = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_WRITE);
+    				}
+    				if(dst==null || !dst.hasRoomFor(copy)){
+    					dst = null;
+    					markFull(low, recordLength(copy));
+    					if(!held){
+    						buffer.releasePage(tid, pid);
+    					}
+    					low = nextFreePage(low+1, recordLength(copy));
+    				}
+    			}
+    			if(dst==null){
+    				//the pages before high are full
+    				return moved;
+    			}
+    			src.deleteTuple(t);
+    			dst.insertTuple(copy);
+    			zones.add(low, copy);
+    			src.markDirty(true, tid);
+    			dst.markDirty(true, tid);
+    			moved++;
+    		}
+    		clearFull(high);
+    	}
+    	return moved;
+    }
+
+    /**
+     * Compacts a sorted file: every page takes its own tuples to its first
+     * slots, then as many of the following tuples as it has room for.
+     *
+     * @return the number of tuples moved
+     */
+    private int slideTuples(TransactionId tid) throws DbException, TransactionAbortedException {
+    	BufferPool buffer = Database.getBufferPool();
+    	int n = numPages();
+    	int moved = 0;
+    	int from = 1;	//the first page that may hold tuples to pull forward
+    	for(int to=0;to<n && from<n;to++){
+    		from = Math.max(from, to+1);
+    		TuplePage dst = (TuplePage)buffer.getPage(tid, new HeapPageId(tableId,to), Permissions.READ_WRITE);
+    		ArrayList<Tuple> own = tuplesOf(dst);
+    		boolean packed = true;
+    		for(int i=0;i<own.size();i++){
+    			packed &= own.get(i).getRecordId().tupleno()==i;
+    		}
+    		if(!packed){
+    			//reinserted in order, the tuples take the first free slots
+    			ArrayList<Tuple> copies = new ArrayList<Tuple>();
+    			for(Tuple t : own){
+    				copies.add(copyOf(t));
+    				dst.deleteTuple(t);
+    			}
+    			for(Tuple copy : copies){
+    				dst.insertTuple(copy);
+    			}
+    			dst.markDirty(true, tid);
+    			moved += own.size();
+    		}
+    		boolean full = false;
+    		while(from<n && !full){
+    			TuplePage src = (TuplePage)buffer.getPage(tid, new HeapPageId(tableId,from), Permissions.READ_WRITE);
+    			for(Tuple t : tuplesOf(src)){
+    				Tuple copy = copyOf(t);
+    				if(!dst.hasRoomFor(copy)){
+    					full = true;
+    					break;
+    				}
+    				src.deleteTuple(t);
+    				dst.insertTuple(copy);
+    				zones.add(to, copy);
+    				src.markDirty(true, tid);
+    				dst.markDirty(true, tid);
+    				moved++;
+    			}
+    			if(!full){
+    				from++;
+    			}
+    		}
+    	}
+    	return moved;
+    }
+
+    /**
+     * Removes the empty pages at the end of the file, as left by
+     * {@link #compact}, from the buffer pool and the file. Transaction tid
+     * write-locks the pages it removes, and stops at the last page that
+     * holds tuples or that it changed itself, whose changes an abort would
+     * have to undo. Run it in a transaction after the one that compacted.
+     *
+     * @return the number of pages removed
+     */
+    public int truncate(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+    	BufferPool buffer = Database.getBufferPool();
+    	int n = numPages();
+    	int keep = n;
+    	while(keep>0){
+    		TuplePage p = (TuplePage)buffer.getPage(tid, new HeapPageId(tableId,keep-1), Permissions.READ_WRITE);
+    		if(p.iterator().hasNext() || tid.equals(p.isDirty())){
+    			break;
+    		}
+    		keep--;
+    	}
+    	if(keep==n){
+    		return 0;
+    	}
+    	//the buffer pool's monitor first, like a page write does
+    	synchronized(buffer){
+    		synchronized(this){
+    			if(numPages!=n){
+    				//an insert took a new page meanwhile
+    				return 0;
+    			}
+    			for(int i=keep;i<n;i++){
+    				//the pages may be dirty from committed transactions, but
+    				//they are empty and never written again
+    				buffer.discardPage(new HeapPageId(tableId,i));
+    				unmapPages(i);
+    				zones.clear(i);
+    			}
+    			//the mappings must not reach past the end of the file
+    			segments = new MappedByteBuffer[0];
+    			channel.get().truncate((long)keep*BufferPool.getPageSize());
+    			allocatedPages = keep;
+    			numPages = keep;
+    		}
+    	}
+    	synchronized(fullPages){
+    		fullPages.clear(keep, Math.max(keep, fullPages.length()));
+    	}
+    	return n-keep;
+    }
+
+    /**
+     * @return the tuples on page p, so that they can be moved while the
+     * list is iterated over
+     */
+    private static ArrayList<Tuple> tuplesOf(TuplePage p) {
+    	ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    	Iterator<Tuple> it = p.iterator();
+    	while(it.hasNext()){
+    		tuples.add(it.next());
+    	}
+    	return tuples;
+    }
+
+    /**
+     * @return a tuple with the fields of t, on no page
+     */
+    private Tuple copyOf(Tuple t) {
+    	Tuple copy = new Tuple(td);
+    	for(int i=0;i<td.numFields();i++){
+    		copy.setField(i, t.getField(i));
+    	}
+    	return copy;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-    	final TransactionId t = tid;    	
+    	//a file that fits in the buffer pool is worth caching as a whole
+    	boolean sequential = numPages() > Database.getBufferPool().getNumPages();
+    	return iterator(tid, sequential);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile.
+     * {@link #iterator(TransactionId)} marks the scan as sequential if the file
+     * is larger than the buffer pool.
+     *
+     * @param sequential true if the pages should be requested as sequential
+     *                   accesses, so that they are recycled through the buffer
+     *                   pool's ring instead of displacing other pages
+     * @see BufferPool#getPage(TransactionId, PageId, Permissions, boolean)
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean sequential) {
+    	return iterator(tid, sequential, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile that has
+     * only the given fields of each tuple, in the given order. The RecordIds
+     * of the returned tuples are those of the stored tuples, so they can be
+     * deleted. Scans that need few fields of a PaxFile read only those.
+     *
+     * @param columns the indexes of the fields to return
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+    	return iterator(tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile that
+     * satisfy predicate, with only the given fields if columns is not null.
+     * The field of the predicate is an index into the returned tuples.
+     * <p/>
+     * If it is an INT field, pages whose zone map shows that none of their
+     * tuples satisfies the predicate are skipped without being read, see
+     * {@link ZoneMap}; the pages that are read get a summary of the field
+     * for the next scans. On a file whose pages hold ranges of values (e.g.
+     * appended in order of time) a range predicate then reads few pages.
+     * <p/>
+     * If the file is sorted on the field of the predicate, the first scan
+     * already reads few pages: it looks for the first page that can hold a
+     * match with a binary search over the pages, and stops at the first
+     * tuple past the range.
+     *
+     * @param columns   the indexes of the fields to return, or null for all
+     * @param predicate the predicate the returned tuples satisfy, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate predicate) {
+    	boolean sequential = numPages() > Database.getBufferPool().getNumPages();
+    	return iterator(tid, sequential, columns, predicate);
+    }
+
+    /**
+     * @return the TupleDesc of tuples that have only the given fields of
+     * the tuples of this file
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+    	Type[] types = new Type[columns.length];
+    	String[] names = new String[columns.length];
+    	for(int c=0;c<columns.length;c++){
+    		types[c] = td.getFieldType(columns[c]);
+    		names[c] = td.getFieldName(columns[c]);
+    	}
+    	return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns an iterator over the tuples of page p, which have only the
+     * given fields (in the TupleDesc projected) if columns is not null.
+     * This projects whole tuples; PaxFile reads only the given fields.
+     */
+    protected Iterator<Tuple> pageIterator(TuplePage p, final int[] columns, final TupleDesc projected) {
+    	final Iterator<Tuple> it = p.iterator();
+    	if(columns==null){
+    		return it;
+    	}
+    	return new Iterator<Tuple>(){
+    		public boolean hasNext(){
+    			return it.hasNext();
+    		}
+    		public Tuple next(){
+    			Tuple full = it.next();
+    			Tuple t = new Tuple(projected);
+    			for(int c=0;c<columns.length;c++){
+    				t.setField(c, full.getField(columns[c]));
+    			}
+    			t.setRecordId(full.getRecordId());
+    			return t;
+    		}
+    		public void remove(){
+    			throw new UnsupportedOperationException();
+    		}
+    	};
+    }
+
+    /**
+     * @return true if the tuples after t, which are sorted on the field of
+     * p, cannot satisfy p either
+     */
+    private static boolean pastRange(Tuple t, Predicate p) {
+    	Field key = t.getField(p.getField());
+    	switch(p.getOp()){
+    	case EQUALS:
+    	case LESS_THAN_OR_EQ:
+    		return key.compare(Predicate.Op.GREATER_THAN, p.getOperand());
+    	case LESS_THAN:
+    		return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, p.getOperand());
+    	default:
+    		return false;
+    	}
+    }
+
+    /**
+     * Finds the first page that can hold a tuple satisfying p, whose field
+     * is the sort field, with a binary search over the pages: the first
+     * page whose last tuple is at or after the start of the range. Empty
+     * pages (left by deletes) count as the next page that is not empty.
+     *
+     * @return the page number, or 0 if p has no lower bound
+     */
+    private int firstPage(TransactionId tid, Predicate p, boolean sequential)
+    		throws DbException, TransactionAbortedException {
+    	Predicate.Op op = p.getOp();
+    	if(op!=Predicate.Op.EQUALS && op!=Predicate.Op.GREATER_THAN
+    			&& op!=Predicate.Op.GREATER_THAN_OR_EQ){
+    		return 0;
+    	}
+    	Predicate.Op before = op==Predicate.Op.GREATER_THAN
+    			? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+    	int lo = 0;
+    	int hi = numPages();
+    	while(lo<hi){
+    		int mid = (lo+hi)>>>1;
+    		Tuple last = null;
+    		int page = mid;
+    		for(;page<hi && last==null;page++){
+    			last = lastTuple(tid, page, sequential);
+    		}
+    		if(last==null){
+    			//pages mid to hi are empty
+    			hi = mid;
+    		}else if(last.getField(p.getField()).compare(before, p.getOperand())){
+    			lo = page;
+    		}else{
+    			hi = mid;
+    		}
+    	}
+    	return lo;
+    }
+
+    /**
+     * @return the last tuple of page pageNo, or null if it is empty
+     */
+    private Tuple lastTuple(TransactionId tid, int pageNo, boolean sequential)
+    		throws DbException, TransactionAbortedException {
+    	HeapPageId pid = new HeapPageId(tableId,pageNo);
+    	BufferPool buffer = Database.getBufferPool();
+    	boolean held = buffer.holdsLock(tid, pid);
+    	TuplePage p = (TuplePage)buffer.getPage(tid, pid, Permissions.READ_ONLY, sequential);
+    	Tuple last = null;
+    	Iterator<Tuple> it = p.iterator();
+    	while(it.hasNext()){
+    		last = it.next();
+    	}
+    	if(!held){
+    		buffer.releasePage(tid, pid);
+    	}
+    	return last;
+    }
+
+    /**
+     * @return an iterator over the tuples returned by it that satisfy p
+     */
+    private static Iterator<Tuple> filter(final Iterator<Tuple> it, final Predicate p) {
+    	return new Iterator<Tuple>(){
+    		private Tuple next = null;
+    		public boolean hasNext(){
+    			while(next==null && it.hasNext()){
+    				Tuple t = it.next();
+    				if(p.filter(t)){
+    					next = t;
+    				}
+    			}
+    			return next!=null;
+    		}
+    		public Tuple next(){
+    			if(!hasNext()){
+    				throw new NoSuchElementException();
+    			}
+    			Tuple t = next;
+    			next = null;
+    			return t;
+    		}
+    		public void remove(){
+    			throw new UnsupportedOperationException();
+    		}
+    	};
+    }
+
+    private DbFileIterator iterator(TransactionId tid, final boolean sequential, final int[] columns,
+    		final Predicate predicate) {
+    	final TransactionId t = tid;
+    	final TupleDesc projected = columns==null ? null : getTupleDesc(columns);
+    	//the predicate on the fields of the file, for the zone map
+    	final Predicate pagePredicate = predicate==null ? null : new Predicate(
+    			columns==null ? predicate.getField() : columns[predicate.getField()],
+    			predicate.getOp(), predicate.getOperand());
+    	//whether the range of the predicate is contiguous in the file
+    	final boolean sorted = predicate!=null && sortField>=0 && pagePredicate.getField()==sortField;
     	class tempIterator implements DbFileIterator{
     		
     		BufferPool buffer;
     		HeapPageId pid; 		
-    		HeapPage h = null;
+    		TuplePage h = null;
     		boolean open = false;
     		Iterator<Tuple> heapItr;	//heap iterator
     		int readPages = 0; 			//keeps track of the number of pages read
+    		boolean pastEnd = false;	//a sorted scan saw a tuple past the range
 			
 			public tempIterator(){
 				buffer = Database.getBufferPool();
 				pid = new HeapPageId(tableId,0);
 			}
 			
+			/**
+			 * @return an iterator over the tuples of page pid, which is
+			 * not read if none of them can satisfy the predicate
+			 */
+			private Iterator<Tuple> openPage() throws DbException, TransactionAbortedException{
+				if(pagePredicate!=null && !zones.mayMatch(pid.pageNumber(), pagePredicate)){
+					h = null;
+					return Collections.<Tuple>emptyList().iterator();
+				}
+				h = (TuplePage)buffer.getPage(t,pid,Permissions.READ_ONLY,sequential);
+				if(pagePredicate!=null && !zones.isKnown(pid.pageNumber(), pagePredicate.getField())){
+					//summarize the field for the next scans
+					zones.summarize(pid.pageNumber(), pagePredicate.getField(), h.iterator());
+				}
+				Iterator<Tuple> it = pageIterator(h, columns, projected);
+				if(sorted){
+					it = untilPastRange(it);
+				}
+				return predicate==null ? it : filter(it, predicate);
+			}
+			
+			/**
+			 * @return the tuples of it up to the first one past the range
+			 * of the predicate, which ends the scan
+			 */
+			private Iterator<Tuple> untilPastRange(final Iterator<Tuple> it){
+				return new Iterator<Tuple>(){
+					private Tuple next = null;
+					public boolean hasNext(){
+						if(next==null && !pastEnd && it.hasNext()){
+							Tuple t = it.next();
+							if(pastRange(t, predicate)){
+								pastEnd = true;
+							}else{
+								next = t;
+							}
+						}
+						return next!=null;
+					}
+					public Tuple next(){
+						if(!hasNext()){
+							throw new NoSuchElementException();
+						}
+						Tuple t = next;
+						next = null;
+						return t;
+					}
+					public void remove(){
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			
 			@Override
     		public void open() throws DbException, TransactionAbortedException{
+				//close() drops the state, so a closed iterator can be opened again
+				rewind();
 				open = true;
     		}
     		@Override
@@ -198,9 +1228,17 @@ public class HeapFile implements DbFile {
     			}   			
     			//set current page and its iterator if it hasn't been set up
     			if(heapItr==null){
-					h = (HeapPage)buffer.getPage(t,pid,Permissions.READ_ONLY);
-					heapItr = h.iterator();
-					readPages = 1;				
+    				if(!sorted){
+    					//one table lock instead of a lock on every page
+    					buffer.lockTable(t, tableId, LockMode.S);
+    				}
+    				if(sorted && numPages()>0){
+    					//skip the pages before the range
+    					int first = Math.min(firstPage(t, pagePredicate, sequential), numPages()-1);
+    					pid = new HeapPageId(tableId,first);
+    				}
+					heapItr = openPage();
+					readPages = pid.pageNumber()+1;
     			}    			
     			
     			//return true if there are tuples left in current page 
@@ -208,26 +1246,18 @@ public class HeapFile implements DbFile {
     				return true;
     			}   			
     			//return false if current page is the last page
-    			if(readPages==numPages()){
-    				//release lock if we just acquired the lock
-    	        	if(buffer.numTransactions(pid)==1){
-    	        		buffer.releasePage(t, pid);        	
-    	        	}
+    			//(the read locks are kept until the transaction completes)
+    			if(readPages>=numPages() || pastEnd){
     				return false;
     			}    			
     			//skip empty pages and see if there are any tuples
     			while(readPages<numPages()){
-    				buffer.releasePage(t, pid);
     				pid = new HeapPageId(tableId,pid.pageNumber()+1);
-    				h = (HeapPage)buffer.getPage(t,pid,Permissions.READ_ONLY);
     				readPages++;
-    				heapItr = h.iterator(); 
+    				heapItr = openPage();
     				if(heapItr.hasNext()){
     					return true;
     				}
-    				if(buffer.numTransactions(pid)==1){
-    	        		buffer.releasePage(t, pid);        	
-    	        	}
     			}
     			return false;    			
     		}
@@ -237,13 +1267,8 @@ public class HeapFile implements DbFile {
     			if(!hasNext()){
     				throw new NoSuchElementException();
     			}
-    			Tuple result;
     			if(heapItr.hasNext()){
-    				result=heapItr.next();
-    				if(buffer.numTransactions(pid)==1){
-    	        		buffer.releasePage(t, pid);        	
-    	        	}
-    				return result;
+    				return heapItr.next();
     			}
     			
 	    		throw new NoSuchElementException();
@@ -256,6 +1281,7 @@ public class HeapFile implements DbFile {
     			h = null;
     			heapItr = null;
     			readPages = 0;
+    			pastEnd = false;
     			//buffer.releasePage(t, pid);
 							
     		}
@@ -2,13 +2,19 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. convertSlotted and convertPax write the pages of a SlottedFile
+ * or a PaxFile instead, and convertSorted writes a HeapFile sorted on one of
+ * its fields.
  */
 
 public class HeapFileEncoder {
@@ -25,31 +31,14 @@ public class HeapFileEncoder {
      * @param outFile    The output file to write data to
      * @param npagebytes The number of bytes per page in the output file
      * @param numFields  the number of fields in each input tuple
-     * @throws IOException if the temporary/output file can't be opened
+     * @throws IOException if the output file can't be opened
      * @see HeapPage
      * @see HeapFile
      */
     public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (ArrayList<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
-                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                            Utility.listToString(tuple) + ")");
-                }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
-                }
-            }
-            bw.write('\n');
-        }
-        bw.close();
-        convert(tempInput, outFile, npagebytes, numFields);
+        Type[] ts = new Type[numFields];
+        Arrays.fill(ts, Type.INT_TYPE);
+        new BulkLoader(ts, ',', npagebytes, 1).convert(tuples, outFile);
     }
 
     public static void convert(File inFile, File outFile, int npagebytes,
@@ -70,157 +59,281 @@ public class HeapFileEncoder {
     /**
      * Convert the specified input text file into a binary
      * page file. <br>
-     * Assume format of the input file is (note that only integer fields are
-     * supported):<br>
-     * int,...,int\n<br>
-     * int,...,int\n<br>
+     * Assume format of the input file is:<br>
+     * field,...,field\n<br>
+     * field,...,field\n<br>
      * ...<br>
-     * where each row represents a tuple.<br>
+     * where each row represents a tuple, and fields have the types in typeAr.<br>
      * <p/>
      * The format of the output file will be as specified in HeapPage and
-     * HeapFile.
+     * HeapFile. The file is written by a single-threaded BulkLoader; use
+     * one with more threads for large inputs.
      *
      * @param inFile     The input file to read data from
      * @param outFile    The output file to write data to
      * @param npagebytes The number of bytes per page in the output file
      * @param numFields  the number of fields in each input line/output tuple
-     * @throws IOException if the input/output file can't be opened or a
-     *                     malformed input line is encountered
+     * @throws IOException if the input/output file can't be opened
      * @see HeapPage
      * @see HeapFile
+     * @see BulkLoader
      */
     public static void convert(File inFile, File outFile, int npagebytes,
                                int numFields, Type[] typeAr, char fieldSeparator)
             throws IOException {
+        new BulkLoader(Arrays.copyOf(typeAr, numFields), fieldSeparator, npagebytes, 1)
+                .convert(inFile, outFile);
+    }
+
+    /**
+     * Number of lines convertSorted sorts in memory at a time.
+     */
+    public static final int SORT_RUN_LINES = 100000;
 
-        int nrecbytes = 0;
-        for (int i = 0; i < numFields; i++) {
-            nrecbytes += typeAr[i].getLen();
+    /**
+     * Convert the specified input text file into a HeapFile like
+     * {@link #convert(File, File, int, int, Type[], char)}, with the tuples
+     * sorted on field sortField in ascending order (lines with equal values
+     * keep their order). The lines are sorted with an external merge sort:
+     * runs of {@link #SORT_RUN_LINES} lines are sorted in memory and written
+     * to temporary files, which are then merged. The table must be opened
+     * with the sort field, e.g. as "sorted field" in the catalog file.
+     *
+     * @param sortField the index of the field to sort on
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public static void convertSorted(File inFile, File outFile, int npagebytes, int numFields,
+                                     Type[] typeAr, char fieldSeparator, int sortField) throws IOException {
+        convertSorted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, sortField, SORT_RUN_LINES);
+    }
+
+    /**
+     * Like {@link #convertSorted(File, File, int, int, Type[], char, int)},
+     * sorting runLines lines in memory at a time.
+     */
+    public static void convertSorted(File inFile, File outFile, int npagebytes, int numFields,
+                                     Type[] typeAr, char fieldSeparator, int sortField, int runLines)
+            throws IOException {
+        if (sortField < 0 || sortField >= numFields) {
+            throw new IllegalArgumentException("no field " + sortField + " to sort on");
         }
-        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+        File sorted = File.createTempFile("sorted", ".txt");
+        sorted.deleteOnExit();
+        sortLines(inFile, sorted, typeAr[sortField], fieldSeparator, sortField, runLines);
+        convert(sorted, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+        sorted.delete();
+    }
 
-        //  per record, we need one bit; there are nrecords per page, so we need
-        // nrecords bits, i.e., ((nrecords/32)+1) integers.
-        int nheaderbytes = (nrecords / 8);
-        if (nheaderbytes * 8 < nrecords)
-            nheaderbytes++;  //ceiling
-        int nheaderbits = nheaderbytes * 8;
+    /**
+     * A line of the input and the value of its sort field, from run run.
+     */
+    private static class SortLine {
+        final Field key;
+        final String line;
+        final int run;
 
+        SortLine(Field key, String line, int run) {
+            this.key = key;
+            this.line = line;
+            this.run = run;
+        }
+    }
+
+    private static final Comparator<SortLine> SORT_ORDER = new Comparator<SortLine>() {
+        public int compare(SortLine a, SortLine b) {
+            if (a.key.compare(Predicate.Op.LESS_THAN, b.key)) {
+                return -1;
+            }
+            if (a.key.compare(Predicate.Op.GREATER_THAN, b.key)) {
+                return 1;
+            }
+            return a.run - b.run;
+        }
+    };
+
+    /**
+     * @return the value of field sortField of line, as the converter will
+     * store it
+     */
+    private static Field sortKey(String line, Type type, String separator, int sortField) {
+        String[] values = line.split(separator, -1);
+        String s = sortField < values.length ? values[sortField].trim() : "";
+        if (type == Type.INT_TYPE) {
+            try {
+                return new IntField(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                return new IntField(0);
+            }
+        }
+        return new StringField(s, Type.STRING_LEN);
+    }
+
+    /**
+     * Writes the non-empty lines of inFile to outFile, sorted on field
+     * sortField of type type, using runs of runLines lines.
+     */
+    private static void sortLines(File inFile, File outFile, Type type, char fieldSeparator, int sortField,
+                                  int runLines) throws IOException {
+        String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
         BufferedReader br = new BufferedReader(new FileReader(inFile));
-        FileOutputStream os = new FileOutputStream(outFile);
+        ArrayList<File> runs = new ArrayList<File>();
+        ArrayList<SortLine> run = new ArrayList<SortLine>();
+        String line;
+        boolean more = true;
+        while (more) {
+            line = br.readLine();
+            more = line != null;
+            if (more && line.trim().length() > 0) {
+                run.add(new SortLine(sortKey(line, type, separator, sortField), line, 0));
+            }
+            if (run.size() >= runLines || (!more && (runs.isEmpty() || !run.isEmpty()))) {
+                //sort is stable, so equal keys keep their order
+                Collections.sort(run, SORT_ORDER);
+                File f = runs.isEmpty() && !more ? outFile : File.createTempFile("run", ".txt");
+                f.deleteOnExit();
+                BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+                for (SortLine l : run) {
+                    bw.write(l.line);
+                    bw.write('\n');
+                }
+                bw.close();
+                runs.add(f);
+                run.clear();
+            }
+        }
+        br.close();
+        if (runs.size() == 1 && runs.get(0).equals(outFile)) {
+            //a single run was written to outFile directly
+            return;
+        }
 
-        // our numbers probably won't be much larger than 1024 digits
-        char buf[] = new char[1024];
+        //merge the runs; ties go to the earlier run, so the sort is stable
+        BufferedReader[] readers = new BufferedReader[runs.size()];
+        PriorityQueue<SortLine> heads = new PriorityQueue<SortLine>(runs.size(), SORT_ORDER);
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new BufferedReader(new FileReader(runs.get(i)));
+            line = readers[i].readLine();
+            if (line != null) {
+                heads.add(new SortLine(sortKey(line, type, separator, sortField), line, i));
+            }
+        }
+        BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
+        while (!heads.isEmpty()) {
+            SortLine l = heads.poll();
+            bw.write(l.line);
+            bw.write('\n');
+            line = readers[l.run].readLine();
+            if (line != null) {
+                heads.add(new SortLine(sortKey(line, type, separator, sortField), line, l.run));
+            }
+        }
+        bw.close();
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].close();
+            runs.get(i).delete();
+        }
+    }
 
-        int curpos = 0;
-        int recordcount = 0;
-        int npages = 0;
-        int fieldNo = 0;
+    /**
+     * Convert the specified input text file into a SlottedFile: each line
+     * holds the fields of one tuple, separated by fieldSeparator. Tuples are
+     * packed into pages of BufferPool.getPageSize() bytes in the format of
+     * SlottedPage, so short strings take little room.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param typeAr         The types of the fields of each line/tuple
+     * @param fieldSeparator The character between fields
+     * @throws IOException if the input/output file can't be opened
+     * @see SlottedPage
+     * @see SlottedFile
+     */
+    public static void convertSlotted(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        convertPages(inFile, outFile, typeAr, fieldSeparator, new PageMaker() {
+            public TuplePage newPage(HeapPageId pid, TupleDesc td) throws IOException {
+                return new SlottedPage(pid, SlottedPage.createEmptyPageData(), td);
+            }
+        });
+    }
 
-        ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-        ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-        DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+    /**
+     * Convert the specified input text file into a PaxFile, like
+     * convertSlotted: pages have the format of PaxPage, which stores the
+     * values of each field together.
+     *
+     * @see PaxPage
+     * @see PaxFile
+     */
+    public static void convertPax(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        convertPages(inFile, outFile, typeAr, fieldSeparator, new PageMaker() {
+            public TuplePage newPage(HeapPageId pid, TupleDesc td) throws IOException {
+                return new PaxPage(pid, PaxPage.createEmptyPageData(), td);
+            }
+        });
+    }
 
-        boolean done = false;
-        boolean first = true;
-        while (!done) {
-            int c = br.read();
+    /**
+     * Creates the empty pages convertPages fills.
+     */
+    private interface PageMaker {
+        TuplePage newPage(HeapPageId pid, TupleDesc td) throws IOException;
+    }
 
-            // Ignore Windows/Notepad special line endings
-            if (c == '\r')
-                continue;
+    /**
+     * Reads tuples from inFile, one per line, inserts them into pages made
+     * by maker, and writes each page to outFile when the next tuple does not
+     * fit on it.
+     */
+    private static void convertPages(File inFile, File outFile, Type[] typeAr, char fieldSeparator,
+                                     PageMaker maker) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        FileOutputStream os = new FileOutputStream(outFile);
+        String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
 
-            if (c == '\n') {
-                if (first)
-                    continue;
-                recordcount++;
-                first = true;
-            } else
-                first = false;
-            if (c == fieldSeparator || c == '\n' || c == '\r') {
-                String s = new String(buf, 0, curpos);
-                if (typeAr[fieldNo] == Type.INT_TYPE) {
+        int npages = 0;
+        TuplePage page = maker.newPage(new HeapPageId(0, npages), td);
+        boolean empty = true;
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.trim().length() == 0)
+                continue;
+            String[] values = line.split(separator, -1);
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < typeAr.length; i++) {
+                String s = i < values.length ? values[i].trim() : "";
+                if (typeAr[i] == Type.INT_TYPE) {
+                    int v = 0;
                     try {
-                        pageStream.writeInt(Integer.parseInt(s.trim()));
+                        v = Integer.parseInt(s);
                     } catch (NumberFormatException e) {
                         System.out.println("BAD LINE : " + s);
                     }
-                } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                    s = s.trim();
-                    int overflow = Type.STRING_LEN - s.length();
-                    if (overflow < 0) {
-                        String news = s.substring(0, Type.STRING_LEN);
-                        s = news;
-                    }
-                    pageStream.writeInt(s.length());
-                    pageStream.writeBytes(s);
-                    while (overflow-- > 0)
-                        pageStream.write((byte) 0);
+                    t.setField(i, new IntField(v));
+                } else {
+                    t.setField(i, new StringField(s, Type.STRING_LEN));
                 }
-                curpos = 0;
-                if (c == '\n')
-                    fieldNo = 0;
-                else
-                    fieldNo++;
-
-            } else if (c == -1) {
-                done = true;
-
-            } else {
-                buf[curpos++] = (char) c;
-                continue;
             }
 
-            // if we wrote a full page of records, or if we're done altogether,
-            // write out the header of the page.
-            //
-            // in the header, write a 1 for bits that correspond to records we've
-            // written and 0 for empty slots.
-            //
-            // when we're done, also flush the page to disk, but only if it has
-            // records on it.  however, if this file is empty, do flush an empty
-            // page to disk.
-            if (recordcount >= nrecords
-                    || done && recordcount > 0
-                    || done && npages == 0) {
-                int i = 0;
-                byte headerbyte = 0;
-
-                for (i = 0; i < nheaderbits; i++) {
-                    if (i < recordcount)
-                        headerbyte |= (1 << (i % 8));
-
-                    if (((i + 1) % 8) == 0) {
-                        headerStream.writeByte(headerbyte);
-                        headerbyte = 0;
-                    }
-                }
-
-                if (i % 8 > 0)
-                    headerStream.writeByte(headerbyte);
-
-                // pad the rest of the page with zeroes
-
-                for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                    pageStream.writeByte(0);
-
-                // write header and body to file
-                headerStream.flush();
-                headerBAOS.writeTo(os);
-                pageStream.flush();
-                pageBAOS.writeTo(os);
-
-                // reset header and body for next page
-                headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-                headerStream = new DataOutputStream(headerBAOS);
-                pageBAOS = new ByteArrayOutputStream(npagebytes);
-                pageStream = new DataOutputStream(pageBAOS);
-
-                recordcount = 0;
+            if (!page.hasRoomFor(t)) {
+                os.write(page.getPageData());
                 npages++;
+                page = maker.newPage(new HeapPageId(0, npages), td);
+                empty = true;
             }
+            try {
+                page.insertTuple(t);
+            } catch (DbException e) {
+                throw new IOException("tuple does not fit on a page: " + line);
+            }
+            empty = false;
         }
+
+        // write the last page, or an empty page for an empty file
+        if (!empty || npages == 0)
+            os.write(page.getPageData());
         br.close();
         os.close();
     }
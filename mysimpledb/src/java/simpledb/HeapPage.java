@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -10,19 +12,29 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     private final HeapPageId pid;
     private final TupleDesc td;
     private final byte header[];
-    private final Tuple tuples[];
+    private final Tuple tuples[];	//null for empty slots and slots not decoded yet
     private final int numSlots;
+    private final int[] fieldOffsets;	//offset of each field within a tuple
+    
+    //the header and slots of the page, updated in place by insertTuple and
+    //deleteTuple; getPageData() copies it and views decode from it
+    private volatile ByteBuffer data;
+    //data is also used by someone else and has to be copied before it is
+    //changed, see writableData(); guarded by this
+    private boolean shared;
     
     private boolean dirty;
     private TransactionId dirtyTid;
     
+    //the before-image, or null while the page has not been changed since
+    //it was read or since setBeforeImage(): then it is the page itself
     byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -42,25 +54,41 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of data, without copying them into an array first. HeapFile uses this
+     * to read pages straight out of a memory-mapped file. The position of
+     * data is not changed.
+     * <p/>
+     * Only the header is decoded here. Tuples are decoded when they are
+     * first requested, and their fields when they are first read, directly
+     * from data; see {@link #iterator()}. The page keeps data, so its
+     * contents must not be changed by the caller. The page itself copies
+     * data before it changes it.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
+        if (this.data.remaining() < BufferPool.getPageSize()) {
+            throw new IOException("short page: " + this.data.remaining() + " bytes");
+        }
+        this.data.limit(BufferPool.getPageSize());
+        this.shared = true;
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.data.duplicate().get(header);
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++){
-                tuples[i] = readNextTuple(dis, i);
-            }
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }       
-        dis.close();
-        setBeforeImage();
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
     }
 
     /**
@@ -88,8 +116,8 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage() {
         try {
             byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
+            synchronized (this) {
+                oldDataRef = captureBeforeImage();
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -100,124 +128,188 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Makes the current contents of the page its before-image. Nothing is
+     * copied here: the before-image is only taken when the page is next
+     * changed, see {@link #writableData()}.
+     */
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
         }
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Makes the contents of page the before-image of this page, e.g. the
+     * committed contents of a page that still holds changes of running
+     * transactions, see BufferPool's record locks.
      */
-    public HeapPageId getId() {
-    	return pid;
+    void setBeforeImage(HeapPage page) {
+        byte[] before = page.getPageData();
+        synchronized (oldDataLock) {
+            oldData = before;
+        }
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the before-image, first taking it from the current contents
+     * if the page has not been changed since the last one. When the page
+     * has its bytes in an array, the array itself is shared with the
+     * before-image and copied only when the page changes. Callers must
+     * hold the monitor of this page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-            	
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private byte[] captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                if (data.hasArray() && data.arrayOffset() == 0
+                        && data.array().length == BufferPool.getPageSize()) {
+                    oldData = data.array();
+                    shared = true;
+                } else {
+                    oldData = getPageData();
                 }
             }
-            return null;
+            return oldData;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns data for a change to the page. Takes the before-image if
+     * this is the first change since the last one, and replaces data with
+     * a private copy if it is shared. Callers must hold the monitor of
+     * this page.
+     */
+    private ByteBuffer writableData() {
+        captureBeforeImage();
+        if (shared) {
+            copyData();
         }
+        return data;
+    }
 
+    /**
+     * Replaces data with a private copy. Callers must hold the monitor of
+     * this page.
+     */
+    private void copyData() {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(copy);
+        data = ByteBuffer.wrap(copy);
+        shared = false;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+    	return pid;
+    }
+
+    /**
+     * @return the offset of the tuple in slot slotId within the page
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in slot slotId, or null if the slot is empty. A
+     * tuple read from disk is created on first request, as a
+     * {@link TupleView} that decodes its fields from the page's bytes
+     * when they are read.
+     */
+    Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            t = new TupleView(this, slotId);
+            tuples[slotId] = t;
+        }
         return t;
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
+     * A tuple stored on a HeapPage, read lazily: each field is decoded
+     * from the bytes of the page the first time it is read, so consumers
+     * that look at few fields, or drop the tuple after checking one field,
+     * do not pay for decoding the others.
      * <p/>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the HeapPage constructor and
-     * have it produce an identical HeapPage object.
-     *
-     * @return A byte array correspond to the bytes of this page.
-     * @see #HeapPage
+     * Before the page changes the bytes of the slot, it detaches the view
+     * by decoding the remaining fields. Setting a field of a view changes
+     * only the view, not the page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    static class TupleView extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapPage page;
+        private final int slotId;
+        private boolean detached;	//guarded by page
+
+        TupleView(HeapPage page, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.slotId = slotId;
+            setRecordId(new RecordId(page.pid, slotId));
         }
 
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+        /**
+         * Decodes all fields that have not been read yet, so the view no
+         * longer needs the bytes of its slot.
+         */
+        void detach() {
+            synchronized (page) {
+                for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                    getField(i);
                 }
-                continue;
+                detached = true;
             }
+        }
 
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+        @Override
+        protected Field loadField(int i) {
+            synchronized (page) {
+                if (detached) {
+                    // decoded by detach() while we were waiting
+                    return getField(i);
+                }
+                int offset = page.slotOffset(slotId) + page.fieldOffsets[i];
                 try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
+                    return getTupleDesc().getFieldType(i).parse(page.data, offset);
+                } catch (ParseException e) {
                     e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
                 }
             }
         }
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Makes the page keep a private copy of the bytes it was created from.
+     * HeapFile calls this on pages created over a memory-mapped file
+     * before it writes to their part of the file.
+     */
+    synchronized void unmap() {
+        if (!data.hasArray()) {
+            copyData();
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p/>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HeapPage constructor and
+     * have it produce an identical HeapPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     * @see #HeapPage
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        synchronized (this) {
+            data.duplicate().get(out);
         }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -255,12 +347,8 @@ public class HeapPage implements Page {
         if(isSlotUsed(tupleNum)){
         	//delete tuple
         	t.setRecordId(null);
-        	tuples[tupleNum]=null;        	
-        	
-        	//update header
-        	int index = tupleNum/8;
-        	int bitPos = tupleNum%8;
-        	header[index] = (byte)(header[index] & ~(1 << bitPos));
+        	writeSlot(tupleNum, null);
+        	markSlotUsed(tupleNum, false);
         }else{
         	throw new DbException("tuple slot is empty");
         }
@@ -280,21 +368,29 @@ public class HeapPage implements Page {
     	}
     	for(int i=0;i<numSlots;i++){
     		if(!isSlotUsed(i)){
-    			//update tuple & RecordId
-    			RecordId rid = new RecordId(getId(),i);
-    			t.setRecordId(rid);
-    			tuples[i]=t; 
-    			
-    			//update header
-    			int index = i/8;
-    			int bitPos = i%8;
-    			header[index]=(byte)(header[index] | (1 << bitPos));
+    			insertTuple(t, i);
     			return;
     		}
     	}
         throw new DbException("tuple slot is empty");
     }
 
+    /**
+     * Adds the specified tuple to the given empty slot of the page, and
+     * updates its RecordId.
+     *
+     * @throws DbException if the slot is not empty
+     */
+    void insertTuple(Tuple t, int slot) throws DbException {
+    	if(isSlotUsed(slot)){
+    		throw new DbException("tuple slot is not empty");
+    	}
+    	//update tuple & RecordId
+    	writeSlot(slot, t);
+    	markSlotUsed(slot, true);
+    	t.setRecordId(new RecordId(getId(),slot));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -314,6 +410,21 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * @return true if the page has an empty slot; all tuples of a table
+     * take the same room
+     */
+    public boolean hasRoomFor(Tuple t) {
+    	return getNumEmptySlots()!=0;
+    }
+
+    /**
+     * @return the number of slots on this page, used or not
+     */
+    int getNumSlots() {
+    	return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -349,11 +460,39 @@ public class HeapPage implements Page {
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    private synchronized void markSlotUsed(int i, boolean value) {
+    	int index = i/8;
+    	int bitPos = i%8;
         if(value==true){
-        	header[i]=1;
+        	header[index] = (byte)(header[index] | (1 << bitPos));
+        }else{
+        	header[index] = (byte)(header[index] & ~(1 << bitPos));
         }
-        header[i]=0;
+        writableData().put(index, header[index]);
+    }
+
+    /**
+     * Writes the fields of t to slot i of the page, or zeroes the slot if t
+     * is null, and makes t the tuple of the slot. A view still reading the
+     * old bytes of the slot is detached first.
+     */
+    private synchronized void writeSlot(int i, Tuple t) {
+    	Tuple old = tuples[i];
+    	if(old instanceof TupleView){
+    		((TupleView) old).detach();
+    	}
+    	ByteBuffer buf = writableData();
+    	int offset = slotOffset(i);
+    	if(t==null){
+    		for(int j=0;j<td.getSize();j++){
+    			buf.put(offset+j, (byte)0);
+    		}
+    	}else{
+    		for(int j=0;j<td.numFields();j++){
+    			t.getField(j).serialize(buf, offset+fieldOffsets[j]);
+    		}
+    	}
+    	tuples[i]=t;
     }
 
     /**
@@ -400,7 +539,7 @@ public class HeapPage implements Page {
     			if(!hasNext()){
     				throw new NoSuchElementException();
     			}
-    			return tuples[index++];
+    			return getTuple(index++);
     		}
     		
     		@Override
@@ -36,16 +36,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     * the table number and the page number (needed if a PageId is used as a
+     * @return a hash code for this page, computed from the table number and
+     * the page number without allocating (needed if a PageId is used as a
      * key in a hash table in the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
-    	//concatenate table number and page number
-    	String result = Integer.toString(tableId) + Integer.toString(pgNo);
-    	Long l = Long.parseLong(result);	//ensure the hash code does not exceed the maximum int value
-    	return l.hashCode(); 
+    	//called for every lock and page lookup, so keep it to arithmetic
+    	return 31 * tableId + pgNo;
     }
 
     /**
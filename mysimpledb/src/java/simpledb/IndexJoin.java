@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexJoin is an index nested-loops equi-join: for every tuple of the outer
+ * relation, it looks the value of its join field up in the index of the
+ * inner table, an IndexedFile keyed on the inner join field, so the inner
+ * table is never scanned. The inner child is a SeqScan of that table, which
+ * gives the join its TupleDesc; since IndexJoin is a Join with the same
+ * children, the planner's estimates and explain treat it as one.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class IndexJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IndexedFile file;
+    private final TransactionId tid;
+    private transient DbFileIterator matches = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p      an EQUALS predicate whose second field is the key of the
+     *               inner table
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 a scan of the right(inner) relation, which must be an
+     *               IndexedFile
+     * @throws IllegalArgumentException if the inner table cannot be probed
+     *                                  on the join field, see {@link #canProbe}
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        super(p, child1, child2);
+        if (!canProbe(p, child2)) {
+            throw new IllegalArgumentException("cannot look up " + child2.getTableName()
+                    + " on field " + p.getField2());
+        }
+        this.file = (IndexedFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        this.tid = child2.getTransactionId();
+    }
+
+    /**
+     * @return true if the tuples of inner that satisfy p for a given outer
+     * tuple can be looked up in the index of the table inner scans
+     */
+    public static boolean canProbe(JoinPredicate p, DbIterator inner) {
+        if (p.getOperator() != Predicate.Op.EQUALS || inner.getClass() != SeqScan.class) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) inner).getTableId());
+        return f instanceof IndexedFile && ((IndexedFile) f).getKeyField() == p.getField2()
+                && ((IndexedFile) f).supports(Predicate.Op.EQUALS);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        //opening the inner scan does not read pages yet, and it is never read
+        super.open();
+        matches = null;
+        t1 = null;
+    }
+
+    public void close() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+        t1 = null;
+    }
+
+    /**
+     * Returns the next outer tuple joined with one of the inner tuples whose
+     * key equals its join field, probing the index once per outer tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                t2 = matches.next();
+                Tuple t = new Tuple(getTupleDesc());
+                int n1 = t1.getTupleDesc().numFields();
+                for (int i = 0; i < n1; i++) {
+                    t.setField(i, t1.getField(i));
+                }
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+                    t.setField(n1 + i, t2.getField(i));
+                }
+                return t;
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            if (matches != null) {
+                matches.close();
+            }
+            matches = file.indexIterator(tid, Predicate.Op.EQUALS, t1.getField(p.getField1()));
+            matches.open();
+        }
+    }
+}
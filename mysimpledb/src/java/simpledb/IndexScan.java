@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * IndexScan is an access method that uses the index of an IndexedFile, e.g.
+ * the B+ tree of a BTreeFile, to read only the tuples whose key satisfies a
+ * predicate. It is a SeqScan over those tuples, so its TupleDesc and the
+ * estimates of the query planner are those of a SeqScan of the table.
+ *
+ * @see IndexedFile#indexIterator
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field operand;
+
+    /**
+     * Creates a scan over the tuples of an IndexedFile whose key satisfies
+     * <tt>key op operand</tt>.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan, which must be an IndexedFile
+     * @param tableAlias the alias of this table, see SeqScan
+     * @param op         an operation the file supports, see
+     *                   {@link IndexedFile#supports}
+     * @param operand    the value the keys are compared to
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate.Op op, Field operand) {
+        super(tid, tableid, tableAlias,
+                ((IndexedFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, op, operand));
+        this.op = op;
+        this.operand = operand;
+    }
+
+    /**
+     * @return the operation the keys are compared with
+     */
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the value the keys are compared to
+     */
+    public Field getOperand() {
+        return operand;
+    }
+}
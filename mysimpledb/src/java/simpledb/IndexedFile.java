@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * An IndexedFile is a DbFile that can find the tuples whose key field
+ * satisfies a predicate without reading the whole file, e.g. a BTreeFile or
+ * a HashFile.
+ *
+ * @see IndexScan
+ * @see IndexJoin
+ */
+public interface IndexedFile extends DbFile {
+
+    /**
+     * @return the index of the field the file is organized on
+     */
+    public int getKeyField();
+
+    /**
+     * @return true if {@link #indexIterator} can find the tuples whose key
+     * satisfies op
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * <tt>key op operand</tt>.
+     *
+     * @param op      an operation for which {@link #supports} is true
+     * @param operand a field of the type of the key
+     * @throws IllegalArgumentException if the file cannot look up keys with op
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand);
+}
@@ -63,7 +63,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (!(lj instanceof LogicalSubplanJoinNode) && IndexJoin.canProbe(p, plan2)) {
+            //look the outer tuples up in the index of the inner table
+            j = new IndexJoin(p, plan1, (SeqScan) plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -118,6 +121,39 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimates the cost of j as an IndexJoin: one pass over the left-hand
+     * side, and one lookup in the index of the right-hand table per tuple of
+     * the left-hand side. That is only possible if the right-hand side is a
+     * base table without filters (it is scanned as is), keyed on the join
+     * field of an equi-join, see {@link IndexJoin#canProbe}.
+     *
+     * @param j     the join, with the right-hand side a base table
+     * @param card1 Estimated cardinality of the left-hand side of the query
+     * @param cost1 Estimated cost of the left-hand side of the query
+     * @param stats The table stats, referenced by table names, not alias
+     * @return the estimated cost, or Double.MAX_VALUE if j cannot be an
+     * IndexJoin
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1,
+                                         Map<String, TableStats> stats) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS || p.hasFilter(j.t2Alias)) {
+            return Double.MAX_VALUE;
+        }
+        int tableId = p.getTableId(j.t2Alias);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof IndexedFile) || !((IndexedFile) f).supports(Predicate.Op.EQUALS)) {
+            return Double.MAX_VALUE;
+        }
+        int keyField = ((IndexedFile) f).getKeyField();
+        if (keyField != f.getTupleDesc().fieldNameToIndex(j.f2PureName)) {
+            return Double.MAX_VALUE;
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        double probe = s.estimateIndexScanCost(1.0 / Math.max(1, s.numDistinctValues(keyField)));
+        return cost1 + card1 * probe;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -331,6 +367,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        //whether each side is a base table, which an IndexJoin can probe
+        boolean t1base = true, t2base = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -361,6 +399,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                t1base = false;
                 t1cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -377,6 +416,7 @@ public class JoinOptimizer {
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                 // (both
                 // shouldn't be)
+                t2base = false;
                 t2cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -396,9 +436,15 @@ public class JoinOptimizer {
 
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        if (t2base && j.t2Alias != null) {
+            cost1 = Math.min(cost1, estimateIndexJoinCost(j, t1card, t1cost, stats));
+        }
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        if (t1base && j2.t2Alias != null) {
+            cost2 = Math.min(cost2, estimateIndexJoinCost(j2, t2card, t2cost, stats));
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * The modes of the locks BufferPool takes on tables and pages. Pages are
+ * locked S (Permissions.READ_ONLY) or X (Permissions.READ_WRITE). A table
+ * is locked in an intention mode, IS or IX, by a transaction that locks
+ * some of its pages S or X, or in S, SIX or X to cover all of its pages at
+ * once.
+ */
+public enum LockMode {
+    /**
+     * Intention shared: some pages of the table are locked S.
+     */
+    IS,
+    /**
+     * Intention exclusive: some pages of the table are locked S or X.
+     */
+    IX,
+    /**
+     * Shared: all pages of the table may be read.
+     */
+    S,
+    /**
+     * Shared and intention exclusive: all pages of the table may be read,
+     * and some pages are locked X.
+     */
+    SIX,
+    /**
+     * Exclusive: all pages of the table may be read and written.
+     */
+    X;
+
+    //COMPATIBLE[a][b]: a lock in mode a can be held along with one in mode b
+    private static final boolean[][] COMPATIBLE = {
+            //IS     IX     S      SIX    X
+            {true,  true,  true,  true,  false},   //IS
+            {true,  true,  false, false, false},   //IX
+            {true,  false, true,  false, false},   //S
+            {true,  false, false, false, false},   //SIX
+            {false, false, false, false, false}};  //X
+
+    /**
+     * @return true if another transaction may hold a lock in mode other
+     * while one holds a lock in this mode on the same table or page
+     */
+    public boolean compatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return true if a lock in this mode grants all that a lock in mode
+     * other does
+     */
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+
+    /**
+     * @return the weakest mode that covers both this mode and other, the
+     * mode of a lock held in this mode and upgraded to other
+     */
+    public LockMode join(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == IS) {
+            return other;
+        }
+        if (other == IS) {
+            return this;
+        }
+        //any two of IX, S and SIX
+        return SIX;
+    }
+
+    /**
+     * @return the mode of the page lock for perm
+     */
+    public static LockMode of(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? X : S;
+    }
+}
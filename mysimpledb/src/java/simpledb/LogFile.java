@@ -347,7 +347,19 @@ public class LogFile {
             }
             pid = (PageId) idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have several constructors, use the one that parses
+            // the bytes written by writePageData
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid)
+                        && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            if (pageConst == null) {
+                throw new IOException("no constructor for " + pageClassName);
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -357,7 +369,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -3,6 +3,8 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -82,6 +84,19 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
 
+    /**
+     * @return true if a filter of this plan applies to the table with the
+     * given alias
+     */
+    boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public HashMap<String, Integer> getTableAliasToIdMapping() {
         return this.tableMap;
     }
@@ -294,6 +309,67 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the names of the fields of each table alias that the query
+     * reads, or null if it reads all of them (SELECT *).
+     */
+    private HashMap<String, Set<String>> neededFields() {
+        HashMap<String, Set<String>> needed = new HashMap<String, Set<String>>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*"))
+                return null;
+            addNeededField(needed, parts[0], parts[1]);
+        }
+        for (LogicalFilterNode lf : filters) {
+            addNeededField(needed, lf.tableAlias, lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            addNeededField(needed, lj.t1Alias, lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                addNeededField(needed, lj.t2Alias, lj.f2PureName);
+        }
+        return needed;
+    }
+
+    private static void addNeededField(HashMap<String, Set<String>> needed, String alias, String field) {
+        Set<String> fields = needed.get(alias);
+        if (fields == null) {
+            fields = new HashSet<String>();
+            needed.put(alias, fields);
+        }
+        fields.add(field);
+    }
+
+    /**
+     * @return the indexes of the fields of td named in fields, in the order
+     * of td; the first field if there are none
+     */
+    private static int[] columns(TupleDesc td, Set<String> fields) {
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (fields != null && fields.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -314,12 +390,22 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashMap<String, Set<String>> neededFields = neededFields();
+        HashMap<String, int[]> scanColumns = new HashMap<String, int[]>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                if (file instanceof PaxFile && neededFields != null) {
+                    //only decode the fields the query reads
+                    int[] columns = columns(file.getTupleDesc(), neededFields.get(table.alias));
+                    ss = new SeqScan(t, file.getId(), table.alias, columns);
+                    scanColumns.put(table.alias, columns);
+                } else {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -359,11 +445,28 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //the statistics are over all fields of the table, not the scanned ones
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            int tableField = tableTd.fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
+
+            DbFile file = Database.getCatalog().getDatabaseFile(getTableId(lf.tableAlias));
+            if (ftyp == Type.INT_TYPE && subplan instanceof SeqScan && ((SeqScan) subplan).getPredicate() == null
+                    && file instanceof HeapFile) {
+                //let the scan skip the pages its zone map rules out; the
+                //Filter stays for the cardinality estimates and explain
+                subplan = new SeqScan(t, getTableId(lf.tableAlias), lf.tableAlias,
+                        scanColumns.get(lf.tableAlias), p);
+            } else if (file instanceof IndexedFile && subplan.getClass() == SeqScan.class
+                    && ((IndexedFile) file).getKeyField() == tableField && ((IndexedFile) file).supports(lf.p)
+                    && s.estimateIndexScanCost(sel) < s.estimateScanCost()) {
+                //look the key up in the index; the Filter stays, as above
+                subplan = new IndexScan(t, file.getId(), lf.tableAlias, lf.p, f);
+            }
+            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -499,13 +602,39 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && !(oByAsc && oByField.equals(sortedOn(node)))) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Returns the field the tuples of plan come out sorted on, in ascending
+     * order: the sort field of the table of a scan (see
+     * Catalog#getSortField), kept by filters and by the joins, which go
+     * through their outer child in order.
+     *
+     * @return the quantified name of the field, or null if the tuples come
+     * out in no known order
+     */
+    private static String sortedOn(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            int field = Database.getCatalog().getSortField(scan.getTableId());
+            if (field < 0 || scan.getTupleDesc().numFields() != Database.getCatalog()
+                    .getTupleDesc(scan.getTableId()).numFields()) {
+                //no order, or a projected scan
+                return null;
+            }
+            return scan.getTupleDesc().getFieldName(field);
+        }
+        if (plan instanceof Filter || plan instanceof Join) {
+            return sortedOn(((Operator) plan).getChildren()[0]);
+        }
+        return null;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact LRU replacement, the policy the BufferPool used before policies
+ * became pluggable.
+ * <p/>
+ * Map accessAr keeps track of the order of page access. Every time a page
+ * is accessed, its entry in accessAr is updated to the number of pages
+ * that have been accessed so far, including the page itself. The higher
+ * the value, the more recently the page was accessed. chooseVictim scans
+ * all pages for the evictable page with the smallest value, so eviction
+ * is O(pool size); prefer {@link ClockPolicy} for large pools.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, Long> accessAr = new ConcurrentHashMap<PageId, Long>();
+    private final AtomicLong accessNum = new AtomicLong(1);
+
+    public void pageLoaded(PageId pid) {
+        accessAr.put(pid, accessNum.getAndIncrement());
+    }
+
+    public void pageAccessed(PageId pid) {
+        //replace() so that a concurrent access cannot resurrect a removed page
+        accessAr.replace(pid, accessNum.getAndIncrement());
+    }
+
+    public void pageRemoved(PageId pid) {
+        accessAr.remove(pid);
+    }
+
+    public PageId chooseVictim(Evictable filter) {
+        PageId pp = null;
+        long min = Long.MAX_VALUE;
+        Iterator<Entry<PageId, Long>> it = accessAr.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<PageId, Long> e = it.next();
+            if (e.getValue() < min && filter.canEvict(e.getKey())) {
+                min = e.getValue();
+                pp = e.getKey();
+            }
+        }
+        return pp;
+    }
+}
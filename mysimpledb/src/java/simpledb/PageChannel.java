@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel is the channel the pages of a DbFile are read and written
+ * through. It is opened on first use and stays open; positional reads and
+ * writes on it do not move a shared file pointer, so concurrent page reads
+ * do not need to be serialized.
+ * <p/>
+ * An interrupt of a thread blocked in I/O on a FileChannel closes it for all
+ * threads, so a closed channel is opened again by {@link #get()}, and
+ * {@link #readFully} and {@link #writeFully} retry on the new channel.
+ *
+ * @see HeapFile
+ * @see BTreeFile
+ * @see HashFile
+ */
+class PageChannel {
+
+    private final File f;
+    private volatile FileChannel channel = null;
+
+    /**
+     * @param f the file to read and write
+     */
+    PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Returns the open channel to the file, opening it if it was not opened
+     * yet or has been closed.
+     */
+    FileChannel get() throws IOException {
+        FileChannel c = channel;
+        if (c == null || !c.isOpen()) {
+            synchronized (this) {
+                c = channel;
+                if (c == null || !c.isOpen()) {
+                    c = new RandomAccessFile(f, "rw").getChannel();
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Reads from the file into buf, starting at offset, until buf is full
+     * or the end of the file is reached: a single read may return less.
+     */
+    void readFully(ByteBuffer buf, long offset) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (buf.hasRemaining()) {
+                try {
+                    if (get().read(buf, offset + buf.position()) < 0) {
+                        break;
+                    }
+                } catch (ClosedByInterruptException e) {
+                    //retry on a new channel, uninterrupted, see writeFully()
+                    interrupted |= Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    //closed by the interrupt of another thread, get() reopens it
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes all of buf to the file, starting at offset.
+     * <p/>
+     * A write is not given up when the channel is closed under it: an
+     * interrupted thread may be writing the before-image of an aborted
+     * transaction, e.g. after a lock wait was interrupted. The write is
+     * finished on a new channel and the interrupt is kept for the caller.
+     */
+    void writeFully(ByteBuffer buf, long offset) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (buf.hasRemaining()) {
+                try {
+                    get().write(buf, offset + buf.position());
+                } catch (ClosedByInterruptException e) {
+                    //any I/O with the interrupt set would close the channel again
+                    interrupted |= Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    //closed by the interrupt of another thread, get() reopens it
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -505,8 +507,108 @@ public class Parser {
         }
     }
 
+    /**
+     * VACUUM table: compacts a heap file, see HeapFile#vacuum. ZQL does not
+     * know the statement, so it is matched before the ZQL parser runs.
+     */
+    private static final Pattern VACUUM = Pattern.compile(
+            "\\s*vacuum\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * COPY table FROM 'file' [DELIMITER 'c']: appends the lines of a text
+     * file to a heap file, see HeapFile#copyFrom.
+     */
+    private static final Pattern COPY = Pattern.compile(
+            "\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Longest statement matched against the statements ZQL does not know. */
+    private static final int MAX_UTILITY_STATEMENT = 4096;
+
+    public void handleVacuumStatement(String table)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "VACUUM cannot run inside a transaction");
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("Cannot vacuum " + table
+                    + ", it is not a heap file");
+        int freed = ((HeapFile) f).vacuum();
+        TableStats.setTableStats(table, new TableStats(id,
+                TableStats.IOCOSTPERPAGE));
+        System.out.println("Vacuumed " + table + ": " + freed
+                + " pages freed, " + ((HeapFile) f).numPages() + " left.");
+    }
+
+    public void handleCopyStatement(String table, String file, char separator)
+            throws DbException, IOException, simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "COPY cannot run inside a transaction");
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("Cannot copy into " + table
+                    + ", it is not a heap file");
+        if (!new File(file).canRead())
+            throw new simpledb.ParsingException("Cannot read " + file);
+        long n = ((HeapFile) f).copyFrom(new File(file), separator,
+                Runtime.getRuntime().availableProcessors());
+        TableStats.setTableStats(table, new TableStats(id,
+                TableStats.IOCOSTPERPAGE));
+        System.out.println("Copied " + n + " rows into " + table + ".");
+    }
+
+    /**
+     * Runs s if it is one of the statements ZQL does not know.
+     *
+     * @return true if s was such a statement
+     */
+    private boolean processUtilityStatement(String s)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        Matcher m = VACUUM.matcher(s);
+        if (m.matches()) {
+            handleVacuumStatement(m.group(1));
+            return true;
+        }
+        m = COPY.matcher(s);
+        if (m.matches()) {
+            handleCopyStatement(m.group(1), m.group(2),
+                    m.group(3) == null ? ',' : m.group(3).charAt(0));
+            return true;
+        }
+        return false;
+    }
+
     public void processNextStatement(InputStream is) {
         try {
+            if (!is.markSupported())
+                is = new BufferedInputStream(is);
+            is.mark(MAX_UTILITY_STATEMENT);
+            byte[] head = new byte[MAX_UTILITY_STATEMENT];
+            int n = 0;
+            for (int r; n < head.length
+                    && (r = is.read(head, n, head.length - n)) >= 0; )
+                n += r;
+            if (n < head.length
+                    && processUtilityStatement(new String(head, 0, n, "UTF-8")))
+                return;
+            is.reset();
+
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
@@ -586,7 +688,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"};
+            "insert", "delete", "values", "into", "vacuum", "copy"};
 
     public static void main(String argv[]) throws IOException {
 
@@ -600,7 +702,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-mmap] [-noforce] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -608,6 +710,9 @@ public class Parser {
 
     protected boolean interactive = true;
 
+    /** Milliseconds between two rounds of the buffer pool's page writer. */
+    static final long PAGE_WRITER_INTERVAL = 1000;
+
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
@@ -620,6 +725,20 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-mmap")) {
+                    Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+                    while (it.hasNext()) {
+                        DbFile f = Database.getCatalog().getDatabaseFile(it.next());
+                        if (f instanceof HeapFile) {
+                            ((HeapFile) f).setMemoryMapped(true);
+                        }
+                    }
+                    System.out.println("Memory-mapped reads enabled.");
+                } else if (argv[i].equals("-noforce")) {
+                    // commits do not write pages, trickle them to disk in the background
+                    Database.getBufferPool().setForce(false);
+                    Database.getBufferPool().startBackgroundWriter(PAGE_WRITER_INTERVAL);
+                    System.out.println("NO FORCE commits enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
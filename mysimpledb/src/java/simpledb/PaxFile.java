@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * PaxFile is a HeapFile whose pages are PaxPages, which store the values of
+ * each field together. Scans that need only some of the fields, through
+ * {@link HeapFile#iterator(TransactionId, int[])}, decode only those; the
+ * query planner asks for them when a query reads few fields of a PaxFile.
+ * <p/>
+ * HeapFileEncoder.convertPax writes such files, and a table is opened as a
+ * PaxFile by adding "pax" after its schema in the catalog file.
+ *
+ * @see PaxPage
+ * @see Catalog#loadSchema
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    @Override
+    protected boolean storesHeapPages() {
+        return false;
+    }
+
+    @Override
+    protected Iterator<Tuple> pageIterator(TuplePage p, int[] columns, TupleDesc projected) {
+        if (columns == null) {
+            return p.iterator();
+        }
+        return ((PaxPage) p).iterator(columns, projected);
+    }
+}
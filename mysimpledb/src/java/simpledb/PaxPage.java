@@ -0,0 +1,331 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * PaxPage stores the tuples of a PaxFile column by column (PAX: partition
+ * attributes across). It has the same slots and the same header as a
+ * HeapPage, but after the header the values of each field are stored
+ * together: first the first field of every slot, then the second field of
+ * every slot, and so on. The value of field j of slot i is at
+ * <p/>
+ * header size + numSlots * (offset of field j in a tuple) + i * (size of field j)
+ * <p/>
+ * A scan that needs only some of the fields reads only their part of the
+ * page, a contiguous array of values; see {@link #iterator(int[], TupleDesc)}.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements TuplePage {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+    private final int[] columnOffsets;	//offset of the values of each field
+
+    //the bytes of the page, updated in place by insertTuple and deleteTuple
+    private byte[] data;
+    private ByteBuffer buf;		//wraps data
+    //data is also the before-image, or the caller's array, and has to be
+    //copied before it is changed, see writableData()
+    private boolean shared;
+
+    private final Tuple[] tuples;	//null for empty slots and slots not decoded yet
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    //the before-image, or null while the page has not been changed since it
+    //was read or since setBeforeImage(): then it is the page itself
+    private byte[] oldData;
+
+    /**
+     * Create a PaxPage from the bytes of a page of a PaxFile. The page keeps
+     * data, so its contents must not be changed by the caller.
+     *
+     * @see PaxPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a PaxPage from the bytes between the position and the limit
+     * of data. They are copied, data is not kept.
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a PaxPage for tuples of td, which need not be in the Catalog
+     * (HeapFileEncoder builds pages before the table is added).
+     */
+    PaxPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (data.length != pageSize) {
+            throw new IOException("page of " + data.length + " bytes, expected " + pageSize);
+        }
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.shared = true;
+
+        numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        headerSize = (numSlots + 7) / 8;
+        columnOffsets = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < columnOffsets.length; j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        tuples = new Tuple[numSlots];
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the offset of field j of slot i within the page
+     */
+    private int valueOffset(int i, int j) {
+        return columnOffsets[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] >> (i % 8) & 1) == 1;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int num = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() != 0;
+    }
+
+    private Field parse(int i, int j) {
+        try {
+            return td.getFieldType(j).parse(buf, valueOffset(i, j));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty.
+     */
+    private Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, parse(i, j));
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                writableData();
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(buf, valueOffset(i, j));
+                }
+                data[i / 8] |= (byte) (1 << (i % 8));
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                return;
+            }
+        }
+        throw new DbException("no empty slots");
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid)) {
+            throw new DbException("tuple could not be found");
+        }
+        int i = rid.tupleno();
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            throw new DbException("tuple slot is empty");
+        }
+        writableData();
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = valueOffset(i, j);
+            Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+        }
+        data[i / 8] &= (byte) ~(1 << (i % 8));
+        t.setRecordId(null);
+        tuples[i] = null;
+    }
+
+    /**
+     * Takes the before-image if this is the first change since the last
+     * one, and replaces data with a private copy if it is shared.
+     */
+    private void writableData() {
+        if (oldData == null) {
+            oldData = data;
+            shared = true;
+        }
+        if (shared) {
+            data = data.clone();
+            buf = ByteBuffer.wrap(data);
+            shared = false;
+        }
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public synchronized PaxPage getBeforeImage() {
+        try {
+            byte[] image = oldData;
+            if (image == null) {
+                image = data;
+                shared = true;
+            }
+            return new PaxPage(pid, image, td);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyTid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int slot) {
+                while (slot < numSlots && !isSlotUsed(slot)) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that have only the
+     * given fields, in the given order; their RecordIds are those of the
+     * full tuples. The values of each field are decoded together, from
+     * their contiguous part of the page, and the other fields are not
+     * read.
+     *
+     * @param columns   the indexes of the fields to return
+     * @param projected the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(final int[] columns, final TupleDesc projected) {
+        final int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                slots[n++] = i;
+            }
+        }
+        final Field[][] values = new Field[columns.length][n];
+        for (int c = 0; c < columns.length; c++) {
+            Field[] column = values[c];
+            for (int k = 0; k < n; k++) {
+                column[k] = parse(slots[k], columns[c]);
+            }
+        }
+        final int count = n;
+        return new Iterator<Tuple>() {
+            private int k = 0;
+
+            public boolean hasNext() {
+                return k < count;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(projected);
+                for (int c = 0; c < columns.length; c++) {
+                    t.setField(c, values[c][k]);
+                }
+                t.setRecordId(new RecordId(pid, slots[k]));
+                k++;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -77,9 +77,8 @@ public class RecordId implements Serializable {
      */
     @Override
     public int hashCode() {
-    	//concatenate hashcode of the pageId and tupleno 
-        String result = pid.hashCode()+Integer.toString(tupleno);
-        return Integer.parseInt(result);
+    	//combine hashcode of the pageId and tupleno
+        return 31 * pid.hashCode() + tupleno;
     }
 
 }
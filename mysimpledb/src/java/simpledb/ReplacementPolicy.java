@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room for a new page. The BufferPool reports every page that enters,
+ * is accessed in, or leaves the pool, and asks the policy for a victim
+ * when the pool is full.
+ * <p/>
+ * pageAccessed may be called concurrently with any other method and
+ * should be cheap. The other methods are only called while the BufferPool
+ * monitor is held.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Decides whether a page may be evicted right now, e.g. because it is
+     * not dirty.
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when a page is brought into the buffer pool.
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called on every request for a page that is already in the buffer pool.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, whether it was chosen by
+     * {@link #chooseVictim} or discarded by the BufferPool.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Chooses the page to evict among the pages in the pool that the filter
+     * accepts. The chosen page stays tracked until {@link #pageRemoved} is
+     * called for it.
+     *
+     * @param filter decides which pages may be evicted
+     * @return the page to evict, or null if no page may be evicted
+     */
+    public PageId chooseVictim(Evictable filter);
+}
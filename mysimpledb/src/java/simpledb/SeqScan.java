@@ -16,6 +16,8 @@ public class SeqScan implements DbIterator {
     private final String tableAlias;
     private final DbFile f;
     private final DbFileIterator it;
+    private final int[] columns;	//fields returned, null for all
+    private final Predicate predicate;	//null for all tuples
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -36,6 +38,56 @@ public class SeqScan implements DbIterator {
         this.tableAlias=tableAlias;
         this.f=Database.getCatalog().getDatabaseFile(tableid);
         this.it=f.iterator(tid);
+        this.columns=null;
+        this.predicate=null;
+    }
+
+    /**
+     * Creates a sequential scan that returns only some fields of the tuples
+     * of a table, in the given order. The table must be a HeapFile.
+     *
+     * @param columns the indexes of the fields to return
+     * @see HeapFile#iterator(TransactionId, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples that satisfy
+     * predicate, with only some of their fields if columns is not null. The
+     * table must be a HeapFile. The field of the predicate is an index into
+     * the returned tuples; if it is an INT field, the pages that the table's
+     * zone map rules out are not read at all.
+     *
+     * @param columns   the indexes of the fields to return, or null for all
+     * @param predicate the predicate the returned tuples satisfy
+     * @see HeapFile#iterator(TransactionId, int[], Predicate)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns, Predicate predicate) {
+        this.tid=tid;
+        this.tableid=tableid;
+        this.tableAlias=tableAlias;
+        this.f=Database.getCatalog().getDatabaseFile(tableid);
+        this.it=((HeapFile)f).iterator(tid, columns, predicate);
+        this.columns=columns==null ? null : columns.clone();
+        this.predicate=predicate;
+    }
+
+    /**
+     * Creates a scan that returns the tuples of it, which iterates over
+     * (some of) the tuples of a table, e.g. an index lookup.
+     *
+     * @see IndexScan
+     */
+    protected SeqScan(TransactionId tid, int tableid, String tableAlias, DbFileIterator it) {
+        this.tid=tid;
+        this.tableid=tableid;
+        this.tableAlias=tableAlias;
+        this.f=Database.getCatalog().getDatabaseFile(tableid);
+        this.it=it;
+        this.columns=null;
+        this.predicate=null;
     }
 
     /**
@@ -46,6 +98,28 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the predicate pushed into this scan, or null if it returns all
+     * tuples
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -72,6 +146,9 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc orig = Database.getCatalog().getTupleDesc(tableid);
+        if(columns!=null){
+        	orig = ((HeapFile)f).getTupleDesc(columns);
+        }
         TupleDesc result;
         Type[] resultType = new Type[orig.numFields()];			//new array of field types
         String[] resultField = new String[orig.numFields()];	//new array of field names
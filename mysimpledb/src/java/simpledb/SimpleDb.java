@@ -5,8 +5,15 @@ import java.io.*;
 public class SimpleDb {
     public static void main(String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
+        // convert a file: convert [-slotted|-pax|-sort=field|--parallel[=threads]] file.txt numFields [types [separator]]
         if (args[0].equals("convert")) {
+            String format = args.length > 1 && args[1].startsWith("-") ? args[1] : null;
+            if (format != null) {
+                String[] rest = new String[args.length - 1];
+                rest[0] = args[0];
+                System.arraycopy(args, 2, rest, 1, args.length - 2);
+                args = rest;
+            }
             try {
                 if (args.length < 3 || args.length > 5) {
                     System.err.println("Unexpected number of arguments to convert ");
@@ -43,8 +50,25 @@ public class SimpleDb {
                         fieldSeparator = args[4].charAt(0);
                 }
 
-                HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                if ("-slotted".equals(format))
+                    HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile, ts, fieldSeparator);
+                else if ("-pax".equals(format))
+                    HeapFileEncoder.convertPax(sourceTxtFile, targetDatFile, ts, fieldSeparator);
+                else if (format != null && format.startsWith("-sort="))
+                    HeapFileEncoder.convertSorted(sourceTxtFile, targetDatFile, BufferPool.getPageSize(),
+                            numOfAttributes, ts, fieldSeparator, Integer.parseInt(format.substring("-sort=".length())));
+                else if (format != null && format.matches("--parallel(=[0-9]+)?")) {
+                    int threads = format.contains("=")
+                            ? Integer.parseInt(format.substring("--parallel=".length()))
+                            : Runtime.getRuntime().availableProcessors();
+                    new BulkLoader(ts, fieldSeparator, BufferPool.getPageSize(), Math.max(1, threads))
+                            .convert(sourceTxtFile, targetDatFile);
+                } else if (format != null) {
+                    System.err.println("Unknown format " + format);
+                    return;
+                } else
+                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
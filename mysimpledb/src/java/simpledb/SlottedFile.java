@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedFile is a HeapFile whose pages are SlottedPages: tuples are stored
+ * as variable-length records, so strings do not take Type.STRING_LEN bytes
+ * each. Everything but the page format (free space map, extents, the
+ * memory-mapped read path, iterators) is the same as in HeapFile.
+ * <p/>
+ * HeapFileEncoder.convertSlotted writes such files, and a table is opened as
+ * a SlottedFile by adding "slotted" after its schema in the catalog file.
+ *
+ * @see SlottedPage
+ * @see Catalog#loadSchema
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    @Override
+    protected int recordLength(Tuple t) {
+        return SlottedPage.recordLength(t);
+    }
+
+    @Override
+    protected boolean storesHeapPages() {
+        return false;
+    }
+}
@@ -0,0 +1,397 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores the tuples of a SlottedFile as variable-length records.
+ * Strings take the room of their characters rather than Type.STRING_LEN
+ * bytes, so tables with short strings fit several times more tuples per page
+ * than in a HeapPage.
+ * <p/>
+ * The page starts with a header of two unsigned shorts: the number of slots
+ * and the offset of the first record byte (0 stands for the end of the page,
+ * so an all-zero page is an empty page). A slot directory with one (offset,
+ * length) pair of unsigned shorts per slot follows; an offset of 0 marks an
+ * empty slot. Records are stored from the end of the page towards the slot
+ * directory. A record has its fields one after the other: an int as 4 bytes,
+ * a string as an unsigned short length followed by its characters.
+ * <p/>
+ * The slot of a tuple never changes while it is stored on the page, so its
+ * RecordId stays valid; when the free space in the middle of the page is too
+ * small for a new record, the records are moved together, not their slots.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+
+    //the bytes of the page, updated in place by insertTuple and deleteTuple
+    private byte[] data;
+    private ByteBuffer buf;		//wraps data
+    //data is also the before-image, or the caller's array, and has to be
+    //copied before it is changed, see writableData()
+    private boolean shared;
+
+    private int numSlots;
+    private int freeEnd;		//offset of the first record byte
+    private int usedBytes;		//bytes taken by the records of used slots
+    private Tuple[] tuples;		//null for empty slots and slots not decoded yet
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    //the before-image, or null while the page has not been changed since it
+    //was read or since setBeforeImage(): then it is the page itself
+    private byte[] oldData;
+
+    /**
+     * Create a SlottedPage from the bytes of a page of a SlottedFile. The
+     * page keeps data, so its contents must not be changed by the caller.
+     *
+     * @see SlottedPage
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage from the bytes between the position and the limit
+     * of data. They are copied, data is not kept.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage for tuples of td, which need not be in the
+     * Catalog (HeapFileEncoder builds pages before the table is added).
+     */
+    SlottedPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (data.length != pageSize) {
+            throw new IOException("page of " + data.length + " bytes, expected " + pageSize);
+        }
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.shared = true;
+
+        numSlots = buf.getShort(0) & 0xffff;
+        freeEnd = buf.getShort(2) & 0xffff;
+        if (freeEnd == 0) {
+            freeEnd = pageSize;
+        }
+        if (slotOffset(numSlots) > freeEnd) {
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                usedBytes += recordLength(i);
+            }
+        }
+        tuples = new Tuple[numSlots];
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a SlottedPage
+     */
+    public static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                len += 2 + stringLength((StringField) t.getField(i));
+            } else {
+                len += td.getFieldType(i).getLen();
+            }
+        }
+        return len;
+    }
+
+    private static int stringLength(StringField f) {
+        return Math.min(f.getValue().length(), Type.STRING_LEN);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int recordOffset(int slot) {
+        return buf.getShort(slotOffset(slot)) & 0xffff;
+    }
+
+    private int recordLength(int slot) {
+        return buf.getShort(slotOffset(slot) + 2) & 0xffff;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && recordOffset(i) != 0;
+    }
+
+    /**
+     * @return the number of slots in the slot directory, used or not
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return the number of bytes not taken by the header, the slot
+     * directory or records; some of them may be between records
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - slotOffset(numSlots) - usedBytes;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int need = recordLength(t);
+        if (firstEmptySlot() == numSlots) {
+            need += SLOT_SIZE;
+        }
+        return need <= getFreeSpace();
+    }
+
+    /**
+     * Returns the tuple in slot slotId, or null if the slot is empty.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td);
+            int offset = recordOffset(slotId);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    int len = buf.getShort(offset) & 0xffff;
+                    t.setField(i, new StringField(new String(data, offset + 2, len), Type.STRING_LEN));
+                    offset += 2 + len;
+                } else {
+                    t.setField(i, new IntField(buf.getInt(offset)));
+                    offset += td.getFieldType(i).getLen();
+                }
+            }
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("not enough room on page " + pid.pageNumber());
+        }
+        writableData();
+        int len = recordLength(t);
+        int slot = firstEmptySlot();
+        int directoryEnd = slotOffset(slot == numSlots ? numSlots + 1 : numSlots);
+        if (freeEnd - len < directoryEnd) {
+            compact();
+        }
+        if (slot == numSlots) {
+            numSlots++;
+            tuples = Arrays.copyOf(tuples, numSlots);
+        }
+
+        freeEnd -= len;
+        int offset = freeEnd;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int slen = stringLength((StringField) f);
+                buf.putShort(offset, (short) slen);
+                for (int j = 0; j < slen; j++) {
+                    data[offset + 2 + j] = (byte) s.charAt(j);
+                }
+                offset += 2 + slen;
+            } else {
+                f.serialize(buf, offset);
+                offset += td.getFieldType(i).getLen();
+            }
+        }
+        buf.putShort(slotOffset(slot), (short) freeEnd);
+        buf.putShort(slotOffset(slot) + 2, (short) len);
+        usedBytes += len;
+        writeHeader();
+
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid)) {
+            throw new DbException("tuple could not be found");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("tuple slot is empty");
+        }
+        writableData();
+        int offset = recordOffset(slot);
+        int len = recordLength(slot);
+        Arrays.fill(data, offset, offset + len, (byte) 0);
+        buf.putInt(slotOffset(slot), 0);
+        usedBytes -= len;
+        if (offset == freeEnd) {
+            freeEnd += len;
+        }
+        t.setRecordId(null);
+        tuples[slot] = null;
+
+        //trailing empty slots are given back to the records
+        int n = numSlots;
+        while (n > 0 && !isSlotUsed(n - 1)) {
+            n--;
+        }
+        if (n < numSlots) {
+            numSlots = n;
+            tuples = Arrays.copyOf(tuples, n);
+        }
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buf.putShort(0, (short) numSlots);
+        buf.putShort(2, (short) (freeEnd == BufferPool.getPageSize() ? 0 : freeEnd));
+    }
+
+    /**
+     * Moves the records to the end of the page, so that all free space is
+     * between the slot directory and the records.
+     */
+    private void compact() {
+        int pageSize = BufferPool.getPageSize();
+        byte[] records = new byte[pageSize];
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int len = recordLength(i);
+                end -= len;
+                System.arraycopy(data, recordOffset(i), records, end, len);
+                buf.putShort(slotOffset(i), (short) end);
+            }
+        }
+        int directoryEnd = slotOffset(numSlots);
+        Arrays.fill(data, directoryEnd, end, (byte) 0);
+        System.arraycopy(records, end, data, end, pageSize - end);
+        freeEnd = end;
+    }
+
+    /**
+     * Takes the before-image if this is the first change since the last
+     * one, and replaces data with a private copy if it is shared.
+     */
+    private void writableData() {
+        if (oldData == null) {
+            oldData = data;
+            shared = true;
+        }
+        if (shared) {
+            data = data.clone();
+            buf = ByteBuffer.wrap(data);
+            shared = false;
+        }
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public synchronized SlottedPage getBeforeImage() {
+        try {
+            byte[] image = oldData;
+            if (image == null) {
+                image = data;
+                shared = true;
+            }
+            return new SlottedPage(pid, image, td);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyTid : null;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int slot) {
+                while (slot < numSlots && !isSlotUsed(slot)) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
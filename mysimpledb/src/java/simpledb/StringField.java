@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -63,6 +64,19 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buf at offset, in the format of
+     * {@link #serialize(DataOutputStream)}: maxSize + 4 bytes.
+     */
+    public void serialize(ByteBuffer buf, int offset) {
+        // value is never longer than maxSize, see the constructor
+        buf.putInt(offset, value.length());
+        offset += 4;
+        for (int i = 0; i < maxSize; i++) {
+            buf.put(offset + i, i < value.length() ? (byte) value.charAt(i) : 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
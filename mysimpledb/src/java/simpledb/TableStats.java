@@ -215,7 +215,43 @@ public class TableStats {
      */
     public double estimateScanCost(){
     	//number of pages * cost to read a page
-        return ((HeapFile)f).numPages() * this.ioCostPerPage;
+        return numPages() * this.ioCostPerPage;
+    }
+
+    private int numPages(){
+    	if(f instanceof BTreeFile){
+    		return ((BTreeFile)f).numPages();
+    	}
+    	if(f instanceof HashFile){
+    		return ((HashFile)f).numPages();
+    	}
+    	return ((HeapFile)f).numPages();
+    }
+
+    /**
+     * Estimates the cost of an IndexScan that returns the tuples of the
+     * table whose key satisfies a predicate of the given selectivity: one
+     * page per level of the tree, and the part of the leaves that holds
+     * those tuples, for a BTreeFile; the header page and at least one page
+     * of a bucket for a HashFile. The table must be an IndexedFile.
+     *
+     * @param selectivityFactor The selectivity of the predicate on the key
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor){
+    	if(f instanceof HashFile){
+    		int pages = ((HashFile)f).numPages();
+    		return (1 + Math.max(1, Math.ceil(selectivityFactor * pages))) * this.ioCostPerPage;
+    	}
+    	BTreeFile bf = (BTreeFile)f;
+    	int pages = bf.numPages();
+    	int fanout = BTreeInternalPage.maxKeys(bf.getKeyType()) + 1;
+    	//levels of a tree over that many pages, counting the root pointer
+    	int levels = 1;
+    	for(int n=pages;n>1;n=(n+fanout-1)/fanout){
+    		levels++;
+    	}
+    	return (levels + Math.ceil(selectivityFactor * pages)) * this.ioCostPerPage;
     }
 
     /**
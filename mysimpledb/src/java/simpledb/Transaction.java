@@ -55,8 +55,14 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);  // force policy, drop this as challenge problem
+                BufferPool bp = Database.getBufferPool();
+                if (bp.isForce()) {
+                    //write all the dirty pages for this transaction out
+                    bp.flushPages(tid);
+                } else {
+                    //only log them, logCommit forces the log
+                    bp.logDirtyPages(tid);
+                }
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -76,7 +76,23 @@ public class Tuple implements Serializable {
      * @return the value of the ith field, or null if it has not been set.
      */
     public Field getField(int i) {
-        return fieldAr[i];
+        Field f = fieldAr[i];
+        if (f == null) {
+            f = loadField(i);
+            fieldAr[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Called by getField() for fields that have not been set. Tuples that
+     * decode their fields on demand, like the ones a HeapPage hands out,
+     * override this to produce the value of the field.
+     *
+     * @return the value of the ith field, or null
+     */
+    protected Field loadField(int i) {
+        return null;
     }
 
     /**
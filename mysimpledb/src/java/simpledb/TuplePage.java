@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: it stores tuples of one table and can add and remove
+ * them. HeapFile manages the file and its free space and leaves the layout of
+ * the tuples on the page to the page.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * @return true if t can be added to this page with
+     * {@link #insertTuple(Tuple)}
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if there is no room for the tuple
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
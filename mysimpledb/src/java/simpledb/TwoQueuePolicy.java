@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Scan resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p/>
+ * A page read for the first time goes to the FIFO queue A1in. If it is
+ * evicted from there, only its id is remembered in the ghost queue A1out.
+ * Only a page that is read again while its id is in A1out is considered
+ * hot and goes to the main queue Am, which is managed with CLOCK. A scan
+ * that touches each page once therefore only cycles through A1in and
+ * never pushes the hot pages in Am out.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final ClockPolicy am;
+    private final int kin;		//target size of A1in
+    private final int kout;		//maximum size of A1out
+
+    /**
+     * @param numPages the capacity of the buffer pool using this policy
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param numPages the capacity of the buffer pool using this policy
+     * @param kin      the number of pages A1in may hold before its pages are
+     *                 evicted in preference to those of Am
+     * @param kout     the number of page ids remembered in A1out
+     */
+    public TwoQueuePolicy(int numPages, int kin, int kout) {
+        this.am = new ClockPolicy(numPages);
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (a1out.remove(pid)) {
+            am.pageLoaded(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        //pages in A1in are not promoted on access, correlated references
+        //of a scan must not make a page look hot
+        am.pageAccessed(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.pageRemoved(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        PageId victim = null;
+        if (a1in.size() > kin) {
+            victim = oldestIn(filter);
+        }
+        if (victim == null) {
+            victim = am.chooseVictim(filter);
+        }
+        if (victim == null) {
+            victim = oldestIn(filter);
+        }
+        return victim;
+    }
+
+    private PageId oldestIn(Evictable filter) {
+        for (PageId pid : a1in) {
+            if (filter.canEvict(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +52,21 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                byte bs[] = new byte[strLen];
+                ByteBuffer str = buf.duplicate();
+                str.position(offset + 4);
+                str.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (RuntimeException e) {
+                // underflow, or a corrupt length
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -60,4 +85,18 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Like {@link #parse(DataInputStream)}, but reads the field stored at
+     * an absolute offset of buf, e.g. directly out of a page's bytes. The
+     * position of buf is not changed.
+     *
+     * @param buf    The buffer to read from
+     * @param offset The index of the first byte of the field in buf
+     * @return a Field object of the same type as this object that has contents
+     * read from the specified buffer.
+     * @throws ParseException if the data in the buffer is not of the
+     *                        appropriate type.
+     */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
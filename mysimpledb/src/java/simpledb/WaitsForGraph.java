@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The waits-for graph of the transactions blocked on the page and table
+ * locks of a BufferPool. There is an edge from t to u if a waiting request of t
+ * cannot be granted before u releases its lock or is granted its own
+ * request. The lock managers keep the edges of their waiting requests up
+ * to date; a transaction that blocks looks for a cycle through itself
+ * with {@link #victim(TransactionId)}.
+ * <p/>
+ * Under DeadlockPolicy.WOUND_WAIT, waiting requests are recorded without
+ * their edges, so that the requests of a wounded transaction can be found
+ * and cancelled; the wounded transactions are remembered until they
+ * complete.
+ * <p/>
+ * Lock managers call in while holding their own monitor, so this class
+ * never calls a lock manager.
+ */
+class WaitsForGraph {
+
+    //for each blocked transaction, the blockers of its request in each lock
+    private final Map<TransactionId, Map<BufferPool.LockManager, Set<TransactionId>>> waits =
+            new HashMap<TransactionId, Map<BufferPool.LockManager, Set<TransactionId>>>();
+
+    //transactions wounded under WOUND_WAIT that have not completed yet
+    private final Set<TransactionId> wounded = new HashSet<TransactionId>();
+
+    /**
+     * Sets the transactions that the request of tid waiting in lm waits for.
+     */
+    synchronized void setBlockers(TransactionId tid, BufferPool.LockManager lm, Set<TransactionId> blockers) {
+        Map<BufferPool.LockManager, Set<TransactionId>> w = waits.get(tid);
+        if (w == null) {
+            w = new HashMap<BufferPool.LockManager, Set<TransactionId>>();
+            waits.put(tid, w);
+        }
+        w.put(lm, blockers);
+    }
+
+    /**
+     * Records that a request of tid waits in lm, without its edges.
+     */
+    synchronized void waitsIn(TransactionId tid, BufferPool.LockManager lm) {
+        setBlockers(tid, lm, Collections.<TransactionId>emptySet());
+    }
+
+    /**
+     * Removes the edges of the request of tid in lm, which was granted or
+     * left the queue.
+     */
+    synchronized void remove(TransactionId tid, BufferPool.LockManager lm) {
+        Map<BufferPool.LockManager, Set<TransactionId>> w = waits.get(tid);
+        if (w != null) {
+            w.remove(lm);
+            if (w.isEmpty()) {
+                waits.remove(tid);
+            }
+        }
+    }
+
+    /**
+     * @return the locks that tid waits for
+     */
+    synchronized ArrayList<BufferPool.LockManager> waitedOn(TransactionId tid) {
+        Map<BufferPool.LockManager, Set<TransactionId>> w = waits.get(tid);
+        if (w == null) {
+            return new ArrayList<BufferPool.LockManager>();
+        }
+        return new ArrayList<BufferPool.LockManager>(w.keySet());
+    }
+
+    synchronized void wound(TransactionId tid) {
+        wounded.add(tid);
+    }
+
+    synchronized boolean isWounded(TransactionId tid) {
+        return wounded.contains(tid);
+    }
+
+    /**
+     * Forgets that tid was wounded, once it completed.
+     */
+    synchronized void forget(TransactionId tid) {
+        wounded.remove(tid);
+    }
+
+    /**
+     * @return the youngest transaction (the one with the largest id) on a
+     * cycle through tid, or null if tid is not on a cycle
+     */
+    synchronized TransactionId victim(TransactionId tid) {
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        path.add(tid);
+        if (!closesCycle(tid, path, new HashSet<TransactionId>())) {
+            return null;
+        }
+        TransactionId youngest = tid;
+        for (TransactionId t : path) {
+            if (t.getId() > youngest.getId()) {
+                youngest = t;
+            }
+        }
+        return youngest;
+    }
+
+    /**
+     * Depth first search for a path from the last transaction of path back
+     * to its first, extending path with the transactions on the way.
+     */
+    private boolean closesCycle(TransactionId from, ArrayList<TransactionId> path, Set<TransactionId> visited) {
+        Map<BufferPool.LockManager, Set<TransactionId>> w = waits.get(from);
+        if (w == null) {
+            return false;
+        }
+        for (Set<TransactionId> blockers : w.values()) {
+            for (TransactionId u : blockers) {
+                if (u.equals(path.get(0))) {
+                    return true;
+                }
+                if (visited.add(u)) {
+                    path.add(u);
+                    if (closesCycle(u, path, visited)) {
+                        return true;
+                    }
+                    path.remove(path.size() - 1);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile, the smallest and the largest
+ * value of INT fields on the page, so that a scan with a predicate on such a
+ * field can skip the pages that cannot hold a match.
+ * <p/>
+ * The map lives in memory and is built lazily: a field of a page is
+ * summarized the first time a scan with a predicate on that field reads the
+ * page (or when the page is allocated empty), and pages without a summary
+ * are never skipped. After that the summary only grows: inserts and pages
+ * read or written widen it, and deletes leave it alone. It may therefore
+ * cover values that are no longer on the page, but it always covers every
+ * value that is, including those of before-images put back when a
+ * transaction aborts.
+ */
+public class ZoneMap {
+
+	private final int[] fields;		//indexes of the INT fields
+	private final int[] fieldSlot;	//position of each field in fields, or -1
+
+	//min and max of fields[k] on page p are at p*fields.length+k; a page
+	//without tuples has min > max
+	private int[] min = new int[0];
+	private int[] max = new int[0];
+	private final BitSet[] known;	//pages that have a summary, for each field
+	private final BitSet anyKnown = new BitSet();	//pages that have one for some field
+
+	/**
+	 * Creates an empty zone map for a file of tuples of td.
+	 */
+	public ZoneMap(TupleDesc td) {
+		fieldSlot = new int[td.numFields()];
+		int n = 0;
+		for(int i=0;i<fieldSlot.length;i++){
+			fieldSlot[i] = td.getFieldType(i)==Type.INT_TYPE ? n++ : -1;
+		}
+		fields = new int[n];
+		known = new BitSet[n];
+		for(int i=0;i<fieldSlot.length;i++){
+			if(fieldSlot[i]>=0){
+				fields[fieldSlot[i]] = i;
+				known[fieldSlot[i]] = new BitSet();
+			}
+		}
+	}
+
+	/**
+	 * @return true if some field of page pageNo has a summary
+	 */
+	public synchronized boolean isKnown(int pageNo) {
+		return anyKnown.get(pageNo);
+	}
+
+	/**
+	 * @return true if field of page pageNo has a summary, or cannot have one
+	 * because it is not an INT field
+	 */
+	public synchronized boolean isKnown(int pageNo, int field) {
+		int k = fieldSlot[field];
+		return k<0 || known[k].get(pageNo);
+	}
+
+	private void reset(int pageNo, int k) {
+		int start = pageNo*fields.length;
+		if(start+fields.length>min.length){
+			int length = Math.max(start+fields.length, 2*min.length);
+			min = Arrays.copyOf(min, length);
+			max = Arrays.copyOf(max, length);
+		}
+		min[start+k] = Integer.MAX_VALUE;
+		max[start+k] = Integer.MIN_VALUE;
+		known[k].set(pageNo);
+		anyKnown.set(pageNo);
+	}
+
+	/**
+	 * Starts the summaries of all fields of page pageNo over, as an empty
+	 * page.
+	 */
+	public synchronized void clear(int pageNo) {
+		for(int k=0;k<fields.length;k++){
+			reset(pageNo, k);
+		}
+	}
+
+	/**
+	 * Widens the summaries of page pageNo to cover t.
+	 */
+	public synchronized void add(int pageNo, Tuple t) {
+		if(!anyKnown.get(pageNo)){
+			return;
+		}
+		int start = pageNo*fields.length;
+		for(int k=0;k<fields.length;k++){
+			if(known[k].get(pageNo)){
+				widen(start+k, t.getField(fields[k]));
+			}
+		}
+	}
+
+	private void widen(int i, Field f) {
+		int v = ((IntField)f).getValue();
+		if(v<min[i]){
+			min[i] = v;
+		}
+		if(v>max[i]){
+			max[i] = v;
+		}
+	}
+
+	/**
+	 * Widens the summaries of page pageNo to cover the given tuples.
+	 */
+	public synchronized void addAll(int pageNo, Iterator<Tuple> tuples) {
+		if(anyKnown.get(pageNo)){
+			while(tuples.hasNext()){
+				add(pageNo, tuples.next());
+			}
+		}
+	}
+
+	/**
+	 * Summarizes field of page pageNo, if it is an INT field without a
+	 * summary, from the given tuples, which are all the tuples on the page.
+	 */
+	public synchronized void summarize(int pageNo, int field, Iterator<Tuple> tuples) {
+		int k = fieldSlot[field];
+		if(k<0 || known[k].get(pageNo)){
+			return;
+		}
+		reset(pageNo, k);
+		int i = pageNo*fields.length+k;
+		while(tuples.hasNext()){
+			widen(i, tuples.next().getField(field));
+		}
+	}
+
+	/**
+	 * Returns false if no tuple on page pageNo can satisfy p, whose field is
+	 * an index into the tuples of the file and whose operand is an IntField
+	 * if the field is an INT field. Returns true if some tuple may.
+	 */
+	public synchronized boolean mayMatch(int pageNo, Predicate p) {
+		int k = fieldSlot[p.getField()];
+		if(k<0 || !known[k].get(pageNo)){
+			return true;
+		}
+		int lo = min[pageNo*fields.length+k];
+		int hi = max[pageNo*fields.length+k];
+		if(lo>hi){
+			return false;	//no tuples
+		}
+		int v = ((IntField)p.getOperand()).getValue();
+		switch(p.getOp()){
+		case EQUALS:
+		case LIKE:
+			return lo<=v && v<=hi;
+		case GREATER_THAN:
+			return hi>v;
+		case GREATER_THAN_OR_EQ:
+			return hi>=v;
+		case LESS_THAN:
+			return lo<v;
+		case LESS_THAN_OR_EQ:
+			return lo<=v;
+		case NOT_EQUALS:
+			return lo!=v || hi!=v;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ClockPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private ClockPolicy policy;
+    private HeapPageId[] pids;
+
+    @Before
+    public void fillFrames() {
+        policy = new ClockPolicy(4);
+        pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(-1, i);
+            policy.pageLoaded(pids[i]);
+        }
+    }
+
+    /**
+     * With every reference bit set, the hand clears them all and comes
+     * back to the first frame.
+     */
+    @Test
+    public void secondChance() {
+        assertEquals(pids[0], policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockPolicy.pageAccessed(): recently accessed pages
+     * survive the sweep.
+     */
+    @Test
+    public void accessedPagesSurvive() {
+        PageId victim = policy.chooseVictim(ANY);
+        policy.pageRemoved(victim);
+        policy.pageLoaded(new HeapPageId(-1, 4));
+        policy.pageAccessed(pids[1]);
+        assertEquals(pids[2], policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Pages the filter rejects (e.g. dirty pages) are never chosen.
+     */
+    @Test
+    public void skipsUnevictable() {
+        ReplacementPolicy.Evictable onlyLast = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return pid.equals(pids[3]);
+            }
+        };
+        assertEquals(pids[3], policy.chooseVictim(onlyLast));
+
+        ReplacementPolicy.Evictable none = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        };
+        assertNull(policy.chooseVictim(none));
+    }
+
+    /**
+     * Unit test for ClockPolicy.pageRemoved(): freed frames are reused.
+     */
+    @Test
+    public void frameReuse() {
+        policy.pageRemoved(pids[2]);
+        HeapPageId pid = new HeapPageId(-1, 9);
+        policy.pageLoaded(pid);
+        for (int i = 0; i < 4; i++) {
+            PageId victim = policy.chooseVictim(ANY);
+            policy.pageRemoved(victim);
+        }
+        assertNull(policy.chooseVictim(ANY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClockPolicyTest.class);
+    }
+}
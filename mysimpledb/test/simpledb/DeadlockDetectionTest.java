@@ -0,0 +1,163 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests that deadlocks are found in the waits-for graph and broken by
+ * aborting the youngest transaction on the cycle, long before the lock
+ * timeout, and that waits without a cycle are left alone.
+ */
+public class DeadlockDetectionTest extends TestUtil.LockContention {
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        bp.setLockTimeout(10000);
+    }
+
+    /**
+     * tid1 reads p0 and tid2 reads p1; tid1 then writes p1 and tid2 writes
+     * p0. tid2, the younger one, is aborted and tid1 gets its lock.
+     */
+    @Test
+    public void twoTransactions() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(w1.acquired());
+        long begin = System.currentTimeMillis();
+        try {
+            bp.getPage(tid2, p0, Permissions.READ_WRITE);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            //expected
+        }
+        assertTrue(System.currentTimeMillis() - begin < 1000);
+        bp.transactionComplete(tid2, false);
+        w1.join(1000);
+        assertTrue(w1.acquired());
+        assertNull(w1.getError());
+    }
+
+    /**
+     * The victim is the youngest transaction on the cycle even if it is
+     * not the one that closes it.
+     */
+    @Test
+    public void youngestIsVictim() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(w2.acquired());
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        w2.join(1000);
+        assertTrue(w2.getError() instanceof TransactionAbortedException);
+        //LockGrabber aborted tid2, releasing p1
+        w1.join(1000);
+        assertTrue(w1.acquired());
+        assertNull(w1.getError());
+    }
+
+    /**
+     * A cycle of three transactions over three pages is broken by aborting
+     * only tid3.
+     */
+    @Test
+    public void threeTransactions() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        bp.getPage(tid3, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w3 = TestUtil.grab(tid3, p0, Permissions.READ_WRITE);
+        w3.join(1000);
+        assertTrue(w3.getError() instanceof TransactionAbortedException);
+        w2.join(1000);
+        assertTrue(w2.acquired());
+        assertFalse(w1.acquired());
+        bp.transactionComplete(tid2);
+        w1.join(1000);
+        assertTrue(w1.acquired());
+        assertNull(w1.getError());
+        assertNull(w2.getError());
+    }
+
+    /**
+     * a blocks on two cycles, a->b->a and a->c->b->a, since c waits for p1
+     * ahead of a. Whichever cycle is found first, a gets p1 once the victims
+     * are aborted. The ids make c the youngest and the first one searched.
+     */
+    @Test
+    public void severalCycles() throws Exception {
+        TransactionId a = new TransactionId((1L << 40) + 1);
+        TransactionId b = new TransactionId((1L << 40) + 17);
+        TransactionId c = new TransactionId((1L << 40) + 32);
+        bp.getPage(a, p0, Permissions.READ_WRITE);
+        bp.getPage(b, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber wb = TestUtil.grab(b, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber wc = TestUtil.grab(c, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber wa = TestUtil.grab(a, p1, Permissions.READ_WRITE);
+        wb.join(1000);
+        assertTrue(wb.getError() instanceof TransactionAbortedException);
+        wc.join(1000);
+        if (wc.acquired()) {
+            bp.transactionComplete(c);
+        }
+        wa.join(1000);
+        assertTrue(wa.acquired());
+        assertNull(wa.getError());
+    }
+
+    /**
+     * Transactions waiting in line for a lock are not a deadlock.
+     */
+    @Test
+    public void noCycle() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber r3 = TestUtil.grab(tid3, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber r1 = TestUtil.grab(tid1, p1, Permissions.READ_ONLY);
+        assertTrue(r1.acquired());
+        assertFalse(w2.acquired());
+        assertFalse(r3.acquired());
+        assertNull(w2.getError());
+        assertNull(r3.getError());
+        bp.transactionComplete(tid1);
+        w2.join(1000);
+        assertTrue(w2.acquired());
+        bp.transactionComplete(tid2);
+        r3.join(1000);
+        assertTrue(r3.acquired());
+    }
+
+    /**
+     * Under DeadlockPolicy.TIMEOUT, the deadlock lasts until the lock
+     * timeout.
+     */
+    @Test
+    public void timeoutPolicy() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.TIMEOUT);
+        bp.setLockTimeout(500);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        assertNull(w1.getError());
+        assertNull(w2.getError());
+        w1.join(1000);
+        assertTrue(w1.getError() instanceof TransactionAbortedException);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockDetectionTest.class);
+    }
+}
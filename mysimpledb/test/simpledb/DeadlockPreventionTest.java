@@ -0,0 +1,140 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests the WAIT_DIE and WOUND_WAIT deadlock prevention policies. tid1 is
+ * older than tid2, which is older than tid3.
+ */
+public class DeadlockPreventionTest extends TestUtil.LockContention {
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        bp.setLockTimeout(10000);
+    }
+
+    private void assertAborts(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        try {
+            bp.getPage(tid, pid, perm);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            //expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * Under WAIT_DIE, an older transaction waits for a younger one.
+     */
+    @Test
+    public void olderWaits() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        bp.getPage(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(w1.acquired());
+        assertNull(w1.getError());
+        bp.transactionComplete(tid2);
+        w1.join(1000);
+        assertTrue(w1.acquired());
+    }
+
+    /**
+     * Under WAIT_DIE, a younger transaction that would wait for an older
+     * one, holding or queued, dies right away.
+     */
+    @Test
+    public void youngerDies() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        bp.getPage(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p0, Permissions.READ_WRITE);
+        assertAborts(tid3, p0, Permissions.READ_ONLY);
+        assertFalse(w1.acquired());
+        assertNull(w1.getError());
+    }
+
+    /**
+     * Under WAIT_DIE, the younger transaction of a deadlock dies when it
+     * closes the cycle, and the older one gets its lock.
+     */
+    @Test
+    public void waitDieDeadlock() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(w1.acquired());
+        assertAborts(tid2, p0, Permissions.READ_WRITE);
+        w1.join(1000);
+        assertTrue(w1.acquired());
+        assertNull(w1.getError());
+    }
+
+    /**
+     * Under WOUND_WAIT, a younger transaction waits for an older one.
+     */
+    @Test
+    public void youngerWaits() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(w2.acquired());
+        assertNull(w2.getError());
+        bp.transactionComplete(tid1);
+        w2.join(1000);
+        assertTrue(w2.acquired());
+    }
+
+    /**
+     * Under WOUND_WAIT, an older transaction wounds the younger one it
+     * waits for, which is aborted at its next lock request, even for a
+     * lock it holds.
+     */
+    @Test
+    public void woundedAtNextRequest() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        bp.getPage(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(w1.acquired());
+        assertAborts(tid2, p0, Permissions.READ_ONLY);
+        w1.join(1000);
+        assertTrue(w1.acquired());
+
+        //the mark is forgotten once tid2 completed
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid2, p1));
+    }
+
+    /**
+     * Under WOUND_WAIT, the younger transaction of a deadlock is wounded
+     * while it waits, and the older one gets its lock.
+     */
+    @Test
+    public void woundWaitDeadlock() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber w2 = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(w2.acquired());
+        assertNull(w2.getError());
+        TestUtil.LockGrabber w1 = TestUtil.grab(tid1, p1, Permissions.READ_WRITE);
+        w2.join(1000);
+        assertTrue(w2.getError() instanceof TransactionAbortedException);
+        //LockGrabber aborted tid2, releasing p1
+        w1.join(1000);
+        assertTrue(w1.acquired());
+        assertNull(w1.getError());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockPreventionTest.class);
+    }
+}
@@ -80,6 +80,46 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(expected, page.getPageData());
+
+        // writes are visible through the mapping
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertArrayEquals(page.getPageData(), hf.readPage(pid).getPageData());
+
+        // pages appended after the file was mapped can be read too
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        hf.writePage(empty);
+        assertEquals(504, ((HeapPage) hf.readPage(empty.getId())).getNumEmptySlots());
+    }
+
+    /**
+     * Tuples of a memory-mapped page are decoded lazily from the mapping;
+     * they keep their values when the page is overwritten in the file.
+     */
+    @Test
+    public void mappedTuplesSurviveWrites() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Tuple expected = ((HeapPage) hf.readPage(pid)).iterator().next();
+        hf.setMemoryMapped(true);
+        Tuple t = ((HeapPage) hf.readPage(pid)).iterator().next();
+
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        for (int i = 0; i < td.numFields(); i++) {
+            assertEquals(expected.getField(i), t.getField(i));
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -47,6 +49,113 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.setExtentPages(): the file grows by whole
+     * extents, but only pages in use are counted, also after reopening it.
+     */
+    @Test
+    public void extents() throws Exception {
+        empty.setExtentPages(4);
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        assertEquals(5 * BufferPool.getPageSize(), empty.getFile().length());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(3, reopened.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.numPages() after reopening a file: empty pages
+     * at the end of the file are counted, whether the file was written
+     * without extents or a delete emptied its last page in use; only the
+     * unused pages of the last extent are not.
+     */
+    @Test
+    public void emptyLastPage() throws Exception {
+        empty = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(1, empty.numPages());
+
+        empty.setExtentPages(4);
+        Tuple last = null;
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            last = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, empty.getId(), last);
+        }
+        assertEquals(2, last.getRecordId().getPageId().pageNumber());
+        Database.getBufferPool().deleteTuple(tid, last);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(5 * BufferPool.getPageSize(), empty.getFile().length());
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(3, reopened.numPages());
+        reopened.setExtentPages(4);
+        tid = new TransactionId();
+        for (int i = 0; i < 504 * 3; ++i) {
+            Database.getBufferPool().insertTuple(tid, reopened.getId(), Utility.getHeapTuple(i, 2));
+        }
+        //the rest of the extent, the tail page included
+        assertEquals(5, reopened.numPages());
+        assertEquals(5 * BufferPool.getPageSize(), empty.getFile().length());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(5, Utility.openHeapFile(2, empty.getFile()).numPages());
+    }
+
+    /**
+     * Unit test for the free space map of HeapFile: a page that an aborted
+     * transaction filled is used again by the next insert.
+     */
+    @Test
+    public void abortedInsertsFreePage() throws Exception {
+        TransactionId filler = new TransactionId();
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(filler, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        Database.getBufferPool().transactionComplete(filler, false);
+
+        Tuple t = Utility.getHeapTuple(0, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.writePage() from an interrupted thread: the
+     * interrupt closes the file channel, but the write still completes,
+     * the thread stays interrupted, and the file can be read afterwards.
+     */
+    @Test
+    public void interruptedWrite() throws Exception {
+        final HeapPage page = new HeapPage(new HeapPageId(empty.getId(), 0),
+                HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        final boolean[] interrupted = new boolean[1];
+        final IOException[] error = new IOException[1];
+        Thread writer = new Thread() {
+            public void run() {
+                Thread.currentThread().interrupt();
+                try {
+                    empty.writePage(page);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        writer.start();
+        writer.join();
+        assertNull(error[0]);
+        assertTrue(interrupted[0]);
+
+        Page read = empty.readPage(page.getId());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -130,6 +132,69 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * getPageData() reflects inserts and deletes, and leaves the bytes the
+     * page was created from alone.
+     */
+    @Test
+    public void pageDataUpdatedInPlace() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[]{7, 8});
+        page.insertTuple(addition);
+        assertTrue(Arrays.equals(original, HeapPageReadTest.EXAMPLE_DATA));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = copy.iterator();
+        boolean found = false;
+        while (it.hasNext()) {
+            found |= TestUtil.compareTuples(addition, it.next());
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * A tuple handed out by the page keeps its values after its slot is
+     * deleted and reused, even if its fields had not been read yet.
+     */
+    @Test
+    public void viewSurvivesSlotReuse() throws Exception {
+        HeapPage reference = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple expected = reference.iterator().next();
+        expected.getField(0);
+        expected.getField(1);
+
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple view = page.iterator().next();
+        page.deleteTuple(view);
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        assertTrue(TestUtil.compareTuples(expected, view));
+    }
+
+    /**
+     * The before-image is the page as of its first change after it was
+     * read, or after the last setBeforeImage().
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.deleteTuple(page.iterator().next());
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,115 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests the order in which waiting lock requests are granted, how soon
+ * their threads are woken and the lock timeout.
+ */
+public class LockQueueTest extends TestUtil.LockContention {
+
+    /**
+     * A waiting transaction gets the lock as soon as it is released.
+     */
+    @Test
+    public void wokenOnRelease() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        long begin = System.nanoTime();
+        bp.transactionComplete(tid1);
+        t.join(1000);
+        assertTrue(t.acquired());
+        assertTrue((System.nanoTime() - begin) / 1000000 < 50);
+    }
+
+    /**
+     * A reader arriving behind a waiting writer waits for it, even though
+     * the lock is only shared when it arrives.
+     */
+    @Test
+    public void writerNotOvertaken() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = TestUtil.grab(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = TestUtil.grab(tid3, p0, Permissions.READ_ONLY);
+        assertFalse(writer.acquired());
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(tid1);
+        writer.join(1000);
+        assertTrue(writer.acquired());
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(tid2);
+        reader.join(1000);
+        assertTrue(reader.acquired());
+        assertNull(writer.getError());
+        assertNull(reader.getError());
+    }
+
+    /**
+     * Readers waiting together at the head of the queue get the lock
+     * together.
+     */
+    @Test
+    public void readersGrantedTogether() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber r2 = TestUtil.grab(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber r3 = TestUtil.grab(tid3, p0, Permissions.READ_ONLY);
+        bp.transactionComplete(tid1);
+        r2.join(1000);
+        r3.join(1000);
+        assertTrue(r2.acquired());
+        assertTrue(r3.acquired());
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertTrue(bp.holdsLock(tid3, p0));
+    }
+
+    /**
+     * Of two readers upgrading, the second one is aborted right away, and
+     * the first one gets the lock when the second one completes.
+     */
+    @Test
+    public void conflictingUpgrades() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber u1 = TestUtil.grab(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(u1.acquired());
+        try {
+            bp.getPage(tid2, p0, Permissions.READ_WRITE);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            //expected
+        }
+        bp.transactionComplete(tid2, false);
+        u1.join(1000);
+        assertTrue(u1.acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+    }
+
+    /**
+     * A transaction is aborted after waiting for the lock timeout.
+     */
+    @Test
+    public void timeout() throws Exception {
+        bp.setLockTimeout(300);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = TestUtil.grab(tid2, p0, Permissions.READ_ONLY);
+        assertNull(t.getError());
+        t.join(1000);
+        assertFalse(t.acquired());
+        assertTrue(t.getError() instanceof TransactionAbortedException);
+        assertFalse(bp.holdsLock(tid2, p0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
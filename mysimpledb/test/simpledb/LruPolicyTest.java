@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LruPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private LruPolicy policy;
+    private HeapPageId[] pids;
+
+    @Before
+    public void loadPages() {
+        policy = new LruPolicy();
+        pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(-1, i);
+            policy.pageLoaded(pids[i]);
+        }
+    }
+
+    /**
+     * Without accesses, pages are evicted in the order they were loaded.
+     */
+    @Test
+    public void loadOrder() {
+        for (int i = 0; i < pids.length; i++) {
+            PageId victim = policy.chooseVictim(ANY);
+            assertEquals(pids[i], victim);
+            policy.pageRemoved(victim);
+        }
+        assertNull(policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruPolicy.pageAccessed(): pages are evicted least
+     * recently used first.
+     */
+    @Test
+    public void accessOrder() {
+        policy.pageAccessed(pids[0]);
+        policy.pageAccessed(pids[2]);
+        policy.pageAccessed(pids[1]);
+        HeapPageId[] expected = {pids[3], pids[0], pids[2], pids[1]};
+        for (HeapPageId pid : expected) {
+            PageId victim = policy.chooseVictim(ANY);
+            assertEquals(pid, victim);
+            policy.pageRemoved(victim);
+        }
+    }
+
+    /**
+     * Unit test for LruPolicy.pageRemoved(): a removed page is not chosen,
+     * and an access to it does not bring it back.
+     */
+    @Test
+    public void removedPages() {
+        policy.pageRemoved(pids[0]);
+        policy.pageAccessed(pids[0]);
+        assertEquals(pids[1], policy.chooseVictim(ANY));
+
+        //loaded again, it is the most recently used page
+        policy.pageLoaded(pids[0]);
+        for (int i = 1; i < pids.length; i++) {
+            policy.pageRemoved(policy.chooseVictim(ANY));
+        }
+        assertEquals(pids[0], policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Pages the filter rejects (e.g. dirty pages) are never chosen; the
+     * least recently used page among the others is.
+     */
+    @Test
+    public void skipsUnevictable() {
+        ReplacementPolicy.Evictable notFirst = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return !pid.equals(pids[0]);
+            }
+        };
+        assertEquals(pids[1], policy.chooseVictim(notFirst));
+
+        ReplacementPolicy.Evictable none = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        };
+        assertNull(policy.chooseVictim(none));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LruPolicyTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before
+    public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = Utility.getTupleDesc(3);
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private PaxPage fullPage() throws Exception {
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[]{i, 10 * i, 100 * i}));
+        }
+        return page;
+    }
+
+    /**
+     * A PaxPage holds as many tuples as a HeapPage, and the values of a
+     * field are stored next to each other.
+     */
+    @Test
+    public void layout() throws Exception {
+        PaxPage page = fullPage();
+        int slots = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        assertEquals(0, page.getNumEmptySlots());
+
+        byte[] data = page.getPageData();
+        int header = (slots + 7) / 8;
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(data);
+        // slots 0 and 1 of the second field
+        assertEquals(10, buf.getInt(header + slots * 4 + 4));
+        assertEquals(20, buf.getInt(header + slots * 4 + 8));
+    }
+
+    /**
+     * Full tuples and projected tuples are read back from the page's bytes.
+     */
+    @Test
+    public void iterators() throws Exception {
+        PaxPage page = new PaxPage(pid, fullPage().getPageData());
+        Iterator<Tuple> it = page.iterator();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[]{n, 10 * n, 100 * n}), t));
+            n++;
+        }
+
+        TupleDesc projected = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+        it = page.iterator(new int[]{2, 0}, projected);
+        int m = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(projected, t.getTupleDesc());
+            assertEquals(100 * m, ((IntField) t.getField(0)).getValue());
+            assertEquals(m, ((IntField) t.getField(1)).getValue());
+            assertEquals(new RecordId(pid, m), t.getRecordId());
+            m++;
+        }
+        assertEquals(n, m);
+    }
+
+    /**
+     * Deleted tuples leave empty slots, which are reused.
+     */
+    @Test
+    public void deleteTuple() throws Exception {
+        PaxPage page = fullPage();
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        assertEquals(1, page.getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(new int[]{-1, -2, -3}));
+
+        Tuple t = new PaxPage(pid, page.getPageData()).iterator().next();
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[]{-1, -2, -3}), t));
+        try {
+            page.deleteTuple(first);
+            throw new Exception("tuple was deleted; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests the record locks taken by inserts and deletes under record
+ * locking: writers of different records of a page run side by side, and
+ * commit or abort only their own changes.
+ */
+public class RecordLockTest extends TestUtil.LockContention {
+
+    public RecordLockTest() {
+        //20 tuples on page 0, which has room for many more
+        super(20);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        bp.setRecordLocking(true);
+    }
+
+    /**
+     * @return the tuples on page 0, read without locks
+     */
+    private ArrayList<Tuple> tuples() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(null, p0, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    private Tuple tuple(int value) {
+        Tuple t = new Tuple(empty.getTupleDesc());
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private boolean contains(int value) throws Exception {
+        for (Tuple t : tuples()) {
+            if (((IntField) t.getField(0)).getValue() == value
+                    && ((IntField) t.getField(1)).getValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Two transactions change records of the same page without waiting
+     * for each other.
+     */
+    @Test
+    public void writersShareAPage() throws Exception {
+        ArrayList<Tuple> before = tuples();
+        bp.deleteTuple(tid1, before.get(0));
+        bp.deleteTuple(tid2, before.get(1));
+        bp.insertTuple(tid1, empty.getId(), tuple(-1));
+        bp.insertTuple(tid2, empty.getId(), tuple(-2));
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+        assertEquals(20, tuples().size());
+        assertTrue(contains(-1));
+        assertTrue(contains(-2));
+    }
+
+    /**
+     * A delete of a record another transaction deleted waits for it.
+     */
+    @Test
+    public void sameRecordWaits() throws Exception {
+        Tuple t = tuples().get(0);
+        //the delete clears the RecordId of t
+        final Tuple again = tuple(0);
+        again.setRecordId(t.getRecordId());
+        bp.deleteTuple(tid1, t);
+        TestUtil.LockGrabber d = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE) {
+            public void run() {
+                try {
+                    bp.deleteTuple(tid, again);
+                } catch (Exception e) {
+                    synchronized (elock) {
+                        error = e;
+                    }
+                    return;
+                }
+                synchronized (alock) {
+                    acquired = true;
+                }
+            }
+        };
+        d.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(d.acquired());
+        assertNull(d.getError());
+        //the slot is empty once tid1 commits
+        bp.transactionComplete(tid1);
+        d.join(1000);
+        assertTrue(d.getError() instanceof DbException);
+    }
+
+    /**
+     * An abort undoes the changes of its transaction only, on a page
+     * another transaction changed too.
+     */
+    @Test
+    public void abortUndoesOwnChanges() throws Exception {
+        ArrayList<Tuple> before = tuples();
+        bp.deleteTuple(tid1, before.get(0));
+        bp.insertTuple(tid1, empty.getId(), tuple(-1));
+        bp.insertTuple(tid2, empty.getId(), tuple(-2));
+        bp.transactionComplete(tid1, false);
+        assertEquals(21, tuples().size());
+        assertFalse(contains(-1));
+        bp.transactionComplete(tid2);
+        assertEquals(21, tuples().size());
+        assertTrue(contains(-2));
+    }
+
+    /**
+     * An abort by the only writer of a page restores its committed
+     * contents.
+     */
+    @Test
+    public void abortRestoresPage() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), tuple(-1));
+        bp.transactionComplete(tid1);
+        bp.deleteTuple(tid3, tuples().get(0));
+        bp.insertTuple(tid3, empty.getId(), tuple(-3));
+        bp.transactionComplete(tid3, false);
+        assertEquals(21, tuples().size());
+        assertTrue(contains(-1));
+        assertFalse(contains(-3));
+    }
+
+    /**
+     * An insert skips a free slot that is still locked by the delete that
+     * emptied it, which may be undone.
+     */
+    @Test
+    public void insertSkipsLockedSlot() throws Exception {
+        Tuple t = tuples().get(0);
+        RecordId rid = t.getRecordId();
+        bp.deleteTuple(tid1, t);
+        Tuple inserted = tuple(-2);
+        bp.insertTuple(tid2, empty.getId(), inserted);
+        assertFalse(rid.equals(inserted.getRecordId()));
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2);
+        assertEquals(21, tuples().size());
+    }
+
+    /**
+     * Readers of the page wait for its record writers, so that they do not
+     * see uncommitted changes.
+     */
+    @Test
+    public void readerWaitsForWriters() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), tuple(-1));
+        TestUtil.LockGrabber r = TestUtil.grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(r.acquired());
+        bp.transactionComplete(tid1);
+        r.join(1000);
+        assertTrue(r.acquired());
+    }
+
+    /**
+     * The log holds the committed changes of a page changed by several
+     * transactions: recovery redoes the committed ones and not the others.
+     */
+    @Test
+    public void recoverCommittedChanges() throws Exception {
+        bp.setForce(false);
+        Transaction t1 = new Transaction();
+        Transaction t2 = new Transaction();
+        t1.start();
+        t2.start();
+        bp.insertTuple(t1.getId(), empty.getId(), tuple(-1));
+        bp.insertTuple(t2.getId(), empty.getId(), tuple(-2));
+        t1.commit();
+        //crash with t2 running and page 0 in the buffer pool only
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(21, tuples().size());
+        assertTrue(contains(-1));
+        assertFalse(contains(-2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockTest.class);
+    }
+}
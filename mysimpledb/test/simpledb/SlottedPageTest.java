@@ -0,0 +1,141 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before
+    public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private ArrayList<Tuple> tuples(SlottedPage page) {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    /**
+     * Tuples written to a page are read back from its bytes.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, tuples(page).size());
+        page.insertTuple(tuple(1, "Alien"));
+        page.insertTuple(tuple(2, ""));
+        page.insertTuple(tuple(3, "The Good, the Bad and the Ugly"));
+
+        ArrayList<Tuple> read = tuples(new SlottedPage(pid, page.getPageData()));
+        assertEquals(3, read.size());
+        assertTrue(TestUtil.compareTuples(tuple(1, "Alien"), read.get(0)));
+        assertTrue(TestUtil.compareTuples(tuple(2, ""), read.get(1)));
+        assertTrue(TestUtil.compareTuples(tuple(3, "The Good, the Bad and the Ugly"), read.get(2)));
+        assertEquals(new RecordId(pid, 2), read.get(2).getRecordId());
+    }
+
+    /**
+     * Short strings take the room of their characters: many more tuples
+     * fit than on a HeapPage, which holds 30 of them.
+     */
+    @Test
+    public void density() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "title " + n))) {
+            page.insertTuple(tuple(n, "title " + n));
+            n++;
+        }
+        assertTrue(n > 3 * 30);
+        try {
+            page.insertTuple(tuple(n, "title " + n));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Slots of deleted tuples are reused, the room of their records is
+     * recovered by compaction, and other tuples keep their RecordIds.
+     */
+    @Test
+    public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        String longString = new String(new char[100]).replace('\0', 'x');
+        while (page.hasRoomFor(tuple(0, longString))) {
+            page.insertTuple(tuple(page.getNumSlots(), longString));
+        }
+        int slots = page.getNumSlots();
+        ArrayList<Tuple> all = tuples(page);
+        for (int i = 0; i < all.size(); i += 2) {
+            page.deleteTuple(all.get(i));
+        }
+        // every other record is free, but none is at the start of the records
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(-1, longString))) {
+            page.insertTuple(tuple(-1, longString));
+            inserted++;
+        }
+        assertEquals((slots + 1) / 2, inserted);
+        assertEquals(slots, page.getNumSlots());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        for (Tuple t : tuples(copy)) {
+            int slot = t.getRecordId().tupleno();
+            int expected = slot % 2 == 0 ? -1 : slot;
+            assertEquals(expected, ((IntField) t.getField(0)).getValue());
+        }
+    }
+
+    /**
+     * The before-image is the page as of its first change.
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.insertTuple(tuple(2, "b"));
+        assertTrue(Arrays.equals(before, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(before, page.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
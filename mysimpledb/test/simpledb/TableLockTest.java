@@ -0,0 +1,152 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests the table locks taken above the page locks: intention locks,
+ * table locks taken by scans, and the escalation of page locks.
+ */
+public class TableLockTest extends TestUtil.LockContention {
+
+    private void scan(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+
+    /**
+     * Writers of different pages of a table both hold it in IX.
+     */
+    @Test
+    public void intentionLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+        assertTrue(bp.holdsLock(tid2, p1));
+    }
+
+    /**
+     * A scan locks the table S: it covers all the pages, readers of pages
+     * are let in and writers wait.
+     */
+    @Test
+    public void scanLocksTable() throws Exception {
+        scan(tid1);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid1, p2));
+        TestUtil.LockGrabber r = TestUtil.grab(tid2, p1, Permissions.READ_ONLY);
+        assertTrue(r.acquired());
+        TestUtil.LockGrabber w = TestUtil.grab(tid3, p2, Permissions.READ_WRITE);
+        assertFalse(w.acquired());
+        bp.transactionComplete(tid1);
+        w.join(1000);
+        assertTrue(w.acquired());
+    }
+
+    /**
+     * A scan waits for the writers of the table.
+     */
+    @Test
+    public void scanWaitsForWriter() throws Exception {
+        bp.getPage(tid1, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber s = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY) {
+            public void run() {
+                try {
+                    bp.lockTable(tid, pid.getTableId(), LockMode.S);
+                } catch (TransactionAbortedException e) {
+                    return;
+                }
+                super.run();
+            }
+        };
+        s.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(s.acquired());
+        bp.transactionComplete(tid1);
+        s.join(1000);
+        assertTrue(s.acquired());
+    }
+
+    /**
+     * A transaction that scans and then writes holds the table in SIX:
+     * others may still read the pages it did not write.
+     */
+    @Test
+    public void scanThenWrite() throws Exception {
+        scan(tid1);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber r1 = TestUtil.grab(tid2, p1, Permissions.READ_ONLY);
+        assertTrue(r1.acquired());
+        TestUtil.LockGrabber r0 = TestUtil.grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(r0.acquired());
+        bp.transactionComplete(tid1);
+        r0.join(1000);
+        assertTrue(r0.acquired());
+    }
+
+    /**
+     * Read locks on enough pages of a table are escalated to S on the
+     * table, which keeps writers out of the other pages too.
+     */
+    @Test
+    public void escalateReads() throws Exception {
+        bp.setLockEscalation(2);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertFalse(bp.holdsLock(tid1, p2));
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid1, p2));
+        TestUtil.LockGrabber w = TestUtil.grab(tid2, p2, Permissions.READ_WRITE);
+        assertFalse(w.acquired());
+        bp.transactionComplete(tid1);
+        w.join(1000);
+        assertTrue(w.acquired());
+    }
+
+    /**
+     * Write locks are escalated to X on the table, which keeps readers
+     * out of the other pages too.
+     */
+    @Test
+    public void escalateWrites() throws Exception {
+        bp.setLockEscalation(2);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber r = TestUtil.grab(tid2, p2, Permissions.READ_ONLY);
+        assertFalse(r.acquired());
+        bp.transactionComplete(tid1);
+        r.join(1000);
+        assertTrue(r.acquired());
+    }
+
+    /**
+     * Escalation does not wait for a conflicting table lock: the page
+     * locks are kept instead.
+     */
+    @Test
+    public void escalationDoesNotWait() throws Exception {
+        bp.setLockEscalation(2);
+        bp.getPage(tid2, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber r0 = TestUtil.grab(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber r1 = TestUtil.grab(tid1, p1, Permissions.READ_ONLY);
+        assertTrue(r0.acquired());
+        assertTrue(r1.acquired());
+        assertFalse(bp.holdsLock(tid1, p2));
+        TestUtil.LockGrabber w = TestUtil.grab(tid2, p2, Permissions.READ_WRITE);
+        assertTrue(w.acquired());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableLockTest.class);
+    }
+}
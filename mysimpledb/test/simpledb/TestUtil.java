@@ -3,6 +3,10 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
+import org.junit.Before;
+
+import simpledb.systemtest.SystemTestUtil;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -397,6 +401,18 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Starts a LockGrabber and gives it LockContention.TIMEOUT ms to get
+     * its lock before the caller checks on it.
+     */
+    public static LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        LockGrabber t = new LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(LockContention.TIMEOUT);
+        return t;
+    }
+
     /**
      * JUnit fixture that creates a heap file and cleans it up afterward.
      */
@@ -422,4 +438,45 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * JUnit fixture for tests of lock contention: a table of random tuples,
+     * a fresh buffer pool, the first pages of the table and three
+     * transactions, tid1 older than tid2, older than tid3.
+     */
+    public static abstract class LockContention extends CreateHeapFile {
+        /**
+         * Time to wait before checking the state of lock contention, in ms
+         */
+        protected static final int TIMEOUT = 100;
+
+        private final int tuples;
+        protected PageId p0, p1, p2;
+        protected TransactionId tid1, tid2, tid3;
+        protected BufferPool bp;
+
+        /**
+         * A table of 1025 tuples, on three pages.
+         */
+        protected LockContention() {
+            this(1025);
+        }
+
+        protected LockContention(int tuples) {
+            this.tuples = tuples;
+        }
+
+        @Before
+        public void setUp() throws Exception {
+            super.setUp();
+            empty = SystemTestUtil.createRandomHeapFile(2, tuples, null, null);
+            bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            p0 = new HeapPageId(empty.getId(), 0);
+            p1 = new HeapPageId(empty.getId(), 1);
+            p2 = new HeapPageId(empty.getId(), 2);
+            tid1 = new TransactionId();
+            tid2 = new TransactionId();
+            tid3 = new TransactionId();
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TwoQueuePolicyTest extends SimpleDbTestBase {
+
+    private static final int POOL = 8;
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private final Set<PageId> resident = new HashSet<PageId>();
+
+    /**
+     * Simulates a BufferPool of POOL pages requesting pid.
+     */
+    private void request(ReplacementPolicy policy, PageId pid) {
+        if (resident.contains(pid)) {
+            policy.pageAccessed(pid);
+            return;
+        }
+        if (resident.size() == POOL) {
+            PageId victim = policy.chooseVictim(ANY);
+            resident.remove(victim);
+            policy.pageRemoved(victim);
+        }
+        resident.add(pid);
+        policy.pageLoaded(pid);
+    }
+
+    /**
+     * Pages that were re-referenced after leaving A1in are hot and survive
+     * a scan over many more pages than the pool holds.
+     */
+    @Test
+    public void scanResistance() {
+        // A1out must remember the hot pages while they are being re-read
+        TwoQueuePolicy policy = new TwoQueuePolicy(POOL, POOL / 4, POOL);
+        HeapPageId[] hot = new HeapPageId[4];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = new HeapPageId(-1, i);
+        }
+
+        // first touch, then push the hot pages out of A1in and touch them again
+        for (HeapPageId pid : hot) {
+            request(policy, pid);
+        }
+        for (int i = 0; i < POOL; i++) {
+            request(policy, new HeapPageId(-2, i));
+        }
+        for (HeapPageId pid : hot) {
+            request(policy, pid);
+        }
+
+        // a long scan
+        for (int i = 0; i < 10 * POOL; i++) {
+            request(policy, new HeapPageId(-3, i));
+        }
+        for (HeapPageId pid : hot) {
+            assertEquals(true, resident.contains(pid));
+        }
+    }
+
+    /**
+     * Plain CLOCK, by contrast, loses the same hot pages to the scan.
+     */
+    @Test
+    public void clockIsNotScanResistant() {
+        ClockPolicy policy = new ClockPolicy(POOL);
+        HeapPageId hot = new HeapPageId(-1, 0);
+        request(policy, hot);
+        request(policy, hot);
+        for (int i = 0; i < 10 * POOL; i++) {
+            request(policy, new HeapPageId(-3, i));
+        }
+        assertFalse(resident.contains(hot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TwoQueuePolicyTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool.getPage throughput on cached pages with an increasing
+ * number of threads. Every thread runs its own transaction and requests
+ * random pages of a table that fits entirely in the buffer pool, so all
+ * requests are hits and the numbers reflect contention inside getPage.
+ * <p/>
+ * Each thread count gets a warm-up round before the measured rounds, and
+ * the best measured round is reported.
+ * <p/>
+ * Run with: ant runbench -Dbench=BufferPoolBenchmark
+ */
+public class BufferPoolBenchmark {
+
+    private static final int TABLE_PAGES = 256;
+    private static final int WARMUP_MILLIS = 500;
+    private static final int MEASURE_MILLIS = 1000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        Database.resetBufferPool(TABLE_PAGES);
+
+        // bring every page into the buffer pool
+        TransactionId loader = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            Database.getBufferPool().getPage(loader, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(loader);
+
+        System.out.println("threads\tops/sec\tspeedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            run(f, threads, WARMUP_MILLIS);
+            double best = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                best = Math.max(best, run(f, threads, MEASURE_MILLIS));
+            }
+            if (threads == 1) {
+                base = best;
+            }
+            System.out.printf("%d\t%.0f\t%.2f%n", threads, best, best / base);
+        }
+    }
+
+    /**
+     * @return page requests per second across all threads
+     */
+    private static double run(final HeapFile f, int threads, final int millis) throws Exception {
+        final AtomicLong ops = new AtomicLong();
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        final int numPages = f.numPages();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    BufferPool bp = Database.getBufferPool();
+                    long n = 0;
+                    try {
+                        start.await();
+                        long end = System.currentTimeMillis() + millis;
+                        while (System.currentTimeMillis() < end) {
+                            for (int j = 0; j < 1000; j++) {
+                                bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(numPages)),
+                                        Permissions.READ_ONLY);
+                            }
+                            n += 1000;
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    ops.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+        long begin = System.nanoTime();
+        start.await();
+        for (Thread t : workers) {
+            t.join();
+        }
+        double secs = (System.nanoTime() - begin) / 1e9;
+        return ops.get() / secs;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the conversion of a text file of ROWS lines (two ints and a
+ * string) to a HeapFile with one thread, as HeapFileEncoder does, and with
+ * all cores, as SimpleDb convert --parallel does. The text file is read
+ * once before so that both conversions find it in the OS cache.
+ * <p/>
+ * Run with: ant runbench -Dbench=BulkLoadBenchmark
+ */
+public class BulkLoadBenchmark {
+
+    private static final int ROWS = 2000000;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+        File txt = File.createTempFile("bulk", ".txt");
+        txt.deleteOnExit();
+        Random r = new Random(7);
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt), 1 << 16);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + "," + r.nextInt() + ",name " + Long.toString(r.nextLong() & Long.MAX_VALUE, 36) + "\n");
+        }
+        w.close();
+        File out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        new BulkLoader(types, ',', BufferPool.getPageSize(), 1).convert(txt, out);
+        System.out.printf("%d rows, %.1f MB of text, %d cores%n", ROWS, txt.length() / 1e6, cores);
+        System.out.println("threads\tms\trows/s");
+        for (int threads : new int[]{1, cores}) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long begin = System.nanoTime();
+                new BulkLoader(types, ',', BufferPool.getPageSize(), threads).convert(txt, out);
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            System.out.printf("%d\t%.1f\t%.0f%n", threads, best / 1e6, ROWS / (best / 1e9));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.*;
+
+/**
+ * Measures a high-contention update workload under each DeadlockPolicy:
+ * THREADS threads run transactions that read one of PAGES pages, then
+ * update two of them in random order, hold the locks for HOLD_MILLIS and
+ * commit, for RUN_MILLIS. Aborted transactions are retried with the same
+ * TransactionId, so that they keep their age under WAIT_DIE and
+ * WOUND_WAIT. The pages are not modified and the transactions complete
+ * without the log, so that the time goes to the locks. Reports the transactions committed and
+ * aborted per second and the time the slowest commit took, retries
+ * included.
+ * <p/>
+ * Run with: ant runbench -Dbench=DeadlockBenchmark
+ */
+public class DeadlockBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int PAGES = 4;
+    private static final int HOLD_MILLIS = 1;
+    private static final long RUN_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PAGES * 900; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("updates", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 1);
+        HeapFile f = Utility.openHeapFile(1, file);
+        Database.getCatalog().addTable(f, "updates");
+        final PageId[] pids = new PageId[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pids[i] = new HeapPageId(f.getId(), i);
+        }
+
+        System.out.println("policy\tcommits/s\taborts/s\tslowest commit ms");
+        for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setDeadlockPolicy(policy);
+            final AtomicInteger commits = new AtomicInteger();
+            final AtomicInteger aborts = new AtomicInteger();
+            final long[] slowest = new long[THREADS];
+            final long end = System.currentTimeMillis() + RUN_MILLIS;
+            Thread[] threads = new Thread[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                final int n = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        Random r = new Random(n);
+                        try {
+                            while (System.currentTimeMillis() < end) {
+                                long begin = System.nanoTime();
+                                int a = r.nextInt(PAGES);
+                                int b = r.nextInt(PAGES);
+                                BufferPool bp = Database.getBufferPool();
+                                TransactionId tid = new TransactionId();
+                                while (true) {
+                                    try {
+                                        bp.getPage(tid, pids[a], Permissions.READ_ONLY);
+                                        bp.getPage(tid, pids[a], Permissions.READ_WRITE);
+                                        bp.getPage(tid, pids[b], Permissions.READ_WRITE);
+                                        Thread.sleep(HOLD_MILLIS);
+                                        bp.transactionComplete(tid, true);
+                                        commits.incrementAndGet();
+                                        break;
+                                    } catch (TransactionAbortedException e) {
+                                        bp.transactionComplete(tid, false);
+                                        aborts.incrementAndGet();
+                                    }
+                                }
+                                slowest[n] = Math.max(slowest[n], System.nanoTime() - begin);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            long max = 0;
+            for (int i = 0; i < THREADS; i++) {
+                threads[i].join();
+                max = Math.max(max, slowest[i]);
+            }
+            System.out.printf("%s\t%.1f\t%.1f\t%.1f%n", policy, commits.get() * 1000.0 / RUN_MILLIS,
+                    aborts.get() * 1000.0 / RUN_MILLIS, max / 1e6);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures an equi-join of a small table to the key of a large HashFile,
+ * like Movie_Director to Director on its primary key: a nested-loops Join,
+ * which scans the HashFile once per outer tuple, against an IndexJoin,
+ * which looks every outer tuple up in the hash. Every join starts with an
+ * empty buffer pool.
+ * <p/>
+ * Run with: ant runbench -Dbench=IndexJoinBenchmark
+ */
+public class IndexJoinBenchmark {
+
+    private static final int INNER_ROWS = 100000;
+    private static final int OUTER_ROWS = 200;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("director", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        SystemTestUtil.CountingHashFile inner = new SystemTestUtil.CountingHashFile(file,
+                Utility.getTupleDesc(3), 0);
+        Database.getCatalog().addTable(inner, "director");
+        File outerFile = File.createTempFile("directs", ".dat");
+        outerFile.deleteOnExit();
+        HeapFile outer = Utility.createEmptyHeapFile(outerFile.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(outer, "directs");
+
+        //load with a pool that holds the whole table, so that the load does
+        //not evict (and log) pages of the transaction that is loading them
+        Database.resetBufferPool(4096);
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < INNER_ROWS; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), inner.getId(), Utility.getHeapTuple(new int[]{i, i, -i}));
+        }
+        for (int i = 0; i < OUTER_ROWS; i++) {
+            int key = (int) ((i * 7919L) % INNER_ROWS);
+            Database.getBufferPool().insertTuple(t.getId(), outer.getId(), Utility.getHeapTuple(new int[]{i, key}));
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        System.out.printf("loaded %d rows, %d pages, in %.1f ms%n", INNER_ROWS, inner.numPages(),
+                (System.nanoTime() - begin) / 1e6);
+
+        System.out.println("join\tpages read\tms\tmatches");
+        run("nested loops", inner, outer, false);
+        run("index", inner, outer, true);
+    }
+
+    private static void run(String name, SystemTestUtil.CountingHashFile inner, HeapFile outer, boolean index)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        inner.reads = 0;
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        SeqScan outerScan = new SeqScan(t.getId(), outer.getId(), "m");
+        SeqScan innerScan = new SeqScan(t.getId(), inner.getId(), "d");
+        DbIterator it = index ? new IndexJoin(p, outerScan, innerScan) : new Join(p, outerScan, innerScan);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        System.out.printf("%s\t%d\t%.1f\t%d%n", name, inner.reads, (System.nanoTime() - begin) / 1e6, n);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures point lookups on the key of a BTreeFile: a Filter over a SeqScan,
+ * which reads every page of the table, against an IndexScan, which reads one
+ * page per level of the tree and the leaf with the key. Every lookup starts
+ * with an empty buffer pool.
+ * <p/>
+ * Run with: ant runbench -Dbench=IndexScanBenchmark
+ */
+public class IndexScanBenchmark {
+
+    private static final int ROWS = 200000;
+    private static final int LOOKUPS = 5;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("index", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        SystemTestUtil.CountingBTreeFile f = new SystemTestUtil.CountingBTreeFile(file,
+                Utility.getTupleDesc(3), 0);
+        Database.getCatalog().addTable(f, "index");
+
+        //load with a pool that holds the whole table, so that the load does
+        //not evict (and log) pages of the transaction that is loading them
+        Database.resetBufferPool(4096);
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            //keys in no particular order
+            int key = (int) ((i * 7919L) % ROWS);
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[]{key, i, -i}));
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        System.out.printf("loaded %d rows, %d pages, in %.1f ms%n", ROWS, f.numPages(),
+                (System.nanoTime() - begin) / 1e6);
+
+        System.out.println("lookup\tpages read\tms\tmatches");
+        for (int r = 0; r < LOOKUPS; r++) {
+            run("filter", f, r * (ROWS / LOOKUPS), false);
+        }
+        for (int r = 0; r < LOOKUPS; r++) {
+            run("index", f, r * (ROWS / LOOKUPS), true);
+        }
+    }
+
+    private static void run(String name, SystemTestUtil.CountingBTreeFile f, int key, boolean index)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator it = index
+                ? new IndexScan(t.getId(), f.getId(), "", Predicate.Op.EQUALS, new IntField(key))
+                : new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(key)),
+                new SeqScan(t.getId(), f.getId(), ""));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        System.out.printf("%s\t%d\t%.1f\t%d%n", name, f.reads, (System.nanoTime() - begin) / 1e6, n);
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures insert throughput as a table grows. Tuples are inserted into an
+ * initially empty table in batches, one transaction per batch; each batch
+ * fills BATCH_PAGES pages. With a free space map the throughput of a batch
+ * should not depend on the number of (full) pages already in the table.
+ * <p/>
+ * Run with: ant runbench -Dbench=InsertBenchmark [-Dargs=numBatches]
+ */
+public class InsertBenchmark {
+
+    private static final int BATCH_PAGES = 10;
+    // 2 int columns -> 504 tuples per page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    public static void main(String[] args) throws Exception {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+
+        File file = File.createTempFile("insertbench", ".dat");
+        file.deleteOnExit();
+        HeapFile f = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        BufferPool bp = Database.getBufferPool();
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        System.out.println("pages\tinserts/sec");
+        for (int b = 0; b < batches; b++) {
+            int pagesBefore = f.numPages();
+            Transaction t = new Transaction();
+            t.start();
+            long begin = System.nanoTime();
+            for (int i = 0; i < BATCH_PAGES * TUPLES_PER_PAGE; i++) {
+                // pages keep the inserted tuple object, so use a new one each time
+                Tuple tup = new Tuple(td);
+                tup.setField(0, new IntField(i));
+                tup.setField(1, new IntField(b));
+                bp.insertTuple(t.getId(), f.getId(), tup);
+            }
+            t.commit();
+            double secs = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("%d\t%.0f%n", pagesBefore, BATCH_PAGES * TUPLES_PER_PAGE / secs);
+        }
+    }
+}
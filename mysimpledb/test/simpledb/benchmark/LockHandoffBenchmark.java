@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.*;
+
+/**
+ * Measures transactions that all write-lock the same page: THREADS
+ * threads each run transactions that lock the page, hold it for
+ * HOLD_MILLIS and commit, for RUN_MILLIS. Reports the transactions
+ * committed and aborted per second, the commits of the thread that
+ * committed least, and the mean time a committed transaction waited for
+ * the lock.
+ * <p/>
+ * Run with: ant runbench -Dbench=LockHandoffBenchmark
+ */
+public class LockHandoffBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int HOLD_MILLIS = 2;
+    private static final long RUN_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> tuple = new ArrayList<Integer>();
+        tuple.add(0);
+        tuples.add(tuple);
+        File file = File.createTempFile("hot", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 1);
+        HeapFile f = Utility.openHeapFile(1, file);
+        Database.getCatalog().addTable(f, "hot");
+        final PageId pid = new HeapPageId(f.getId(), 0);
+
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final long[] waited = new long[THREADS];
+        final int[] committed = new int[THREADS];
+        final long end = System.currentTimeMillis() + RUN_MILLIS;
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            long begin = System.nanoTime();
+                            try {
+                                Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_WRITE);
+                                waited[n] += System.nanoTime() - begin;
+                                Thread.sleep(HOLD_MILLIS);
+                                t.commit();
+                                commits.incrementAndGet();
+                                committed[n]++;
+                            } catch (TransactionAbortedException e) {
+                                t.abort();
+                                aborts.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        long total = 0;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+            total += waited[i];
+            fewest = Math.min(fewest, committed[i]);
+        }
+        System.out.println("threads\tcommits/s\taborts/s\tfewest commits\tmean wait ms");
+        System.out.printf("%d\t%.1f\t%.1f\t%d\t%.2f%n", THREADS, commits.get() * 1000.0 / RUN_MILLIS,
+                aborts.get() * 1000.0 / RUN_MILLIS, fewest, total / 1e6 / Math.max(1, commits.get()));
+        System.exit(0);
+    }
+}
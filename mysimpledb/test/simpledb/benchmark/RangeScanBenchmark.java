@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a range query, 1% of the rows, over a table whose first field
+ * increases with the position of the row in the file (e.g. a timestamp of
+ * appended rows). Compares a Filter over a plain SeqScan with a SeqScan
+ * that the predicate is pushed into, which skips the pages its zone map
+ * rules out once the first such scan has summarized them, and with the same
+ * scan of a copy of the table opened as sorted on the field, which finds the
+ * start of the range with a binary search from the first scan on. Every scan
+ * starts with an empty buffer pool.
+ * <p/>
+ * Run with: ant runbench -Dbench=RangeScanBenchmark
+ */
+public class RangeScanBenchmark {
+
+    private static final int ROWS = 500000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 1000);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("range", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 3);
+        File sortedFile = File.createTempFile("sorted", ".dat");
+        sortedFile.deleteOnExit();
+        HeapFileEncoder.convert(tuples, sortedFile, BufferPool.getPageSize(), 3);
+        tuples = null;
+        SystemTestUtil.CountingHeapFile f = new SystemTestUtil.CountingHeapFile(file,
+                Utility.getTupleDesc(3), -1);
+        Database.getCatalog().addTable(f, "range");
+        SystemTestUtil.CountingHeapFile sorted = new SystemTestUtil.CountingHeapFile(sortedFile,
+                Utility.getTupleDesc(3), 0);
+        Database.getCatalog().addTable(sorted, "sorted");
+
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - ROWS / 100));
+        System.out.println("scan\tpages read\tms\tmatches");
+        for (int r = 0; r < ROUNDS; r++) {
+            run("filter", f, p, false);
+        }
+        for (int r = 0; r < ROUNDS; r++) {
+            run("pushed", f, p, true);
+        }
+        for (int r = 0; r < ROUNDS; r++) {
+            run("sorted", sorted, p, true);
+        }
+    }
+
+    private static void run(String name, SystemTestUtil.CountingHeapFile f, Predicate p, boolean pushed)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator it = pushed ? new SeqScan(t.getId(), f.getId(), "", null, p)
+                : new Filter(p, new SeqScan(t.getId(), f.getId(), ""));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        System.out.printf("%s\t%d\t%.1f\t%d%n", name, f.reads, (System.nanoTime() - begin) / 1e6, n);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.*;
+
+/**
+ * Measures an update workload on a small hot table, with page locks and
+ * with record locks: THREADS threads run transactions that update one of
+ * their own ROWS / THREADS rows, all on the same page, by deleting it by
+ * RecordId, holding the locks for HOLD_MILLIS, and inserting its new
+ * version, then commit through the log, for RUN_MILLIS. Aborted
+ * transactions are retried. Reports the transactions committed and
+ * aborted per second.
+ * <p/>
+ * Run with: ant runbench -Dbench=RecordLockBenchmark
+ */
+public class RecordLockBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int ROWS = 200;
+    private static final int HOLD_MILLIS = 1;
+    private static final long RUN_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(0);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("hot", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        final HeapFile f = Utility.openHeapFile(2, file);
+        Database.getCatalog().addTable(f, "hot");
+
+        System.out.println("locks\tcommits/s\taborts/s");
+        for (final boolean records : new boolean[]{false, true}) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setRecordLocking(records);
+            //the rows of each thread, by RecordId
+            final ArrayList<ArrayList<RecordId>> rows = new ArrayList<ArrayList<RecordId>>();
+            for (int i = 0; i < THREADS; i++) {
+                rows.add(new ArrayList<RecordId>());
+            }
+            for (int p = 0; p < f.numPages(); p++) {
+                Iterator<Tuple> it = ((HeapPage) bp.getPage(null, new HeapPageId(f.getId(), p),
+                        Permissions.READ_ONLY)).iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    rows.get(((IntField) t.getField(0)).getValue() % THREADS).add(t.getRecordId());
+                }
+            }
+            final AtomicInteger commits = new AtomicInteger();
+            final AtomicInteger aborts = new AtomicInteger();
+            final long end = System.currentTimeMillis() + RUN_MILLIS;
+            Thread[] threads = new Thread[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                final ArrayList<RecordId> mine = rows.get(i);
+                threads[i] = new Thread() {
+                    public void run() {
+                        Random r = new Random(mine.size());
+                        BufferPool bp = Database.getBufferPool();
+                        try {
+                            while (System.currentTimeMillis() < end) {
+                                int row = r.nextInt(mine.size());
+                                while (true) {
+                                    Transaction t = new Transaction();
+                                    t.start();
+                                    try {
+                                        Tuple old = new Tuple(f.getTupleDesc());
+                                        old.setRecordId(mine.get(row));
+                                        Tuple updated = new Tuple(f.getTupleDesc());
+                                        updated.setField(0, new IntField(row));
+                                        updated.setField(1, new IntField(commits.get()));
+                                        bp.deleteTuple(t.getId(), old);
+                                        Thread.sleep(HOLD_MILLIS);
+                                        bp.insertTuple(t.getId(), f.getId(), updated);
+                                        t.commit();
+                                        mine.set(row, updated.getRecordId());
+                                        commits.incrementAndGet();
+                                        break;
+                                    } catch (TransactionAbortedException e) {
+                                        t.abort();
+                                        aborts.incrementAndGet();
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < THREADS; i++) {
+                threads[i].join();
+            }
+            System.out.printf("%s\t%.1f\t%.1f%n", records ? "records" : "pages",
+                    commits.get() * 1000.0 / RUN_MILLIS, aborts.get() * 1000.0 / RUN_MILLIS);
+        }
+        System.exit(0);
+    }
+}
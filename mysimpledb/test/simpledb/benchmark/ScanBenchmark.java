@@ -0,0 +1,59 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a selective scan over a wide table: a Filter on the first of
+ * COLUMNS int columns that rejects most rows, so most fields of a row are
+ * never looked at. Reports rows per second and bytes allocated per row,
+ * for cold (pages read from disk) and warm (pages in the buffer pool)
+ * scans.
+ * <p/>
+ * Run with: ant runbench -Dbench=ScanBenchmark
+ */
+public class ScanBenchmark {
+
+    private static final int COLUMNS = 10;
+    private static final int ROWS = 200000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, null);
+        Database.resetBufferPool(f.numPages() + 1);
+
+        System.out.println("scan\trows/sec\tbytes/row");
+        for (int r = 0; r < ROUNDS; r++) {
+            long alloc = allocatedBytes();
+            long begin = System.nanoTime();
+            int matches = scan(f);
+            double secs = (System.nanoTime() - begin) / 1e9;
+            alloc = allocatedBytes() - alloc;
+            System.out.printf("%s\t%.0f\t%.1f\t(%d matches)%n", r == 0 ? "cold" : "warm",
+                    ROWS / secs, (double) alloc / ROWS, matches);
+        }
+    }
+
+    private static int scan(HeapFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(t.getId(), f.getId(), ""));
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        t.commit();
+        return n;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import simpledb.*;
+
+/**
+ * Measures the locking cost of reading every page of a table of PAGES
+ * nearly empty pages in one transaction and committing it: with a lock on every
+ * page (escalation turned off), with page locks escalated to a table lock
+ * after the default number of them, and with the single table lock a
+ * HeapFile scan takes. The pages are requested as sequential. Reports the
+ * best time of RUNS runs and the heap used after the reads, before the
+ * commit.
+ * <p/>
+ * Run with: ant runbench -Dbench=TableLockBenchmark
+ */
+public class TableLockBenchmark {
+
+    private static final int PAGES = 20000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        //pages holding a single (0, 0) tuple: only the locks matter
+        File file = File.createTempFile("locks", ".dat");
+        file.deleteOnExit();
+        byte[] page = new byte[BufferPool.getPageSize()];
+        page[0] = 1;
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        for (int i = 0; i < PAGES; i++) {
+            out.write(page);
+        }
+        out.close();
+        HeapFile f = Utility.openHeapFile(2, file);
+        Database.getCatalog().addTable(f, "locks");
+
+        System.out.printf("%d pages%n", f.numPages());
+        System.out.println("locks\tms\theap MB");
+        String[] names = {"pages", "escalated", "table"};
+        for (int mode = 0; mode < names.length; mode++) {
+            long best = Long.MAX_VALUE;
+            long heap = 0;
+            for (int run = 0; run < RUNS; run++) {
+                BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                if (mode == 0) {
+                    bp.setLockEscalation(0);
+                }
+                System.gc();
+                long begin = System.nanoTime();
+                TransactionId tid = new TransactionId();
+                if (mode == 2) {
+                    bp.lockTable(tid, f.getId(), LockMode.S);
+                }
+                for (int i = 0; i < f.numPages(); i++) {
+                    bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY, true);
+                }
+                Runtime rt = Runtime.getRuntime();
+                heap = rt.totalMemory() - rt.freeMemory();
+                bp.transactionComplete(tid, true);
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            System.out.printf("%s\t%.1f\t%.1f%n", names[mode], best / 1e6, heap / 1e6);
+        }
+    }
+}
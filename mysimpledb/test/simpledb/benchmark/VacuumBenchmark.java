@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a full scan of a table that lost 90% of its rows to deletes
+ * spread over the whole file, before and after HeapFile.vacuum, and the
+ * time the vacuum takes. Every scan starts with an empty buffer pool.
+ * <p/>
+ * Run with: ant runbench -Dbench=VacuumBenchmark
+ */
+public class VacuumBenchmark {
+
+    private static final int ROWS = 500000;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("churn", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        tuples = null;
+        SystemTestUtil.CountingHeapFile f = new SystemTestUtil.CountingHeapFile(file,
+                Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, "churn");
+
+        //a pool that holds the whole table, so that the deletes and the
+        //moves are not written (and logged) by evictions
+        Database.resetBufferPool(f.numPages() + BufferPool.DEFAULT_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % 10 != 0) {
+                doomed.add(tup);
+            }
+        }
+        it.close();
+        for (Tuple tup : doomed) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        doomed = null;
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+
+        System.out.println("scan\tpages read\tms\trows");
+        scan("before vacuum", f);
+        Database.resetBufferPool(f.numPages() + BufferPool.DEFAULT_PAGES);
+        long begin = System.nanoTime();
+        int freed = f.vacuum();
+        Database.getBufferPool().flushAllPages();
+        System.out.printf("vacuum\t%d pages freed\t%.1f%n", freed, (System.nanoTime() - begin) / 1e6);
+        scan("after vacuum", f);
+    }
+
+    private static void scan(String name, SystemTestUtil.CountingHeapFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+        long begin = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        System.out.printf("%s\t%d\t%.1f\t%d%n", name, f.reads, (System.nanoTime() - begin) / 1e6, n);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests BTreeFiles built by inserts through the BufferPool, their scans in
+ * key order, range scans and the planner's choice between an IndexScan and
+ * a SeqScan. The tests every index passes are in
+ * {@link SystemTestUtil.IndexFileTestBase}.
+ */
+public class BTreeFileTest extends SystemTestUtil.IndexFileTestBase {
+
+    public BTreeFileTest() {
+        super(new SystemTestUtil.IndexFileFactory() {
+            public IndexedFile create(File f, TupleDesc td, int keyField) {
+                return new BTreeFile(f, td, keyField);
+            }
+        });
+    }
+
+    /**
+     * A scan returns the tuples in key order.
+     */
+    @Test
+    public void testScanOrder() throws Exception {
+        insertRandom(ROWS);
+        TransactionId tid = new TransactionId();
+        assertEquals(keys, keys(f.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Index iterators return the tuples whose key satisfies the predicate,
+     * in key order.
+     */
+    @Test
+    public void testIndexIterator() throws Exception {
+        insertRandom(ROWS);
+        TransactionId tid = new TransactionId();
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ};
+        int[] operands = {-1, 0, keys.get(ROWS / 3), keys.get(ROWS / 2), ROWS / 2 - 1, ROWS};
+        for (Predicate.Op op : ops) {
+            for (int operand : operands) {
+                assertEquals(op + " " + operand, expected(op, operand),
+                        keys(f.indexIterator(tid, op, new IntField(operand))));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The tuples found by a range scan through an IndexScan can be deleted.
+     */
+    @Test
+    public void testRangeDelete() throws Exception {
+        insertRandom(ROWS);
+        int bound = keys.get(ROWS / 4);
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(),
+                new IndexScan(t.getId(), f.getId(), "b", Predicate.Op.LESS_THAN, new IntField(bound)));
+        delete.open();
+        assertEquals(expected(Predicate.Op.LESS_THAN, bound).size(),
+                ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        t.commit();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, bound), keys(f.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DbIterator scanOf(DbIterator plan) {
+        while (!(plan instanceof SeqScan)) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return plan;
+    }
+
+    /**
+     * The planner looks up selective predicates on the key in the tree of a
+     * table declared "btree" in the catalog, and scans the table otherwise.
+     */
+    @Test
+    public void testPlannerUsesIndex() throws Exception {
+        File dir = File.createTempFile("btree", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        FileWriter catalog = new FileWriter(new File(dir, "catalog.txt"));
+        catalog.write("movies (year int, id int pk) btree\n");
+        catalog.close();
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("movies");
+        BTreeFile movies = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+        new File(dir, "movies.dat").deleteOnExit();
+        assertEquals(1, movies.getKeyField());
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple tup = new Tuple(movies.getTupleDesc());
+            tup.setField(0, new IntField(1900 + i % 100));
+            tup.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(t.getId(), tableId, tup);
+        }
+        t.commit();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("movies", new TableStats(tableId, 1000));
+
+        t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addFilter("m.id", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("m.year", null);
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertTrue(scanOf(plan) instanceof IndexScan);
+        assertEquals(1, count(plan));
+
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addFilter("m.id", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("m.year", null);
+        plan = lp.physicalPlan(t.getId(), stats, false);
+        assertFalse(scanOf(plan) instanceof IndexScan);
+        assertEquals(ROWS - 11, count(plan));
+
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addFilter("m.year", Predicate.Op.EQUALS, "1950");
+        lp.addProjectField("m.id", null);
+        plan = lp.physicalPlan(t.getId(), stats, false);
+        assertFalse(scanOf(plan) instanceof IndexScan);
+        assertEquals(ROWS / 100, count(plan));
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
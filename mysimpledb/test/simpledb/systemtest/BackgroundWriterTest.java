@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests NO FORCE commits and the BufferPool's background page writer.
+ */
+public class BackgroundWriterTest extends LogTestBase {
+
+    @Override
+    void setup() throws IOException, DbException, TransactionAbortedException {
+        super.setup();
+        Database.getBufferPool().setForce(false);
+    }
+
+    private byte[] diskPage(HeapFile hf) {
+        return hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+    }
+
+    /**
+     * The background writer installs committed pages in their file.
+     */
+    @Test
+    public void testWriterInstallsCommittedPages()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        byte[] before = diskPage(hf1);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 1, 0);
+        t1.commit();
+        assertTrue(Arrays.equals(before, diskPage(hf1)));
+
+        BufferPool bp = Database.getBufferPool();
+        bp.startBackgroundWriter(10);
+        try {
+            for (int i = 0; i < 500 && Arrays.equals(before, diskPage(hf1)); i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            bp.stopBackgroundWriter();
+        }
+        assertFalse(Arrays.equals(before, diskPage(hf1)));
+
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        t.commit();
+    }
+
+    /**
+     * Pages a running transaction holds a write lock on are left alone.
+     */
+    @Test
+    public void testWriterSkipsWriteLockedPages()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 1, 0);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().getPage(t2.getId(),
+                new HeapPageId(hf1.getId(), 0), Permissions.READ_WRITE);
+        assertEquals(0, Database.getBufferPool().writeCommittedPages());
+        t2.commit();
+        assertEquals(1, Database.getBufferPool().writeCommittedPages());
+    }
+
+    /**
+     * Committed pages that were never written are redone by recovery.
+     */
+    @Test
+    public void testRedoAfterCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 1, 0);
+        insertRow(hf2, t1, 2, 0);
+        t1.commit();
+
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf2, t, 2, true);
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests BulkLoader: the pages it writes with any number of threads and
+ * chunk size, HeapFile.copyFrom and the COPY statement of the parser.
+ */
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private File dir;
+    private File txt;
+    private ArrayList<String> expected;
+
+    /**
+     * Writes ROWS lines (i, a string, a random int) with the line endings,
+     * blank lines and spaces text files come with.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("bulk", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        txt = new File(dir, "movies.txt");
+        txt.deleteOnExit();
+        expected = new ArrayList<String>();
+        Random r = new Random(460);
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++) {
+            int v = r.nextInt(2000000) - 1000000;
+            String s = "movie " + Integer.toString(r.nextInt(1 << 30), 36);
+            if (i % 100 == 0) {
+                //cut to Type.STRING_LEN
+                char[] c = new char[Type.STRING_LEN + 10];
+                Arrays.fill(c, 'x');
+                s = new String(c);
+            }
+            w.write(i + ", " + s + " ," + v + (i % 7 == 0 ? "\r\n" : "\n"));
+            if (i % 500 == 0) {
+                w.write("\n \n");
+            }
+            expected.add(i + "\t" + s.substring(0, Math.min(s.length(), Type.STRING_LEN)) + "\t" + v);
+        }
+        //the last line has no line break
+        w.write(ROWS + ",last,-1");
+        w.close();
+        expected.add(ROWS + "\tlast\t-1");
+    }
+
+    private ArrayList<String> read(HeapFile f) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + "\t" + ((StringField) t.getField(1)).getValue() + "\t" + t.getField(2));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private byte[] bytes(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(f));
+        in.readFully(b);
+        in.close();
+        return b;
+    }
+
+    /**
+     * The file holds all lines in their order, with full pages, and is the
+     * same for any number of threads and chunk size, also for chunks that
+     * are shorter than a line.
+     */
+    @Test
+    public void testConvert() throws Exception {
+        File single = new File(dir, "single.dat");
+        single.deleteOnExit();
+        BulkLoader loader = new BulkLoader(TYPES, ',', BufferPool.getPageSize(), 1);
+        assertEquals(ROWS + 1, loader.convert(txt, single));
+        HeapFile f = new HeapFile(single, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertEquals(expected, read(f));
+        assertEquals(loader.numPages(ROWS + 1), f.numPages());
+        assertEquals((long) f.numPages() * BufferPool.getPageSize(), single.length());
+
+        int[] chunks = {10, 1000, 100000};
+        for (int threads = 1; threads <= 4; threads += 3) {
+            for (int chunk : chunks) {
+                File out = new File(dir, "out.dat");
+                out.deleteOnExit();
+                loader = new BulkLoader(TYPES, ',', BufferPool.getPageSize(), threads);
+                loader.setChunkBytes(chunk);
+                loader.convert(txt, out);
+                assertTrue(threads + " threads, chunks of " + chunk,
+                        Arrays.equals(bytes(single), bytes(out)));
+            }
+        }
+    }
+
+    /**
+     * HeapFileEncoder writes the same pages, also from a list of tuples, and
+     * an empty input gives an empty page.
+     */
+    @Test
+    public void testHeapFileEncoder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        File fromList = new File(dir, "list.dat");
+        fromList.deleteOnExit();
+        HeapFileEncoder.convert(tuples, fromList, BufferPool.getPageSize(), 2);
+        HeapFile f = Utility.openHeapFile(2, fromList);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        File ints = new File(dir, "ints.txt");
+        ints.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(ints));
+        for (ArrayList<Integer> t : tuples) {
+            w.write(t.get(0) + "," + t.get(1) + "\n");
+        }
+        w.close();
+        File fromText = new File(dir, "text.dat");
+        fromText.deleteOnExit();
+        HeapFileEncoder.convert(ints, fromText, BufferPool.getPageSize(), 2);
+        assertTrue(Arrays.equals(bytes(fromList), bytes(fromText)));
+
+        File empty = new File(dir, "empty.dat");
+        empty.deleteOnExit();
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), empty, BufferPool.getPageSize(), 2);
+        assertEquals(BufferPool.getPageSize(), empty.length());
+        f = Utility.openHeapFile(2, empty);
+        SystemTestUtil.matchTuples(f, new ArrayList<ArrayList<Integer>>());
+    }
+
+    /**
+     * COPY appends the lines to a table after its tuples, which inserts and
+     * scans then find, and is refused inside a transaction.
+     */
+    @Test
+    public void testCopy() throws Exception {
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("movies (id int, title string, rank int)\n");
+        w.close();
+        new File(dir, "movies.dat").deleteOnExit();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("movies");
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tup = new Tuple(f.getTupleDesc());
+        tup.setField(0, new IntField(-1));
+        tup.setField(1, new StringField("first", Type.STRING_LEN));
+        tup.setField(2, new IntField(0));
+        Database.getBufferPool().insertTuple(t.getId(), tableId, tup);
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+
+        Parser p = new Parser();
+        p.processNextStatement("copy movies from '" + txt.getAbsolutePath() + "';");
+        ArrayList<String> all = new ArrayList<String>();
+        all.add("-1\tfirst\t0");
+        all.addAll(expected);
+        assertEquals(all, read(f));
+
+        t = new Transaction();
+        t.start();
+        tup = new Tuple(f.getTupleDesc());
+        tup.setField(0, new IntField(-2));
+        tup.setField(1, new StringField("first", Type.STRING_LEN));
+        tup.setField(2, new IntField(0));
+        Database.getBufferPool().insertTuple(t.getId(), tableId, tup);
+        t.commit();
+        all.add("-2\tfirst\t0");
+        p.processNextStatement("COPY movies FROM '" + txt.getAbsolutePath() + "' DELIMITER ',';");
+        all.addAll(expected);
+        Collections.sort(all);
+        ArrayList<String> rows = read(f);
+        Collections.sort(rows);
+        assertEquals(all, rows);
+
+        //refused inside a transaction
+        p.processNextStatement("SET TRANSACTION READ WRITE;");
+        p.processNextStatement("copy movies from '" + txt.getAbsolutePath() + "';");
+        assertEquals(all.size(), read(f).size());
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
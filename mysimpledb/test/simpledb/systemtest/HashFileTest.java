@@ -0,0 +1,190 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the bucket splits and overflow chains of HashFiles built by inserts
+ * through the BufferPool, and the planner's choice of an IndexJoin with a
+ * HashFile as inner table. The tests every index passes are in
+ * {@link SystemTestUtil.IndexFileTestBase}.
+ */
+public class HashFileTest extends SystemTestUtil.IndexFileTestBase {
+
+    public HashFileTest() {
+        super(new SystemTestUtil.IndexFileFactory() {
+            public IndexedFile create(File f, TupleDesc td, int keyField) {
+                return new HashFile(f, td, keyField);
+            }
+        });
+    }
+
+    private HashPage page(TransactionId tid, int pageNo) throws Exception {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(f.getId(), pageNo),
+                Permissions.READ_ONLY);
+    }
+
+    /**
+     * Inserts split buckets as the file grows, and every key ends up in
+     * the chain of exactly one bucket.
+     */
+    @Test
+    public void testBucketSplits() throws Exception {
+        insertRandom(ROWS);
+        TransactionId tid = new TransactionId();
+        HashHeaderPage header = (HashHeaderPage) page(tid, 0);
+        assertTrue(header.getNumBuckets() > 1);
+        HashMap<Integer, Integer> bucketOf = new HashMap<Integer, Integer>();
+        int tuples = 0;
+        for (int bucket = 0; bucket < header.getNumBuckets(); bucket++) {
+            for (int pageNo = header.getBucketPage(bucket); pageNo != 0; ) {
+                HashBucketPage p = (HashBucketPage) page(tid, pageNo);
+                for (Tuple t : p.getTuples()) {
+                    int key = ((IntField) t.getField(0)).getValue();
+                    Integer other = bucketOf.put(key, bucket);
+                    assertTrue("key " + key, other == null || other == bucket);
+                    tuples++;
+                }
+                pageNo = p.getOverflow();
+            }
+        }
+        assertEquals(ROWS, tuples);
+        assertEquals(new HashSet<Integer>(keys), bucketOf.keySet());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * More tuples with one key than a page holds go to a chain of overflow
+     * pages, which no split can shorten, and a lookup follows the chain.
+     */
+    @Test
+    public void testOverflowChains() throws Exception {
+        int n = ROWS / 10;
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < n; i++) {
+            Tuple tup = new Tuple(f.getTupleDesc());
+            tup.setField(0, new IntField(7));
+            tup.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+        }
+        t.commit();
+
+        TransactionId tid = new TransactionId();
+        HashHeaderPage header = (HashHeaderPage) page(tid, 0);
+        int longest = 0;
+        for (int bucket = 0; bucket < header.getNumBuckets(); bucket++) {
+            int length = 0;
+            for (int pageNo = header.getBucketPage(bucket); pageNo != 0; ) {
+                length++;
+                pageNo = ((HashBucketPage) page(tid, pageNo)).getOverflow();
+            }
+            longest = Math.max(longest, length);
+        }
+        assertTrue(longest >= n * 8 / BufferPool.getPageSize());
+        assertEquals(n, keys(f.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))).size());
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(f.supports(Predicate.Op.LESS_THAN));
+    }
+
+    private boolean hasIndexJoin(DbIterator plan) {
+        if (plan instanceof IndexJoin) {
+            return true;
+        }
+        if (!(plan instanceof Operator)) {
+            return false;
+        }
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            if (hasIndexJoin(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The planner joins a table to one declared "hash" in the catalog on its
+     * key by looking the key up, in either order of the join.
+     */
+    @Test
+    public void testPlannerUsesIndexJoin() throws Exception {
+        File dir = File.createTempFile("hash", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        FileWriter catalog = new FileWriter(new File(dir, "catalog.txt"));
+        catalog.write("director (id int pk, born int) hash\n");
+        catalog.write("directs (movie int, did int)\n");
+        catalog.close();
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+        new File(dir, "director.dat").deleteOnExit();
+        new File(dir, "directs.dat").deleteOnExit();
+        int directorId = Database.getCatalog().getTableId("director");
+        int directsId = Database.getCatalog().getTableId("directs");
+        assertTrue(Database.getCatalog().getDatabaseFile(directorId) instanceof HashFile);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple tup = new Tuple(Database.getCatalog().getTupleDesc(directorId));
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new IntField(1900 + i % 100));
+            Database.getBufferPool().insertTuple(t.getId(), directorId, tup);
+        }
+        for (int i = 0; i < 50; i++) {
+            Tuple tup = new Tuple(Database.getCatalog().getTupleDesc(directsId));
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new IntField(i * 7));
+            Database.getBufferPool().insertTuple(t.getId(), directsId, tup);
+        }
+        t.commit();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("director", new TableStats(directorId, 1000));
+        stats.put("directs", new TableStats(directsId, 1000));
+
+        String[][] orders = {{"m.did", "d.id"}, {"d.id", "m.did"}};
+        for (String[] order : orders) {
+            t = new Transaction();
+            t.start();
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(directsId, "m");
+            lp.addScan(directorId, "d");
+            lp.addJoin(order[0], order[1], Predicate.Op.EQUALS);
+            lp.addProjectField("d.born", null);
+            DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+            assertTrue(hasIndexJoin(plan));
+            assertEquals(50, count(plan));
+            t.commit();
+        }
+
+        //a filter on the indexed table rules the lookups out
+        t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(directsId, "m");
+        lp.addScan(directorId, "d");
+        lp.addJoin("m.did", "d.id", Predicate.Op.EQUALS);
+        lp.addFilter("d.born", Predicate.Op.LESS_THAN, "1950");
+        lp.addProjectField("d.born", null);
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertFalse(hasIndexJoin(plan));
+        //the directors of movies 7 * i with (7 * i) mod 100 < 50
+        assertEquals(29, count(plan));
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -15,12 +15,18 @@ import static org.junit.Assert.fail;
  */
 public class LogNoForceTest extends LogTestBase {
 
+    @Override
+    void setup() throws IOException, DbException, TransactionAbortedException {
+        super.setup();
+        Database.getBufferPool().setForce(false);
+    }
+
     @Test
     public void testAllDirtySucceeds()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
-        Database.resetBufferPool(1);
+        Database.resetBufferPool(1).setSteal(true);
 
         // BEGIN TRANSACTION
         Transaction t = new Transaction();
@@ -55,4 +61,26 @@ public class LogNoForceTest extends LogTestBase {
                 Arrays.equals(before.getPageData(), after.getPageData()));
     }
 
+    @Test
+    public void testAbortKeepsUnwrittenCommit()
+            throws TransactionAbortedException, IOException, DbException {
+        setup();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 10, 0);
+        t1.commit();
+
+        // the page is still dirty from t1's commit when t2 aborts its change
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 11, 0);
+        t2.abort();
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        look(hf1, t3, 10, true);
+        look(hf1, t3, 11, false);
+        t3.commit();
+    }
 }
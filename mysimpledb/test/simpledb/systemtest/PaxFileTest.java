@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests PaxFiles written by HeapFileEncoder and read by projected scans.
+ */
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    /**
+     * Writes ROWS rows of (id, year, title) and loads them as table
+     * "movies" in PAX format.
+     */
+    private PaxFile loadMovies() throws Exception {
+        File dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        FileWriter data = new FileWriter(new File(dir, "movies.txt"));
+        for (int i = 0; i < ROWS; i++) {
+            data.write(i + "," + (1900 + i % 100) + ",Movie " + i + "\n");
+        }
+        data.close();
+        FileWriter catalog = new FileWriter(new File(dir, "catalog.txt"));
+        catalog.write("movies (id int, year int, title string) pax\n");
+        catalog.close();
+
+        Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+        HeapFileEncoder.convertPax(new File(dir, "movies.txt"), new File(dir, "movies.dat"), types, ',');
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("movies"));
+        assertTrue(f instanceof PaxFile);
+        return (PaxFile) f;
+    }
+
+    private Set<String> run(DbIterator it) throws Exception {
+        Set<String> rows = new HashSet<String>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * A scan of some fields returns just those, in the requested order.
+     */
+    @Test
+    public void testProjectedScan() throws Exception {
+        PaxFile f = loadMovies();
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "m", new int[]{2, 0});
+        assertEquals("m.title", scan.getTupleDesc().getFieldName(0));
+        assertEquals(2, scan.getTupleDesc().numFields());
+        Set<String> rows = run(scan);
+        assertEquals(ROWS, rows.size());
+        assertTrue(rows.contains("Movie 17 17"));
+        assertEquals(ROWS, run(new SeqScan(t.getId(), f.getId(), "m")).size());
+        t.commit();
+    }
+
+    /**
+     * The planner scans only the fields a query reads, and the query gets
+     * the same answer.
+     */
+    @Test
+    public void testPlannerProjectsPaxScans() throws Exception {
+        PaxFile f = loadMovies();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("movies", new TableStats(f.getId(), 1));
+
+        Transaction t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "m");
+        lp.addFilter("m.year", Predicate.Op.EQUALS, "1950");
+        lp.addProjectField("m.title", null);
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertEquals(2, scan.getTupleDesc().numFields());
+
+        Set<String> rows = run(plan);
+        assertEquals(ROWS / 100, rows.size());
+        assertTrue(rows.contains("Movie 50"));
+        t.commit();
+    }
+
+    /**
+     * Tuples returned by a projected scan can be deleted.
+     */
+    @Test
+    public void testDeleteThroughProjectedScan() throws Exception {
+        PaxFile f = loadMovies();
+        //the delete dirties more pages than the buffer pool holds
+        Database.getBufferPool().setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new Filter(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(ROWS - 10)),
+                new SeqScan(t.getId(), f.getId(), "m", new int[]{0})));
+        delete.open();
+        assertEquals(ROWS - 10, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(10, run(new SeqScan(t.getId(), f.getId(), "m")).size());
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests SlottedFiles written by HeapFileEncoder and opened by the Catalog.
+ */
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    /**
+     * Writes ROWS movies to name.txt in dir, and a catalog for them.
+     */
+    private File writeTable(File dir, String name, String storage) throws IOException {
+        FileWriter data = new FileWriter(new File(dir, name + ".txt"));
+        for (int i = 0; i < ROWS; i++) {
+            data.write(i + ",Movie " + i + "\n");
+        }
+        data.close();
+        File catalog = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (id int, title string) " + storage + "\n");
+        w.close();
+        return catalog;
+    }
+
+    private Set<String> scan(DbFile f) throws Exception {
+        Set<String> rows = new HashSet<String>();
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            rows.add(tup.getField(0) + "," + tup.getField(1));
+        }
+        scan.close();
+        t.commit();
+        return rows;
+    }
+
+    /**
+     * A table converted with convertSlotted and listed as slotted in the
+     * catalog is opened as a SlottedFile and scanned like a HeapFile, and
+     * takes several times fewer pages.
+     */
+    @Test
+    public void testEncodeAndLoad() throws Exception {
+        File dir = File.createTempFile("slotted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE};
+
+        File catalog = writeTable(dir, "movies", "slotted");
+        HeapFileEncoder.convertSlotted(new File(dir, "movies.txt"), new File(dir, "movies.dat"), types, ',');
+        HeapFileEncoder.convert(new File(dir, "movies.txt"), new File(dir, "heap.dat"),
+                BufferPool.getPageSize(), 2, types);
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("movies"));
+        assertTrue(f instanceof SlottedFile);
+        Set<String> rows = scan(f);
+        assertEquals(ROWS, rows.size());
+        assertTrue(rows.contains("1234,Movie 1234"));
+
+        HeapFile heap = new HeapFile(new File(dir, "heap.dat"), f.getTupleDesc());
+        assertTrue(((SlottedFile) f).numPages() * 3 < heap.numPages());
+    }
+
+    /**
+     * A storage format the catalog does not know is reported to the caller.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStorage() throws Exception {
+        File dir = File.createTempFile("slotted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File catalog = writeTable(dir, "movies", "columnar");
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool survive a flush and a
+     * re-read of the pages.
+     */
+    @Test
+    public void testInsertDelete() throws Exception {
+        File file = File.createTempFile("slotted", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        SlottedFile f = new SlottedFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new StringField("Movie " + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new Filter(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)),
+                new SeqScan(t.getId(), f.getId(), "")));
+        delete.open();
+        assertEquals(ROWS - 10, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        t.commit();
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Set<String> rows = scan(f);
+        assertEquals(10, rows.size());
+        assertTrue(rows.contains("9,Movie 9"));
+    }
+
+    /**
+     * A page that had no room for a long record still takes a short one:
+     * the free space map does not skip it for shorter records.
+     */
+    @Test
+    public void testShortRecordFillsPage() throws Exception {
+        File file = File.createTempFile("slotted", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        SlottedFile f = new SlottedFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++) {
+            title.append('x');
+        }
+        Transaction t = new Transaction();
+        t.start();
+        //long records until one goes to a new page
+        for (int i = 0; f.numPages() < 2; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new StringField(title.toString(), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+        }
+        Tuple tup = new Tuple(td);
+        tup.setField(0, new IntField(-1));
+        tup.setField(1, new StringField("", Type.STRING_LEN));
+        SlottedPage first = (SlottedPage) Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(first.hasRoomFor(tup));
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+        assertEquals(0, tup.getRecordId().getPageId().pageNumber());
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb.systemtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests HeapFiles written sorted by HeapFileEncoder.convertSorted: their
+ * order, the scans that read only the pages of a range, and the plans that
+ * need no OrderBy.
+ */
+public class SortedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File dir;
+    private SystemTestUtil.CountingHeapFile f;
+
+    /**
+     * Writes ROWS lines (i, key) with random keys in [0, ROWS / 2), so that
+     * keys repeat, and converts them sorted on the key in runs of 700 lines.
+     */
+    @Before
+    public void createFile() throws Exception {
+        //small pages, so that the file has many pages
+        BufferPool.setPageSize(512);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        dir = File.createTempFile("sorted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File txt = new File(dir, "movies.txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        Random r = new Random(460);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + "," + r.nextInt(ROWS / 2) + "\n");
+        }
+        w.close();
+        File dat = new File(dir, "movies.dat");
+        dat.deleteOnExit();
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        HeapFileEncoder.convertSorted(txt, dat, BufferPool.getPageSize(), 2, types, ',', 1, 700);
+        f = new SystemTestUtil.CountingHeapFile(dat, Utility.getTupleDesc(2, "f"), 1);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+    }
+
+    @After
+    public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the tuples of f that satisfy p (all if p is null), with a new
+     * buffer pool.
+     */
+    private ArrayList<Tuple> scan(Predicate p) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "s", null, p);
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            result.add(scan.next());
+        }
+        scan.close();
+        t.commit();
+        return result;
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(1)).getValue();
+    }
+
+    /**
+     * The file holds all lines, sorted on the key, and lines with equal keys
+     * in their order in the input.
+     */
+    @Test
+    public void testSorted() throws Exception {
+        ArrayList<Tuple> all = scan(null);
+        assertEquals(ROWS, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Tuple a = all.get(i - 1);
+            Tuple b = all.get(i);
+            assertTrue(key(a) <= key(b));
+            if (key(a) == key(b)) {
+                assertTrue(((IntField) a.getField(0)).getValue() < ((IntField) b.getField(0)).getValue());
+            }
+        }
+    }
+
+    /**
+     * Range scans on the key return the same tuples as a filter over the
+     * whole file, and read a few pages more than the range covers.
+     */
+    @Test
+    public void testRangeScans() throws Exception {
+        ArrayList<Tuple> all = scan(null);
+        int pages = f.reads;
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ};
+        int[] operands = {-1, 0, key(all.get(ROWS / 3)), key(all.get(ROWS / 2)), ROWS / 2 - 1, ROWS};
+        for (Predicate.Op op : ops) {
+            for (int operand : operands) {
+                Predicate p = new Predicate(1, op, new IntField(operand));
+                int expected = 0;
+                for (Tuple t : all) {
+                    if (p.filter(t)) {
+                        expected++;
+                    }
+                }
+                assertEquals(op + " " + operand, expected, scan(p).size());
+                //the pages of the range, plus the binary search and the page
+                //where the range ends
+                int rangePages = (int) Math.ceil((double) expected * pages / ROWS) + 1;
+                int searchPages = 2 * (32 - Integer.numberOfLeadingZeros(pages));
+                assertTrue(op + " " + operand + " read " + f.reads + " pages",
+                        f.reads <= rangePages + searchPages + 1);
+            }
+        }
+    }
+
+    /**
+     * The catalog opens a table declared "sorted", which does not take
+     * inserts, and a query ordered on its sort field needs no OrderBy.
+     */
+    @Test
+    public void testCatalogAndPlans() throws Exception {
+        int expected = 0;
+        for (Tuple tup : scan(null)) {
+            if (key(tup) > 100) {
+                expected++;
+            }
+        }
+        FileWriter catalog = new FileWriter(new File(dir, "catalog.txt"));
+        catalog.write("movies (id int, year int) sorted year\n");
+        catalog.close();
+        new File(dir, "catalog.txt").deleteOnExit();
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("movies");
+        assertEquals(1, Database.getCatalog().getSortField(tableId));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("movies", new TableStats(tableId, 1000));
+
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            Database.getBufferPool().insertTuple(t.getId(), tableId,
+                    Utility.getHeapTuple(new int[]{0, 0}));
+            fail("inserted into a sorted file");
+        } catch (DbException e) {
+            //expected
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addFilter("m.year", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("m.id", null);
+        lp.addOrderBy("m.year", true);
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertFalse(hasOrderBy(plan));
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(expected, n);
+
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addProjectField("m.year", null);
+        lp.addOrderBy("m.id", true);
+        assertTrue(hasOrderBy(lp.physicalPlan(t.getId(), stats, false)));
+
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "m");
+        lp.addProjectField("m.id", null);
+        lp.addOrderBy("m.year", false);
+        assertTrue(hasOrderBy(lp.physicalPlan(t.getId(), stats, false)));
+        t.commit();
+    }
+
+    private boolean hasOrderBy(DbIterator plan) {
+        if (plan instanceof OrderBy) {
+            return true;
+        }
+        if (!(plan instanceof Operator)) {
+            return false;
+        }
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            if (hasOrderBy(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortedHeapFileTest.class);
+    }
+}
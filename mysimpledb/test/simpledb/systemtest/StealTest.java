@@ -0,0 +1,74 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StealTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+
+    /**
+     * Deletes every tuple of a table that does not fit in the buffer pool,
+     * so dirty pages of the running transaction have to be evicted.
+     */
+    private void deleteAll(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        Tuple result = delete.next();
+        assertEquals(992 * PAGES, ((IntField) result.getField(0)).getValue());
+        delete.close();
+    }
+
+    /**
+     * An aborted transaction whose dirty pages were stolen is undone from
+     * the before-images in the log.
+     */
+    @Test
+    public void testAbortAfterSteal()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, null, tuples);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAll(f, t);
+        t.transactionComplete(true);
+
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Under NO STEAL the same transaction runs out of buffer pool pages.
+     */
+    @Test
+    public void testNoStealRunsOutOfPages()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, null, null);
+        Database.resetBufferPool(2).setSteal(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            deleteAll(f, t);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        t.transactionComplete(true);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}
@@ -3,12 +3,17 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
 
 import simpledb.*;
 
@@ -180,6 +185,316 @@ public class SystemTestUtil {
         return UUID.randomUUID().toString();
     }
 
+    /**
+     * A HeapFile that counts the pages it reads.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        public int reads = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public CountingHeapFile(File f, TupleDesc td, int sortField) {
+            super(f, td, sortField);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A BTreeFile that counts the pages it reads.
+     */
+    public static class CountingBTreeFile extends BTreeFile {
+        public int reads = 0;
+
+        public CountingBTreeFile(File f, TupleDesc td, int keyField) {
+            super(f, td, keyField);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A HashFile that counts the pages it reads.
+     */
+    public static class CountingHashFile extends HashFile {
+        public int reads = 0;
+
+        public CountingHashFile(File f, TupleDesc td, int keyField) {
+            super(f, td, keyField);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Creates the IndexedFile an IndexFileTestBase runs on.
+     */
+    public interface IndexFileFactory {
+        IndexedFile create(File f, TupleDesc td, int keyField);
+    }
+
+    /**
+     * Base class for the tests of an IndexedFile: each test starts with an
+     * empty file from the factory, with two int fields keyed on the first,
+     * small pages, so that the file grows to many pages, and a BufferPool
+     * that may steal. The tests here hold for every kind of index; the
+     * subclasses add the ones for their own structure.
+     */
+    public static abstract class IndexFileTestBase extends SimpleDbTestBase {
+        public static final int ROWS = 6000;
+
+        private final IndexFileFactory factory;
+        protected IndexedFile f;
+        protected ArrayList<Integer> keys;      //keys inserted, sorted
+
+        protected IndexFileTestBase(IndexFileFactory factory) {
+            this.factory = factory;
+        }
+
+        @Before
+        public void setUp() throws Exception {
+            BufferPool.setPageSize(512);
+            super.setUp();
+            //a transaction inserts more pages than the buffer pool holds
+            Database.getBufferPool().setSteal(true);
+            File file = File.createTempFile("index", ".dat");
+            file.delete();
+            file.deleteOnExit();
+            f = factory.create(file, Utility.getTupleDesc(2), 0);
+            Database.getCatalog().addTable(f, "index");
+            keys = new ArrayList<Integer>();
+        }
+
+        @After
+        public void tearDown() {
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+        }
+
+        /**
+         * Inserts n tuples with random keys in [0, n / 2), so that many keys
+         * appear more than once, in one transaction.
+         */
+        protected void insertRandom(int n) throws Exception {
+            Random r = new Random(460);
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < n; i++) {
+                int key = r.nextInt(n / 2);
+                keys.add(key);
+                Tuple tup = new Tuple(f.getTupleDesc());
+                tup.setField(0, new IntField(key));
+                tup.setField(1, new IntField(i));
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            }
+            t.commit();
+            Collections.sort(keys);
+        }
+
+        /**
+         * @return the keys of the tuples of it, in the order it returns them
+         */
+        protected ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+            ArrayList<Integer> result = new ArrayList<Integer>();
+            it.open();
+            while (it.hasNext()) {
+                result.add(((IntField) it.next().getField(0)).getValue());
+            }
+            it.close();
+            return result;
+        }
+
+        /**
+         * @return the keys of the tuples of it, sorted
+         */
+        protected ArrayList<Integer> sortedKeys(DbFileIterator it) throws Exception {
+            ArrayList<Integer> result = keys(it);
+            Collections.sort(result);
+            return result;
+        }
+
+        /**
+         * @return the inserted keys that satisfy op operand, sorted
+         */
+        protected ArrayList<Integer> expected(Predicate.Op op, int operand) {
+            ArrayList<Integer> result = new ArrayList<Integer>();
+            for (int key : keys) {
+                if (new IntField(key).compare(op, new IntField(operand))) {
+                    result.add(key);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the ids of the pages that hold tuples
+         */
+        protected HashSet<PageId> pages() throws Exception {
+            HashSet<PageId> result = new HashSet<PageId>();
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                result.add(it.next().getRecordId().getPageId());
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return result;
+        }
+
+        protected int count(DbIterator it) throws Exception {
+            int n = 0;
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+            it.close();
+            return n;
+        }
+
+        /**
+         * A scan returns all inserted tuples, also after the pages were
+         * written and read back.
+         */
+        @Test
+        public void testInsertAndScan() throws Exception {
+            insertRandom(ROWS);
+            //at least as many pages as the tuples fill
+            Assert.assertTrue(pages().size() > ROWS * 8 / BufferPool.getPageSize());
+            TransactionId tid = new TransactionId();
+            Assert.assertEquals(keys, sortedKeys(f.iterator(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+
+            Database.getBufferPool().flushAllPages();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            Assert.assertEquals(keys, sortedKeys(f.iterator(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        /**
+         * Lookups of a key return the tuples with the key.
+         */
+        @Test
+        public void testLookup() throws Exception {
+            insertRandom(ROWS);
+            TransactionId tid = new TransactionId();
+            int[] lookups = {-1, 0, keys.get(ROWS / 3), keys.get(ROWS / 2), ROWS / 2 - 1, ROWS};
+            for (int key : lookups) {
+                Assert.assertEquals("key " + key, expected(Predicate.Op.EQUALS, key),
+                        keys(f.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        /**
+         * Tuples found by a lookup can be deleted, also when they have moved
+         * on their page since they were read.
+         */
+        @Test
+        public void testDelete() throws Exception {
+            insertRandom(ROWS);
+            int key = keys.get(ROWS / 4);
+            Transaction t = new Transaction();
+            t.start();
+            Delete delete = new Delete(t.getId(),
+                    new IndexScan(t.getId(), f.getId(), "i", Predicate.Op.EQUALS, new IntField(key)));
+            delete.open();
+            Assert.assertEquals(expected(Predicate.Op.EQUALS, key).size(),
+                    ((IntField) delete.next().getField(0)).getValue());
+            delete.close();
+
+            //a copy of a tuple whose RecordId points at another tuple
+            int other = keys.get(ROWS / 2);
+            DbFileIterator it = f.indexIterator(t.getId(), Predicate.Op.EQUALS, new IntField(other));
+            it.open();
+            Tuple first = it.next();
+            it.close();
+            Tuple moved = new Tuple(f.getTupleDesc());
+            moved.setField(0, first.getField(0));
+            moved.setField(1, first.getField(1));
+            moved.setRecordId(new RecordId(first.getRecordId().getPageId(), first.getRecordId().tupleno() + 1));
+            Database.getBufferPool().deleteTuple(t.getId(), moved);
+            t.commit();
+
+            ArrayList<Integer> left = new ArrayList<Integer>(keys);
+            left.removeAll(Collections.singleton(key));
+            left.remove(Integer.valueOf(other));
+            TransactionId tid = new TransactionId();
+            Assert.assertEquals(left, sortedKeys(f.iterator(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        /**
+         * Aborting a transaction that grew the file leaves it as it was.
+         */
+        @Test
+        public void testAbort() throws Exception {
+            insertRandom(ROWS / 10);
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < ROWS; i++) {
+                Tuple tup = new Tuple(f.getTupleDesc());
+                tup.setField(0, new IntField(i));
+                tup.setField(1, new IntField(-i));
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            }
+            t.transactionComplete(true);
+
+            TransactionId tid = new TransactionId();
+            Assert.assertEquals(keys, sortedKeys(f.iterator(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        /**
+         * Pages rewritten by an interrupted thread, whose I/O closes the file
+         * channel, reach the file, and the file can still be read afterwards.
+         */
+        @Test
+        public void testInterruptedWrite() throws Exception {
+            insertRandom(ROWS / 10);
+            final HashSet<PageId> pages = pages();
+            final boolean[] interrupted = new boolean[1];
+            final Exception[] error = new Exception[1];
+            Thread writer = new Thread() {
+                public void run() {
+                    Thread.currentThread().interrupt();
+                    try {
+                        for (PageId pid : pages) {
+                            f.writePage(f.readPage(pid));
+                        }
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                    interrupted[0] = Thread.currentThread().isInterrupted();
+                }
+            };
+            writer.start();
+            writer.join();
+            Assert.assertNull(error[0]);
+            Assert.assertTrue(interrupted[0]);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            Assert.assertEquals(keys, sortedKeys(f.iterator(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     private static double[] getDiff(double[] sequence) {
         double ret[] = new double[sequence.length - 1];
         for (int i = 0; i < sequence.length - 1; ++i)
@@ -0,0 +1,252 @@
+package simpledb.systemtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests HeapFile.compact, truncate and vacuum, and the VACUUM statement of
+ * the parser, on files that lost most of their tuples to deletes.
+ */
+public class VacuumTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile f;
+
+    @Before
+    public void setUp() throws Exception {
+        //small pages, so that the file has many pages
+        BufferPool.setPageSize(512);
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+    }
+
+    @After
+    public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Deletes the tuples whose first field is not a multiple of keepEvery,
+     * and the matching rows of tuples.
+     */
+    private void deleteMost(int keepEvery) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % keepEvery != 0) {
+                doomed.add(tup);
+            }
+        }
+        it.close();
+        for (Tuple tup : doomed) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        t.commit();
+        Iterator<ArrayList<Integer>> rows = tuples.iterator();
+        while (rows.hasNext()) {
+            if (rows.next().get(0) % keepEvery != 0) {
+                rows.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the fewest pages that can hold n tuples of f
+     */
+    private int pagesFor(int n) {
+        int perPage = (BufferPool.getPageSize() * 8) / (f.getTupleDesc().getSize() * 8 + 1);
+        return (n + perPage - 1) / perPage;
+    }
+
+    /**
+     * Vacuum keeps the tuples, packs them into the fewest pages and shrinks
+     * the file, also when its pages were written and read back.
+     */
+    @Test
+    public void testVacuum() throws Exception {
+        int before = f.numPages();
+        deleteMost(4);
+        assertEquals(before - pagesFor(tuples.size()), f.vacuum());
+        assertEquals(pagesFor(tuples.size()), f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals((long) f.numPages() * BufferPool.getPageSize(), f.getFile().length());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        //the file grows again from its new end
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[]{i, -i}));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        t.commit();
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, f.vacuum());
+    }
+
+    /**
+     * Moved tuples carry the RecordId of their new slot, so they can be
+     * deleted through it.
+     */
+    @Test
+    public void testRecordIds() throws Exception {
+        deleteMost(4);
+        Transaction t = new Transaction();
+        t.start();
+        assertTrue(f.compact(t.getId()) > 0);
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        it.close();
+        for (Tuple tup : all) {
+            assertTrue(tup.getRecordId().getPageId().pageNumber() < pagesFor(tuples.size()));
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        t.commit();
+        SystemTestUtil.matchTuples(f, new ArrayList<ArrayList<Integer>>());
+        assertEquals(pagesFor(ROWS), f.vacuum());
+        assertEquals(0, f.numPages());
+    }
+
+    /**
+     * An aborted compaction leaves every tuple where it was, and truncate
+     * keeps pages the truncating transaction changed itself.
+     */
+    @Test
+    public void testAbort() throws Exception {
+        deleteMost(4);
+        int before = f.numPages();
+        Transaction t = new Transaction();
+        t.start();
+        f.compact(t.getId());
+        assertEquals(0, f.truncate(t.getId()));
+        t.abort();
+        assertEquals(before, f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        t = new Transaction();
+        t.start();
+        assertEquals(0, f.truncate(t.getId()));
+        t.commit();
+        assertEquals(before, f.numPages());
+    }
+
+    /**
+     * A sorted file stays sorted, and its range scans still find their
+     * tuples.
+     */
+    @Test
+    public void testSorted() throws Exception {
+        File txt = File.createTempFile("sorted", ".txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + "," + (i * 7919 % ROWS) + "\n");
+        }
+        w.close();
+        File dat = File.createTempFile("sorted", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertSorted(txt, dat, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 1);
+        f = new HeapFile(dat, Utility.getTupleDesc(2), 1);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        tuples.clear();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i * 7919 % ROWS);
+            tuples.add(row);
+        }
+        deleteMost(3);
+        assertTrue(f.vacuum() > 0);
+        assertEquals(pagesFor(tuples.size()), f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS / 2));
+        DbFileIterator it = f.iterator(t.getId(), null, p);
+        it.open();
+        int last = -1;
+        int n = 0;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            n++;
+        }
+        it.close();
+        t.commit();
+        int expected = 0;
+        for (ArrayList<Integer> row : tuples) {
+            if (row.get(1) >= ROWS / 2) {
+                expected++;
+            }
+        }
+        assertEquals(expected, n);
+    }
+
+    /**
+     * The parser runs VACUUM on a table of the catalog.
+     */
+    @Test
+    public void testParser() throws Exception {
+        File dir = File.createTempFile("vacuum", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("movies (id int, year int)\n");
+        w.close();
+        File dat = new File(dir, "movies.dat");
+        dat.deleteOnExit();
+        f.getFile().renameTo(dat);
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("movies"));
+        deleteMost(4);
+        int before = f.numPages();
+
+        Parser p = new Parser();
+        p.processNextStatement("VACUUM movies;");
+        assertEquals(pagesFor(tuples.size()), f.numPages());
+        assertTrue(f.numPages() < before);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VacuumTest.class);
+    }
+}
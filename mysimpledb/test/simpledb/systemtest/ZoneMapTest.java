@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that scans with a predicate skip the pages the zone map of a
+ * HeapFile rules out, and still return every matching tuple.
+ */
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private SystemTestUtil.CountingHeapFile f;
+
+    /**
+     * Creates a file of ROWS tuples (i, ROWS - i), in order of i, and scans
+     * it once with a predicate on each field so that its pages are
+     * summarized.
+     */
+    @Before
+    public void createFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(ROWS - i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("zones", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        f = new SystemTestUtil.CountingHeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertEquals(ROWS, count(null));
+        assertEquals(ROWS, count(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0))));
+        assertEquals(ROWS, count(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0))));
+        assertEquals(f.numPages(), f.reads);
+    }
+
+    /**
+     * Counts the tuples of f that satisfy p, with a new buffer pool.
+     */
+    private int count(Predicate p) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "z", null, p);
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            assertTrue(p == null || p.filter(tup));
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    @Test
+    public void rangeScansSkipPages() throws Exception {
+        assertEquals(10, count(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10))));
+        assertEquals(1, f.reads);
+        assertEquals(1, count(new Predicate(1, Predicate.Op.EQUALS, new IntField(ROWS / 2))));
+        assertEquals(1, f.reads);
+        assertEquals(0, count(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))));
+        assertEquals(0, f.reads);
+        assertEquals(ROWS - 1, count(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7))));
+        assertEquals(f.numPages(), f.reads);
+    }
+
+    /**
+     * Inserted tuples widen the summary of their page, and tuples that an
+     * aborted delete puts back are found again.
+     */
+    @Test
+    public void insertsAndAborts() throws Exception {
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS));
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[]{ROWS + 1, 0}));
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, count(big));
+
+        Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new Filter(small, new SeqScan(t.getId(), f.getId(), "z")));
+        delete.open();
+        assertEquals(10, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        t.abort();
+        assertEquals(10, count(small));
+        assertEquals(1, f.reads);
+    }
+
+    /**
+     * The planner pushes an INT filter into the scan of a HeapFile.
+     */
+    @Test
+    public void plannerPushesFilters() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1));
+        Transaction t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "z");
+        lp.addFilter("z.f0", Predicate.Op.LESS_THAN_OR_EQ, "3");
+        lp.addProjectField("z.f1", null);
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i <= 3; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(ROWS - i);
+            expected.add(tuple);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        assertEquals(1, f.reads);
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}